@@ -0,0 +1,51 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Synthetic books for the benchmarks: a chapter file with chapters of varying length and a PDF which is only ever
+ * hashed, never parsed, because the fake renderer ignores it.
+ */
+final class BenchmarkBooks {
+
+    private BenchmarkBooks() {
+    }
+
+    static File createWorkDirectory(final String name) throws IOException {
+        final File directory = Files.createTempDirectory("pdf2html-" + name).toFile();
+        directory.deleteOnExit();
+        return directory;
+    }
+
+    static File writeChapterFile(final File directory, final int chapterCount, final int pageCount)
+            throws IOException {
+        final File file = new File(directory, "book.txt");
+        final Random random = new Random(chapterCount * 31L + pageCount);
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            int first = 2;
+            for (int chapter = 0; chapter < chapterCount && first <= pageCount; chapter++) {
+                final int remaining = chapterCount - chapter;
+                final int average = Math.max(1, (pageCount - first + 1) / remaining);
+                final int length = chapter == chapterCount - 1 ? pageCount - first + 1
+                        : Math.max(1, average / 2 + random.nextInt(average + 1));
+                final int last = Math.min(pageCount, first + length - 1);
+                writer.println("Chapter " + (chapter + 1));
+                writer.println(first + " " + last);
+                first = last + 1;
+            }
+        }
+        return file;
+    }
+
+    static File writePdf(final File directory) throws IOException {
+        final File file = new File(directory, "book.pdf");
+        final byte[] content = new byte[1024 * 1024];
+        new Random(7).nextBytes(content);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+}
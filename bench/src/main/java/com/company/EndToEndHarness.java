@@ -0,0 +1,100 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Renders a synthetic book end to end through {@link Main} with the fake renderer, once per combination of thread
+ * count and render mode, and prints wall time and throughput of each run.
+ * <p>
+ * Usage: {@code java -cp target/benchmarks.jar com.company.EndToEndHarness [pages] [chapters] [threads,...]
+ * [modes,...]} where a mode is {@code page} (one process per page) or {@code chunk} (--split-pages).
+ * The fake renderer is configured through the FAKE_RENDER_* environment variables, see {@link FakeRenderer}.
+ */
+public class EndToEndHarness {
+    private static final Pattern NUMBER_FIELD = Pattern.compile("\"%s\":\\s*([0-9.]+)");
+
+    public static void main(String[] args) throws Exception {
+        final int pageCount = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final int chapterCount = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        final String[] threadCounts = (args.length > 2 ? args[2] : "2,4,8").split(",");
+        final String[] modes = (args.length > 3 ? args[3] : "page,chunk").split(",");
+        final File renderer = findRenderer();
+
+        final List<String> rows = new ArrayList<>();
+        for (String mode : modes) {
+            for (String threads : threadCounts) {
+                rows.add(run(renderer, pageCount, chapterCount, Integer.parseInt(threads.trim()), mode.trim()));
+            }
+        }
+        System.out.println(String.format(Locale.ROOT, "%-6s %7s %7s %9s %9s %12s", "mode", "threads", "pages",
+                "wall(s)", "pages/s", "busy workers"));
+        for (String row : rows) {
+            System.out.println(row);
+        }
+    }
+
+    private static String run(final File renderer, final int pageCount, final int chapterCount, final int threads,
+                              final String mode) throws IOException {
+        final File workDirectory = BenchmarkBooks.createWorkDirectory("e2e");
+        final File tocFile = BenchmarkBooks.writeChapterFile(workDirectory, chapterCount, pageCount);
+        final File pdfFile = BenchmarkBooks.writePdf(workDirectory);
+        final String[] arguments = {tocFile.getPath(), pdfFile.getPath(),
+                "-t", String.valueOf(threads),
+                "-s", "true",
+                "--split-pages", String.valueOf("chunk".equals(mode)),
+                "--renderer", renderer.getPath(),
+                "--retries", "0"};
+
+        final String previousDirectory = System.getProperty("user.dir");
+        final PrintStream originalOut = System.out;
+        System.setProperty("user.dir", workDirectory.getPath());
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) {
+            }
+        }));
+        try {
+            Main.main(arguments);
+        } finally {
+            System.setOut(originalOut);
+            System.setProperty("user.dir", previousDirectory);
+        }
+
+        final String report = new String(Files.readAllBytes(new File(workDirectory, "html/run-report.json")
+                .toPath()), StandardCharsets.UTF_8);
+        return String.format(Locale.ROOT, "%-6s %7d %7.0f %9.2f %9.2f %12s", mode, threads,
+                number(report, "pagesRendered"), number(report, "wallSeconds"), number(report, "pagesPerSecond"),
+                activeWorkers(report));
+    }
+
+    private static File findRenderer() {
+        final String configured = System.getProperty("fake.renderer");
+        final File renderer = new File(configured != null ? configured : "fake-pdf2htmlEX");
+        if (!renderer.canExecute()) {
+            throw new IllegalStateException("Fake renderer not found at " + renderer.getAbsolutePath()
+                    + ", run from bench/ or pass -Dfake.renderer=<path>");
+        }
+        return renderer.getAbsoluteFile();
+    }
+
+    private static double number(final String report, final String field) {
+        final Matcher matcher = Pattern.compile(String.format(NUMBER_FIELD.pattern(), field)).matcher(report);
+        return matcher.find() ? Double.parseDouble(matcher.group(1)) : -1;
+    }
+
+    private static String activeWorkers(final String report) {
+        final Matcher matcher = Pattern.compile("\"activeWorkers\":\\s*\\{\"max\":\\s*(\\d+),\\s*\"avg\":\\s*([0-9.]+)")
+                .matcher(report);
+        return matcher.find() ? matcher.group(2) + "/" + matcher.group(1) : "?";
+    }
+}
@@ -0,0 +1,173 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Stand-in for pdf2htmlEX, so thread counts, chunk sizes and scheduling can be compared on any Linux box without
+ * real PDFs. It understands the options this tool passes (-f, -l, --dest-dir, --split-pages, --page-filename and
+ * --embed-*), ignores the PDF and writes documents shaped like the real ones.
+ * Every page gets a deterministic cost drawn from the configured distributions, read from the environment:
+ * <ul>
+ * <li>FAKE_RENDER_STARTUP_MS: cost of starting and parsing the PDF, once per process (default 150)</li>
+ * <li>FAKE_RENDER_MEDIAN_MS, FAKE_RENDER_SIGMA: log-normal render time per page (default 200, 0.6)</li>
+ * <li>FAKE_RENDER_HEAVY_RATIO, FAKE_RENDER_HEAVY_FACTOR: share of scanned/vector heavy pages and how much slower
+ * they are (default 0.05, 20)</li>
+ * <li>FAKE_RENDER_MEMORY_MB: memory touched per page (default 40)</li>
+ * <li>FAKE_RENDER_OUTPUT_KB: median output size per page (default 40)</li>
+ * <li>FAKE_RENDER_SLEEP: true to sleep instead of burning cpu (default false)</li>
+ * <li>FAKE_RENDER_FAIL_PAGES: comma separated pages which make the process fail</li>
+ * <li>FAKE_RENDER_SEED: seed of the per page figures (default 42)</li>
+ * </ul>
+ */
+public class FakeRenderer {
+    private static final String DEFAULT_PAGE_TEMPLATE = "%d.page";
+
+    public static void main(String[] args) throws Exception {
+        final Map<String, String> options = new HashMap<>();
+        final String[] positional = new String[2];
+        int positionalCount = 0;
+        for (int index = 0; index < args.length; index++) {
+            if (args[index].startsWith("-") && index + 1 < args.length) {
+                options.put(args[index], args[index + 1]);
+                index++;
+            } else if (positionalCount < positional.length) {
+                positional[positionalCount++] = args[index];
+            }
+        }
+        if (positionalCount < 2) {
+            System.err.println("Error: usage: fake-pdf2htmlEX [options] <input.pdf> <output.html>");
+            System.exit(1);
+        }
+        final int first = Integer.parseInt(option(options, "-f", "1"));
+        final int last = Integer.parseInt(option(options, "-l", String.valueOf(first)));
+        final File destination = new File(option(options, "--dest-dir", "."));
+        final boolean embedCss = !"0".equals(options.get("--embed-css"));
+        final boolean splitPages = "1".equals(options.get("--split-pages"));
+        final String outputName = positional[1];
+        final String baseName = outputName.endsWith(".html")
+                ? outputName.substring(0, outputName.length() - 5) : outputName;
+        final String pageTemplate = option(options, "--page-filename", baseName + DEFAULT_PAGE_TEMPLATE);
+        destination.mkdirs();
+
+        final Set<Integer> failPages = new HashSet<>();
+        for (String page : env("FAKE_RENDER_FAIL_PAGES", "").split(",")) {
+            if (!page.trim().isEmpty()) {
+                failPages.add(Integer.parseInt(page.trim()));
+            }
+        }
+        final long seed = Long.parseLong(env("FAKE_RENDER_SEED", "42"));
+
+        work(Long.parseLong(env("FAKE_RENDER_STARTUP_MS", "150")));
+        final StringBuilder pages = new StringBuilder();
+        for (int page = first; page <= last; page++) {
+            System.err.println("Working: " + (page - first + 1) + "/" + (last - first + 1));
+            if (failPages.contains(page)) {
+                System.err.println("Error: simulated failure on page " + page);
+                System.exit(2);
+            }
+            final Random random = new Random(seed * 31 + page);
+            if (random.nextDouble() < 0.1) {
+                System.err.println("Warning: simulated font problem on page " + page);
+            }
+            renderPage(random);
+            final String content = pageContent(page, random);
+            if (splitPages) {
+                write(new File(destination, String.format(pageTemplate, page)), content);
+            } else {
+                pages.append(content);
+            }
+        }
+
+        final String css = ".ff" + first + "{font-family:ff" + first + ";}\n.w0{width:612px;}\n.h0{height:792px;}\n"
+                + "@font-face{font-family:ff" + first + ";src:url(f1.woff)format(\"woff\");}\n";
+        final String head;
+        if (embedCss) {
+            head = "<style type=\"text/css\">\n" + css + "</style>\n";
+        } else {
+            write(new File(destination, baseName + ".css"), css);
+            write(new File(destination, "base.min.css"), ".pf{position:relative;overflow:hidden}\n");
+            write(new File(destination, "f1.woff"), "fake font " + first);
+            head = "<link rel=\"stylesheet\" href=\"base.min.css\"/>\n<link rel=\"stylesheet\" href=\"" + baseName
+                    + ".css\"/>\n";
+        }
+        write(new File(destination, outputName), "<!DOCTYPE html>\n<html xmlns=\"http://www.w3.org/1999/xhtml\">\n"
+                + "<head>\n<meta charset=\"utf-8\"/>\n<meta name=\"generator\" content=\"pdf2htmlEX\"/>\n" + head
+                + "<title></title>\n</head>\n<body>\n<div id=\"sidebar\">\n<div id=\"outline\">\n</div>\n</div>\n"
+                + "<div id=\"page-container\">\n" + pages + "</div>\n<div class=\"loading-indicator\">\n"
+                + "</div>\n</body>\n</html>\n");
+    }
+
+    private static void renderPage(final Random random) throws InterruptedException {
+        final double median = Double.parseDouble(env("FAKE_RENDER_MEDIAN_MS", "200"));
+        final double sigma = Double.parseDouble(env("FAKE_RENDER_SIGMA", "0.6"));
+        double millis = median * Math.exp(sigma * random.nextGaussian());
+        if (random.nextDouble() < Double.parseDouble(env("FAKE_RENDER_HEAVY_RATIO", "0.05"))) {
+            millis *= Double.parseDouble(env("FAKE_RENDER_HEAVY_FACTOR", "20"));
+        }
+        final int memoryMegabytes = Integer.parseInt(env("FAKE_RENDER_MEMORY_MB", "40"));
+        final byte[] memory = new byte[memoryMegabytes * 1024 * 1024];
+        for (int index = 0; index < memory.length; index += 4096) {
+            memory[index] = 1;
+        }
+        work((long) millis);
+        if (memory[memory.length / 2] == 2) {
+            System.err.println("unreachable");
+        }
+    }
+
+    private static String pageContent(final int page, final Random random) {
+        final double medianKilobytes = Double.parseDouble(env("FAKE_RENDER_OUTPUT_KB", "40"));
+        final int bytes = (int) (medianKilobytes * 1024 * Math.exp(0.5 * random.nextGaussian()));
+        final StringBuilder builder = new StringBuilder(bytes + 200);
+        builder.append("<div id=\"pf").append(Integer.toHexString(page)).append("\" class=\"pf w0 h0\" ")
+                .append("data-page-no=\"").append(Integer.toHexString(page)).append("\">");
+        final char[] words = new char[64];
+        while (builder.length() < bytes) {
+            Arrays.fill(words, (char) ('a' + random.nextInt(26)));
+            builder.append("<div class=\"t m0 x1 h2 y").append(random.nextInt(50)).append(" ff1 fs0\">")
+                    .append(words, 0, 4 + random.nextInt(60)).append(" page ").append(page).append("</div>\n");
+        }
+        builder.append("</div>\n");
+        return builder.toString();
+    }
+
+    private static void work(final long millis) throws InterruptedException {
+        if (Boolean.parseBoolean(env("FAKE_RENDER_SLEEP", "false"))) {
+            Thread.sleep(millis);
+            return;
+        }
+        final long end = System.nanoTime() + millis * 1000000L;
+        long value = 0;
+        while (System.nanoTime() < end) {
+            for (int index = 0; index < 10000; index++) {
+                value = value * 31 + index;
+            }
+        }
+        if (value == 42) {
+            System.err.println("unreachable");
+        }
+    }
+
+    private static void write(final File file, final String content) throws IOException {
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static String option(final Map<String, String> options, final String name, final String defaultValue) {
+        final String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+
+    private static String env(final String name, final String defaultValue) {
+        final String value = System.getenv(name);
+        return value == null || value.isEmpty() ? defaultValue : value;
+    }
+}
@@ -0,0 +1,64 @@
+package com.company;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of reading the chapter file and of planning the render tasks of a book.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PlanningBenchmark {
+
+    @Param({"50", "500"})
+    public int chapterCount;
+
+    @Param({"3000"})
+    public int pageCount;
+
+    @Param({"false", "true"})
+    public boolean splitPages;
+
+    private File workDirectory;
+    private File tocFile;
+    private List<Chapter> chapters;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        workDirectory = BenchmarkBooks.createWorkDirectory("planning");
+        tocFile = BenchmarkBooks.writeChapterFile(workDirectory, chapterCount, pageCount);
+        Main.checkArgument(new String[]{tocFile.getPath(), "book.pdf", "-s", "true", "--split-pages",
+                String.valueOf(splitPages)});
+        chapters = Main.readAllChapter(tocFile.getPath());
+    }
+
+    @Benchmark
+    public List<Chapter> readAllChapter() {
+        return Main.readAllChapter(tocFile.getPath());
+    }
+
+    @Benchmark
+    public List<RenderTask> planTasks() {
+        return Main.planTasks(chapters, "/bin/true", new File(workDirectory, "book.pdf").getPath(),
+                workDirectory.getPath(), null, null);
+    }
+}
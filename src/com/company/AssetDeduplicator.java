@@ -0,0 +1,119 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Moves the support files pdf2htmlEX wrote next to a page (css, js, fonts, background images) into the shared assets
+ * folder, each stored once under the hash of its content, and points the pages at the shared copies.
+ * Runs on the staging folder of a task before the pages are moved to their final place.
+ */
+class AssetDeduplicator implements OutputMapper {
+    public static final String ASSETS_FOLDER = "assets";
+    private static final Pattern ASSET_NAME = Pattern.compile("[0-9a-f]{64}\\.[A-Za-z0-9]+");
+    private static final Pattern HTML_REFERENCE = Pattern.compile("((?:href|src)=\")([^\"]+)(\")");
+    private static final Pattern CSS_REFERENCE = Pattern.compile("(url\\(['\"]?)([^)'\"]+)(['\"]?\\))");
+
+    private final File stageDirectory;
+    private final File assetsDirectory;
+    private final String assetsPrefix;
+
+    /**
+     * @param assetsPrefix path of the assets folder as seen from the final place of the pages, e.g. "../assets/"
+     */
+    public AssetDeduplicator(final File stageDirectory, final File assetsDirectory, final String assetsPrefix) {
+        this.stageDirectory = stageDirectory;
+        this.assetsDirectory = assetsDirectory;
+        this.assetsPrefix = assetsPrefix;
+    }
+
+    /**
+     * Names of shared assets referenced in the content of a page or stylesheet.
+     */
+    public static Set<String> referencedAssets(final String content) {
+        final Set<String> names = new LinkedHashSet<>();
+        final Matcher matcher = ASSET_NAME.matcher(content);
+        while (matcher.find()) {
+            names.add(matcher.group());
+        }
+        return names;
+    }
+
+    @Override
+    public void map(final RenderTask task) throws IOException {
+        final File[] files = stageDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        final List<File> pages = new ArrayList<>();
+        final List<File> stylesheets = new ArrayList<>();
+        final Map<String, String> sharedNames = new HashMap<>();
+        assetsDirectory.mkdirs();
+        // fonts and images first, stylesheets refer to them
+        for (File file : files) {
+            final String name = file.getName();
+            if (name.endsWith(".html") || name.endsWith(".page")) {
+                pages.add(file);
+            } else if (name.endsWith(".css")) {
+                stylesheets.add(file);
+            } else if (file.isFile()) {
+                sharedNames.put(name, share(file, Files.readAllBytes(file.toPath())));
+            }
+        }
+        for (File stylesheet : stylesheets) {
+            final String content = new String(Files.readAllBytes(stylesheet.toPath()), StandardCharsets.UTF_8);
+            final String rewritten = rewrite(content, CSS_REFERENCE, sharedNames, "");
+            sharedNames.put(stylesheet.getName(), share(stylesheet, rewritten.getBytes(StandardCharsets.UTF_8)));
+        }
+        for (File page : pages) {
+            final String content = new String(Files.readAllBytes(page.toPath()), StandardCharsets.UTF_8);
+            String rewritten = rewrite(content, HTML_REFERENCE, sharedNames, assetsPrefix);
+            rewritten = rewrite(rewritten, CSS_REFERENCE, sharedNames, assetsPrefix);
+            Files.write(page.toPath(), rewritten.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    /**
+     * Stores the content once in the assets folder and removes the staged file. Returns the shared name.
+     */
+    private String share(final File file, final byte[] content) throws IOException {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        final String sharedName = Checksums.sha256(content) + (dot < 0 ? "" : name.substring(dot));
+        final File target = new File(assetsDirectory, sharedName);
+        if (!target.exists()) {
+            final File temporary = new File(assetsDirectory, sharedName + "." + Thread.currentThread().getId()
+                    + ".tmp");
+            Files.write(temporary.toPath(), content);
+            Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        }
+        Files.delete(file.toPath());
+        return sharedName;
+    }
+
+    private static String rewrite(final String content, final Pattern reference, final Map<String, String> sharedNames,
+                                  final String prefix) {
+        final Matcher matcher = reference.matcher(content);
+        final StringBuffer buffer = new StringBuffer(content.length());
+        while (matcher.find()) {
+            final String sharedName = sharedNames.get(matcher.group(2));
+            final String replacement = sharedName == null ? matcher.group()
+                    : matcher.group(1) + prefix + sharedName + matcher.group(3);
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(replacement));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+}
@@ -0,0 +1,200 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders a whole set of books in one run, e.g. a nightly backfill. The books come either from a folder, where each
+ * PDF is paired with the chapter file of the same name, or from a manifest with one book per line:
+ * {@code chapterFile<TAB>pdfFile[<TAB>outputFolder]}, relative paths resolved against the manifest.
+ * Every book renders into its own folder, so books never overwrite each other's html/ and batches/. All books share
+ * one {@link RenderService}; smaller books are started first and every book gets an even share of the renders, so a
+ * small book does not wait behind a large one.
+ */
+class BatchRunner {
+    public static final String REPORT_FILE_NAME = "batch-report.json";
+    private static final String COMMENT = "#";
+
+    private final File source;
+    private final File outputRoot;
+    private final RenderService service;
+
+    /**
+     * @param outputRoot folder which receives one folder per book named after its PDF, or null to put that folder
+     *                   next to the PDF
+     */
+    public BatchRunner(final File source, final File outputRoot, final RenderService service) {
+        this.source = source;
+        this.outputRoot = outputRoot;
+        this.service = service;
+    }
+
+    /**
+     * A book of the batch before it is submitted.
+     */
+    private static class Book {
+        private final File tocFile;
+        private final File pdfFile;
+        private final File outputDirectory;
+        private int pageCount;
+
+        private Book(final File tocFile, final File pdfFile, final File outputDirectory) {
+            this.tocFile = tocFile;
+            this.pdfFile = pdfFile;
+            this.outputDirectory = outputDirectory;
+        }
+    }
+
+    public void run() throws IOException, InterruptedException {
+        final List<Book> books = source.isDirectory() ? scanDirectory() : readManifest();
+        if (books.isEmpty()) {
+            throw new IllegalArgumentException("No books found in " + source);
+        }
+        for (Iterator<Book> iterator = books.iterator(); iterator.hasNext(); ) {
+            final Book book = iterator.next();
+            try {
+                for (Chapter chapter : Main.readAllChapter(book.tocFile.getPath())) {
+                    book.pageCount += chapter.getLast() - chapter.getFirst() + 1;
+                }
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Skipping " + book.pdfFile + ": " + ex.getMessage());
+                iterator.remove();
+            }
+        }
+        if (books.isEmpty()) {
+            throw new IllegalArgumentException("No valid books in " + source);
+        }
+        Collections.sort(books, new Comparator<Book>() {
+            @Override
+            public int compare(Book first, Book second) {
+                return Integer.compare(first.pageCount, second.pageCount);
+            }
+        });
+
+        System.out.println("Batch of " + books.size() + " books from " + source);
+        final long start = System.currentTimeMillis();
+        service.start();
+        final List<RenderJob> jobs = new ArrayList<>();
+        for (Book book : books) {
+            try {
+                jobs.add(service.submit(book.tocFile.getAbsolutePath(), book.pdfFile.getAbsolutePath(),
+                        book.outputDirectory, 0));
+            } catch (IllegalArgumentException ex) {
+                System.out.println("Skipping " + book.pdfFile + ": " + ex.getMessage());
+            }
+        }
+        service.shutdown();
+        final double wallSeconds = (System.currentTimeMillis() - start) / 1000.0;
+
+        int failed = 0;
+        System.out.println(String.format(Locale.ROOT, "Batch finished in %.1fs:", wallSeconds));
+        for (RenderJob job : jobs) {
+            if (job.getState() != RenderJob.State.DONE) {
+                failed++;
+            }
+            System.out.println("\t" + job.getState().label() + "\t" + job.getPdfPath() + " -> "
+                    + job.getOutputDirectory());
+        }
+        if (failed > 0) {
+            System.out.println(failed + " of " + jobs.size() + " books did not finish");
+        }
+        writeReport(jobs, wallSeconds);
+    }
+
+    private List<Book> scanDirectory() {
+        final File[] files = source.listFiles();
+        final List<Book> books = new ArrayList<>();
+        if (files == null) {
+            return books;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = file.getName();
+            if (!file.isFile() || !name.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+                continue;
+            }
+            final String baseName = name.substring(0, name.length() - ".pdf".length());
+            final File tocFile = new File(source, baseName + ".txt");
+            if (!tocFile.isFile()) {
+                System.out.println("Skipping " + file + ": no chapter file " + tocFile.getName());
+                continue;
+            }
+            books.add(new Book(tocFile, file, getOutputDirectory(file, null)));
+        }
+        return books;
+    }
+
+    private List<Book> readManifest() throws IOException {
+        final File baseDirectory = source.getAbsoluteFile().getParentFile();
+        final List<Book> books = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new FileReader(source))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty() || line.trim().startsWith(COMMENT)) {
+                    continue;
+                }
+                final String[] columns = line.split("\t");
+                if (columns.length < 2) {
+                    throw new IllegalArgumentException(String.format("Line %d of %s needs a chapter file and a pdf " +
+                            "separated by a tab", lineNumber, source));
+                }
+                final File tocFile = resolve(baseDirectory, columns[0].trim());
+                final File pdfFile = resolve(baseDirectory, columns[1].trim());
+                if (!tocFile.isFile() || !pdfFile.isFile()) {
+                    System.out.println("Skipping line " + lineNumber + ": " + (tocFile.isFile() ? pdfFile : tocFile)
+                            + " is not existed");
+                    continue;
+                }
+                final File output = columns.length > 2 && !columns[2].trim().isEmpty()
+                        ? resolve(baseDirectory, columns[2].trim()) : null;
+                books.add(new Book(tocFile, pdfFile, getOutputDirectory(pdfFile, output)));
+            }
+        }
+        return books;
+    }
+
+    private File getOutputDirectory(final File pdfFile, final File configured) {
+        if (configured != null) {
+            return configured.getAbsoluteFile();
+        }
+        final String name = pdfFile.getName();
+        final String baseName = name.substring(0, name.length() - ".pdf".length());
+        return new File(outputRoot != null ? outputRoot.getAbsoluteFile() : pdfFile.getAbsoluteFile().getParentFile(),
+                baseName);
+    }
+
+    private static File resolve(final File baseDirectory, final String path) {
+        final File file = new File(path);
+        return file.isAbsolute() ? file : new File(baseDirectory, path);
+    }
+
+    private void writeReport(final List<RenderJob> jobs, final double wallSeconds) throws IOException {
+        final File directory = outputRoot != null ? outputRoot
+                : source.isDirectory() ? source : source.getAbsoluteFile().getParentFile();
+        directory.mkdirs();
+        final File report = new File(directory, REPORT_FILE_NAME);
+        try (PrintWriter writer = new PrintWriter(report, "UTF-8")) {
+            writer.println("{");
+            writer.println(String.format(Locale.ROOT, "  \"wallSeconds\": %.3f,", wallSeconds));
+            writer.println("  \"books\": [");
+            for (int index = 0; index < jobs.size(); index++) {
+                writer.println("    " + jobs.get(index).toJson() + (index < jobs.size() - 1 ? "," : ""));
+            }
+            writer.println("  ]");
+            writer.println("}");
+        }
+        System.out.println("Batch report written to " + report);
+    }
+}
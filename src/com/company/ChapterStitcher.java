@@ -0,0 +1,477 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Puts a chapter back together which was rendered as several page ranges in parallel. Every part registers when it
+ * is rendered; the part which completes the chapter writes the chapter file and adds it to its outputs, so the
+ * journal, the cache and the events see the chapter like one rendered in one go.
+ * The head of the first part is kept. Style blocks which all parts have in common are written once; the others
+ * carry the fonts and classes pdf2htmlEX numbers per process, so they are scoped to the page frames of their part.
+ * The page frames are copied from the part files with {@link FileChannel#transferTo}, the part files are only
+ * scanned through mapped buffers and never read onto the heap.
+ */
+class ChapterStitcher {
+    private static final byte[] HEAD_END = bytes("</head>");
+    private static final byte[] STYLE_START = bytes("<style");
+    private static final byte[] STYLE_END = bytes("</style>");
+    private static final byte[] TAG_END = bytes(">");
+    private static final byte[] PAGE_CONTAINER = bytes("id=\"page-container\"");
+    private static final byte[] LOADING_INDICATOR = bytes("<div class=\"loading-indicator\"");
+    private static final byte[] BODY_END = bytes("</body>");
+    private static final byte[] DIV_END = bytes("</div>");
+    private static final byte[] PAGE_FRAME_CLASS = bytes("class=\"pf ");
+    private static final String SCOPE_PREFIX = "part";
+    private static final Pattern FONT_FACE_FAMILY = Pattern.compile(
+            "@font-face\\s*\\{[^}]*?font-family\\s*:\\s*([^;}]+)");
+    private static final Pattern FONT_FAMILY = Pattern.compile("(font-family\\s*:\\s*)([^;}]+)");
+
+    private final int firstPage;
+    private final int lastPage;
+    private final File chapterFile;
+    // rendered parts by their first page
+    private final TreeMap<Integer, Part> parts = new TreeMap<>();
+    private boolean stitching;
+
+    private static class Part {
+        private final int endPage;
+        private final File file;
+
+        private Part(final int endPage, final File file) {
+            this.endPage = endPage;
+            this.file = file;
+        }
+    }
+
+    public ChapterStitcher(final int firstPage, final int lastPage, final File chapterFile) {
+        this.firstPage = firstPage;
+        this.lastPage = lastPage;
+        this.chapterFile = chapterFile;
+    }
+
+    /**
+     * Mapper of the task rendering pages startPage to endPage into partFile.
+     */
+    public OutputMapper partMapper(final int startPage, final int endPage, final File partFile) {
+        return new OutputMapper() {
+            @Override
+            public void map(RenderTask task) throws IOException {
+                final List<File> files = register(startPage, endPage, partFile);
+                if (files == null) {
+                    return;
+                }
+                try {
+                    stitch(files, chapterFile);
+                } catch (IOException | RuntimeException ex) {
+                    synchronized (ChapterStitcher.this) {
+                        stitching = false;
+                    }
+                    throw ex;
+                }
+                if (!task.getOutputs().contains(chapterFile)) {
+                    task.addOutput(chapterFile);
+                }
+                for (File file : files) {
+                    file.delete();
+                    file.getParentFile().delete();
+                }
+            }
+        };
+    }
+
+    /**
+     * The part files in page order when this part completes the chapter, otherwise null.
+     */
+    private synchronized List<File> register(final int startPage, final int endPage, final File partFile) {
+        parts.put(startPage, new Part(endPage, partFile));
+        if (stitching) {
+            return null;
+        }
+        final List<File> files = new ArrayList<>();
+        int next = firstPage;
+        for (Map.Entry<Integer, Part> entry : parts.entrySet()) {
+            if (entry.getKey() != next) {
+                return null;
+            }
+            files.add(entry.getValue().file);
+            next = entry.getValue().endPage + 1;
+        }
+        if (next <= lastPage) {
+            return null;
+        }
+        stitching = true;
+        return files;
+    }
+
+    /**
+     * Layout of one rendered part, as offsets into its mapped file.
+     */
+    private static class Layout {
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final int headEnd;
+        // start, content start, content end and end of every style block of the head
+        private final List<int[]> styles = new ArrayList<>();
+        private final List<String> styleContents = new ArrayList<>();
+        private final int bodyStart;
+        private final int bodyEnd;
+
+        private Layout(final File file) throws IOException {
+            channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+            if (channel.size() > Integer.MAX_VALUE) {
+                channel.close();
+                throw new IOException(file + " is too large to stitch");
+            }
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            final int size = buffer.limit();
+            headEnd = indexOf(buffer, HEAD_END, 0, size);
+            int position = 0;
+            while (headEnd >= 0) {
+                final int start = indexOf(buffer, STYLE_START, position, headEnd);
+                if (start < 0) {
+                    break;
+                }
+                final int contentStart = indexOf(buffer, TAG_END, start, headEnd) + 1;
+                final int contentEnd = indexOf(buffer, STYLE_END, contentStart, headEnd);
+                if (contentStart <= 0 || contentEnd < 0) {
+                    break;
+                }
+                styles.add(new int[]{start, contentStart, contentEnd, contentEnd + STYLE_END.length});
+                styleContents.add(decode(buffer, contentStart, contentEnd));
+                position = contentEnd + STYLE_END.length;
+            }
+            final int container = indexOf(buffer, PAGE_CONTAINER, Math.max(headEnd, 0), size);
+            bodyStart = container < 0 ? -1 : indexOf(buffer, TAG_END, container, size) + 1;
+            int after = indexOf(buffer, LOADING_INDICATOR, Math.max(bodyStart, 0), size);
+            if (after < 0) {
+                after = indexOf(buffer, BODY_END, Math.max(bodyStart, 0), size);
+            }
+            // the page container closes with the last </div> before what follows it
+            bodyEnd = after < 0 ? -1 : lastIndexOf(buffer, DIV_END, Math.max(bodyStart, 0), after);
+            if (headEnd < 0 || bodyStart <= 0 || bodyEnd < bodyStart) {
+                channel.close();
+                throw new IOException("can not find the pages in " + file);
+            }
+        }
+    }
+
+    /**
+     * Writes the parts as one chapter file, replacing target atomically.
+     */
+    static void stitch(final List<File> files, final File target) throws IOException {
+        final List<Layout> layouts = new ArrayList<>();
+        final File temporary = new File(target.getPath() + ".stitch.tmp");
+        try {
+            for (File file : files) {
+                layouts.add(new Layout(file));
+            }
+            final Set<String> shared = new HashSet<>(layouts.get(0).styleContents);
+            for (Layout layout : layouts) {
+                shared.retainAll(layout.styleContents);
+            }
+            // parts which agree on all styles need no scoping
+            boolean scoped = false;
+            for (Layout layout : layouts) {
+                scoped |= !shared.containsAll(layout.styleContents);
+            }
+            try (FileChannel output = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                // head of the first part, its own styles scoped, then the scoped styles of the other parts
+                final Layout first = layouts.get(0);
+                int position = 0;
+                for (int index = 0; index < first.styles.size(); index++) {
+                    final int[] style = first.styles.get(index);
+                    final String content = first.styleContents.get(index);
+                    if (scoped && !shared.contains(content)) {
+                        transfer(first.channel, position, style[1] - position, output);
+                        write(output, scopeCss(content, SCOPE_PREFIX + 0));
+                        position = style[2];
+                    }
+                }
+                transfer(first.channel, position, first.headEnd - position, output);
+                for (int part = 1; part < layouts.size(); part++) {
+                    final Layout layout = layouts.get(part);
+                    for (String content : layout.styleContents) {
+                        if (!shared.contains(content)) {
+                            write(output, "<style type=\"text/css\">" + scopeCss(content, SCOPE_PREFIX + part)
+                                    + "</style>\n");
+                        }
+                    }
+                }
+                transfer(first.channel, first.headEnd, first.bodyStart - first.headEnd, output);
+                for (int part = 0; part < layouts.size(); part++) {
+                    transferPages(layouts.get(part), scoped ? SCOPE_PREFIX + part : null, output);
+                }
+                transfer(first.channel, first.bodyEnd, first.buffer.limit() - first.bodyEnd, output);
+            }
+        } finally {
+            for (Layout layout : layouts) {
+                layout.channel.close();
+            }
+        }
+        Files.move(temporary.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Copies the page frames of a part, adding the scope class to every frame.
+     */
+    private static void transferPages(final Layout layout, final String scope, final FileChannel output)
+            throws IOException {
+        int position = layout.bodyStart;
+        if (scope != null) {
+            final String frameClass = "class=\"pf " + scope + " ";
+            int frame = indexOf(layout.buffer, PAGE_FRAME_CLASS, position, layout.bodyEnd);
+            while (frame >= 0) {
+                transfer(layout.channel, position, frame - position, output);
+                write(output, frameClass);
+                position = frame + PAGE_FRAME_CLASS.length;
+                frame = indexOf(layout.buffer, PAGE_FRAME_CLASS, position, layout.bodyEnd);
+            }
+        }
+        transfer(layout.channel, position, layout.bodyEnd - position, output);
+    }
+
+    /**
+     * Limits the rules of a stylesheet to the page frames with the scope class and renames the fonts it declares,
+     * so parts rendered by different processes do not override each other's numbered fonts and classes.
+     */
+    static String scopeCss(final String css, final String scope) {
+        final Set<String> fonts = new HashSet<>();
+        final Matcher fontFace = FONT_FACE_FAMILY.matcher(css);
+        while (fontFace.find()) {
+            fonts.add(unquote(fontFace.group(1).trim()));
+        }
+        final StringBuilder builder = new StringBuilder(css.length() + css.length() / 4);
+        scopeRules(css, 0, css.length(), scope, fonts, builder);
+        return builder.toString();
+    }
+
+    private static void scopeRules(final String css, final int start, final int end, final String scope,
+                                   final Set<String> fonts, final StringBuilder builder) {
+        int position = start;
+        while (position < end) {
+            final int open = find(css, position, end, '{');
+            final int semicolon = find(css, position, end, ';');
+            if (open < 0 || semicolon >= 0 && semicolon < open) {
+                // statements like @import and @charset, or the trailing whitespace
+                final int statementEnd = open < 0 && semicolon < 0 ? end : semicolon + 1;
+                builder.append(css, position, statementEnd);
+                position = statementEnd;
+                continue;
+            }
+            final int close = matchingBrace(css, open, end);
+            final String prelude = css.substring(position, open).trim();
+            if (prelude.startsWith("@media") || prelude.startsWith("@supports")) {
+                builder.append(prelude).append('{');
+                scopeRules(css, open + 1, close, scope, fonts, builder);
+                builder.append('}');
+            } else if (prelude.startsWith("@font-face")) {
+                builder.append(prelude).append('{').append(renameFonts(css.substring(open + 1, close), scope, fonts))
+                        .append('}');
+            } else if (prelude.startsWith("@")) {
+                builder.append(prelude).append(css, open, close + 1);
+            } else {
+                builder.append(scopeSelectors(prelude, scope)).append('{')
+                        .append(renameFonts(css.substring(open + 1, close), scope, fonts)).append('}');
+            }
+            position = close + 1;
+        }
+    }
+
+    /**
+     * Every selector twice: for elements inside a scoped frame and for the frame itself.
+     */
+    private static String scopeSelectors(final String prelude, final String scope) {
+        final StringBuilder builder = new StringBuilder();
+        int depth = 0;
+        int start = 0;
+        for (int index = 0; index <= prelude.length(); index++) {
+            final char character = index < prelude.length() ? prelude.charAt(index) : ',';
+            if (character == '(' || character == '[') {
+                depth++;
+            } else if (character == ')' || character == ']') {
+                depth--;
+            } else if (character == ',' && depth == 0) {
+                final String selector = prelude.substring(start, index).trim();
+                if (!selector.isEmpty()) {
+                    if (builder.length() > 0) {
+                        builder.append(',');
+                    }
+                    final int compoundEnd = firstCompoundEnd(selector);
+                    builder.append('.').append(scope).append(' ').append(selector).append(',')
+                            .append(selector, 0, compoundEnd).append('.').append(scope)
+                            .append(selector, compoundEnd, selector.length());
+                }
+                start = index + 1;
+            }
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Where the scope class goes into the first compound selector: before its pseudo classes, else at its end.
+     */
+    private static int firstCompoundEnd(final String selector) {
+        int depth = 0;
+        for (int index = 0; index < selector.length(); index++) {
+            final char character = selector.charAt(index);
+            if (character == '(' || character == '[') {
+                depth++;
+            } else if (character == ')' || character == ']') {
+                depth--;
+            } else if (depth == 0 && (character == ':' || character == '>' || character == '+' || character == '~'
+                    || Character.isWhitespace(character))) {
+                return index;
+            }
+        }
+        return selector.length();
+    }
+
+    private static String renameFonts(final String declarations, final String scope, final Set<String> fonts) {
+        if (fonts.isEmpty()) {
+            return declarations;
+        }
+        final Matcher matcher = FONT_FAMILY.matcher(declarations);
+        final StringBuffer buffer = new StringBuffer();
+        while (matcher.find()) {
+            final StringBuilder value = new StringBuilder();
+            for (String family : matcher.group(2).split(",")) {
+                final String name = unquote(family.trim());
+                if (value.length() > 0) {
+                    value.append(',');
+                }
+                value.append(fonts.contains(name) ? scope + "-" + name : family.trim());
+            }
+            matcher.appendReplacement(buffer, Matcher.quoteReplacement(matcher.group(1) + value));
+        }
+        matcher.appendTail(buffer);
+        return buffer.toString();
+    }
+
+    private static String unquote(final String name) {
+        if (name.length() >= 2 && (name.charAt(0) == '"' || name.charAt(0) == '\'')
+                && name.charAt(name.length() - 1) == name.charAt(0)) {
+            return name.substring(1, name.length() - 1);
+        }
+        return name;
+    }
+
+    /**
+     * Next occurrence of the character outside of strings and comments, -1 if there is none.
+     */
+    private static int find(final String css, final int start, final int end, final char wanted) {
+        int quote = -1;
+        for (int index = start; index < end; index++) {
+            final char character = css.charAt(index);
+            if (quote != -1) {
+                if (character == '\\') {
+                    index++;
+                } else if (character == quote) {
+                    quote = -1;
+                }
+            } else if (character == '"' || character == '\'') {
+                quote = character;
+            } else if (character == '/' && index + 1 < end && css.charAt(index + 1) == '*') {
+                final int commentEnd = css.indexOf("*/", index + 2);
+                index = commentEnd < 0 ? end : commentEnd + 1;
+            } else if (character == wanted) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private static int matchingBrace(final String css, final int open, final int end) {
+        int depth = 0;
+        int position = open;
+        while (position >= 0 && position < end) {
+            final int nextOpen = find(css, position + 1, end, '{');
+            final int nextClose = find(css, position + 1, end, '}');
+            if (nextClose < 0) {
+                return end - 1;
+            }
+            if (nextOpen >= 0 && nextOpen < nextClose) {
+                depth++;
+                position = nextOpen;
+            } else if (depth == 0) {
+                return nextClose;
+            } else {
+                depth--;
+                position = nextClose;
+            }
+        }
+        return end - 1;
+    }
+
+    private static int indexOf(final ByteBuffer buffer, final byte[] pattern, final int from, final int to) {
+        outer:
+        for (int index = from; index <= to - pattern.length; index++) {
+            for (int offset = 0; offset < pattern.length; offset++) {
+                if (buffer.get(index + offset) != pattern[offset]) {
+                    continue outer;
+                }
+            }
+            return index;
+        }
+        return -1;
+    }
+
+    private static int lastIndexOf(final ByteBuffer buffer, final byte[] pattern, final int from, final int to) {
+        outer:
+        for (int index = to - pattern.length; index >= from; index--) {
+            for (int offset = 0; offset < pattern.length; offset++) {
+                if (buffer.get(index + offset) != pattern[offset]) {
+                    continue outer;
+                }
+            }
+            return index;
+        }
+        return -1;
+    }
+
+    private static String decode(final ByteBuffer buffer, final int start, final int end) {
+        final ByteBuffer slice = buffer.duplicate();
+        slice.position(start).limit(end);
+        return StandardCharsets.UTF_8.decode(slice).toString();
+    }
+
+    private static void transfer(final FileChannel input, final long position, final long count,
+                                 final FileChannel output) throws IOException {
+        long done = 0;
+        while (done < count) {
+            final long transferred = input.transferTo(position + done, count - done, output);
+            if (transferred <= 0) {
+                throw new IOException("can not copy the pages");
+            }
+            done += transferred;
+        }
+    }
+
+    private static void write(final FileChannel output, final String text) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes(text));
+        while (buffer.hasRemaining()) {
+            output.write(buffer);
+        }
+    }
+
+    private static byte[] bytes(final String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,246 @@
+package com.company;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Decides how many renders run at the same time, between a lower and an upper bound.
+ * Every second it looks at the memory the kernel has available, the load average and the resident memory of the
+ * running renderers. It starts fewer renders when memory runs short or the machine is overloaded, and one more at a
+ * time while all slots are busy and there is room for another renderer of the size seen so far.
+ * Workers take a slot with {@link #tryAcquire(Share, long)} before they start a task, and the task gives it back as
+ * soon as its renderer exited. Lowering the limit never kills a running render, it only holds back the next ones.
+ * Several jobs can share one controller, each through its own {@link Share}. A free slot goes to the waiting share
+ * with the highest priority, and among equal priorities to the one with the fewest renders running, so a big book
+ * does not lock out a small one submitted after it.
+ */
+class ConcurrencyController implements TaskObserver {
+    private static final long ADJUST_INTERVAL_MILLIS = 1000;
+    private static final long MEGABYTE = 1024L * 1024L;
+    // what a render is assumed to need before one has been seen
+    private static final long DEFAULT_RENDER_BYTES = 256 * MEGABYTE;
+    private static final long MIN_RESERVE_BYTES = 512 * MEGABYTE;
+    private static final double RESERVE_RATIO = 0.1;
+    // weight of the newest peak in the running estimate of the memory of one render
+    private static final double ESTIMATE_WEIGHT = 0.3;
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int cores = Runtime.getRuntime().availableProcessors();
+    private final Set<RenderTask> running = Collections.synchronizedSet(new HashSet<RenderTask>());
+    private final Set<Share> shares = new HashSet<>();
+    private int limit;
+    private int inFlight;
+    private int lowestLimit;
+    private int highestLimit;
+    private int adjustments;
+    private long renderBytesEstimate = DEFAULT_RENDER_BYTES;
+    private Thread adjuster;
+
+    public ConcurrencyController(final int minLimit, final int maxLimit) {
+        if (minLimit < 1 || minLimit > maxLimit) {
+            throw new IllegalArgumentException("Invalid concurrency bounds " + minLimit + ".." + maxLimit);
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.limit = clamp(Math.min(cores, renderRoom(ProcFs.getAvailableMemoryBytes())));
+        this.lowestLimit = limit;
+        this.highestLimit = limit;
+    }
+
+    public synchronized int getLimit() {
+        return limit;
+    }
+
+    /**
+     * Registers a job which takes slots from this controller.
+     */
+    public synchronized Share newShare(final int priority) {
+        final Share share = new Share(priority);
+        shares.add(share);
+        return share;
+    }
+
+    public synchronized void removeShare(final Share share) {
+        shares.remove(share);
+        notifyAll();
+    }
+
+    /**
+     * Takes a render slot for the share, waiting at most the given time for one to become free and for shares with
+     * precedence to be served. Returns null when that did not happen in time.
+     */
+    public synchronized Slot tryAcquire(final Share share, final long timeoutMillis) throws InterruptedException {
+        final long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        share.waiting++;
+        try {
+            while (inFlight >= limit || hasWaitingPrecedence(share)) {
+                final long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+                if (remainingMillis <= 0) {
+                    return null;
+                }
+                wait(remainingMillis);
+            }
+        } finally {
+            share.waiting--;
+        }
+        inFlight++;
+        share.inFlight++;
+        return new Slot(this, share);
+    }
+
+    private boolean hasWaitingPrecedence(final Share share) {
+        for (Share other : shares) {
+            if (other != share && other.waiting > 0 && (other.priority > share.priority
+                    || other.priority == share.priority && other.inFlight < share.inFlight)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private synchronized void release(final Share share) {
+        inFlight--;
+        share.inFlight--;
+        notifyAll();
+    }
+
+    public void start() {
+        adjuster = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    try {
+                        Thread.sleep(ADJUST_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    adjust();
+                }
+            }
+        }, "concurrency-controller");
+        adjuster.setDaemon(true);
+        adjuster.start();
+    }
+
+    public void stop() {
+        if (adjuster != null) {
+            adjuster.interrupt();
+        }
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+        running.add(task);
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        running.remove(task);
+        final long peak = task.getPeakRssBytes();
+        if (peak > 0) {
+            synchronized (this) {
+                renderBytesEstimate = Math.max(peak,
+                        (long) (ESTIMATE_WEIGHT * peak + (1 - ESTIMATE_WEIGHT) * renderBytesEstimate));
+            }
+        }
+    }
+
+    private void adjust() {
+        final long available = ProcFs.getAvailableMemoryBytes();
+        final double load = ProcFs.getLoadAverage();
+        long runningBytes = 0;
+        synchronized (running) {
+            for (RenderTask task : running) {
+                runningBytes += Math.max(0, task.getRssBytes());
+            }
+        }
+        synchronized (this) {
+            final long reserve = getReserveBytes();
+            // renders which just started have not reached their peak yet, count what they will still take
+            final long growth = Math.max(0, inFlight * renderBytesEstimate - runningBytes);
+            final int previous = limit;
+            String reason = null;
+            if (available >= 0 && available - growth < reserve) {
+                limit = clamp(Math.min(limit, inFlight) - 1);
+                reason = "available memory " + available / MEGABYTE + "MB, running renders may still take "
+                        + growth / MEGABYTE + "MB";
+            } else if (load > cores + 1) {
+                limit = clamp(limit - 1);
+                reason = "load average " + load + " on " + cores + " cores";
+            } else if (inFlight >= limit && (available < 0 || available - growth - reserve > renderBytesEstimate)
+                    && (load < 0 || load < cores)) {
+                limit = clamp(limit + 1);
+                reason = "all slots busy, room for another " + renderBytesEstimate / MEGABYTE + "MB render";
+            }
+            if (limit != previous) {
+                adjustments++;
+                lowestLimit = Math.min(lowestLimit, limit);
+                highestLimit = Math.max(highestLimit, limit);
+                System.out.println("concurrency " + previous + " -> " + limit + ": " + reason);
+                notifyAll();
+            }
+        }
+    }
+
+    private long getReserveBytes() {
+        final long total = ProcFs.getTotalMemoryBytes();
+        return Math.max(MIN_RESERVE_BYTES, total < 0 ? 0 : (long) (total * RESERVE_RATIO));
+    }
+
+    /**
+     * Renders of the estimated size which fit into the available memory above the reserve.
+     */
+    private int renderRoom(final long available) {
+        if (available < 0) {
+            return maxLimit;
+        }
+        return (int) Math.min(Integer.MAX_VALUE, Math.max(0, available - getReserveBytes()) / renderBytesEstimate);
+    }
+
+    private int clamp(final int value) {
+        return Math.max(minLimit, Math.min(maxLimit, value));
+    }
+
+    public synchronized void printSummary() {
+        System.out.println("Concurrency between " + lowestLimit + " and " + highestLimit + " (bounds " + minLimit
+                + ".." + maxLimit + "), " + adjustments + " adjustments, estimated "
+                + renderBytesEstimate / MEGABYTE + "MB per render");
+    }
+
+    /**
+     * The part of the slots one job competes for. Guarded by the controller.
+     */
+    static class Share {
+        private final int priority;
+        private int inFlight;
+        private int waiting;
+
+        private Share(final int priority) {
+            this.priority = priority;
+        }
+    }
+
+    /**
+     * Permission to run one render. Releasing it more than once has no effect.
+     */
+    static class Slot {
+        private final ConcurrencyController controller;
+        private final Share share;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        private Slot(final ConcurrencyController controller, final Share share) {
+            this.controller = controller;
+            this.share = share;
+        }
+
+        public void release() {
+            if (released.compareAndSet(false, true)) {
+                controller.release(share);
+            }
+        }
+    }
+}
@@ -0,0 +1,19 @@
+package com.company;
+
+/**
+ * Predicts how expensive a render task is, in arbitrary but comparable units. The scheduler uses it to hand out the
+ * longest work first.
+ */
+interface CostEstimator {
+    public double estimate(final RenderTask task);
+}
+
+/**
+ * Fallback estimate when nothing is known about the pages: every page costs the same.
+ */
+class PageCountCostEstimator implements CostEstimator {
+
+    public double estimate(final RenderTask task) {
+        return task.getEndPage() - task.getStartPage() + 1;
+    }
+}
@@ -0,0 +1,73 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects the renderer diagnostics of every task. The output of failed tasks is kept in a log file per task, the
+ * diagnostics of the whole run are written as one tab separated file: page, severity, task, message.
+ */
+class DiagnosticsReport implements TaskObserver {
+    private final File logDirectory;
+    private final List<String> rows = new ArrayList<>();
+    private int warningCount;
+    private int errorCount;
+    private int droppedCount;
+
+    public DiagnosticsReport(final File logDirectory) {
+        this.logDirectory = logDirectory;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        final List<Diagnostic> diagnostics = task.getDiagnostics();
+        synchronized (this) {
+            for (Diagnostic diagnostic : diagnostics) {
+                if ("error".equals(diagnostic.getSeverity())) {
+                    errorCount++;
+                } else {
+                    warningCount++;
+                }
+                rows.add(diagnostic.getPage() + "\t" + diagnostic.getSeverity() + "\t" + task.getName() + "\t"
+                        + diagnostic.getMessage().replace('\t', ' '));
+            }
+            droppedCount += task.getDroppedDiagnostics();
+        }
+        if (!success) {
+            logDirectory.mkdirs();
+            final File log = new File(logDirectory, task.getName() + ".log");
+            try {
+                Files.write(log.toPath(), task.getOutputTail(), StandardCharsets.UTF_8);
+                System.out.println("Output of failed " + task.getName() + " is in " + log);
+            } catch (IOException e) {
+                System.out.println("Can not write " + log);
+            }
+        }
+    }
+
+    public synchronized void write() {
+        if (rows.isEmpty()) {
+            return;
+        }
+        logDirectory.mkdirs();
+        final File file = new File(logDirectory, "diagnostics.tsv");
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            for (String row : rows) {
+                writer.println(row);
+            }
+        } catch (IOException e) {
+            System.out.println("Can not write " + file);
+        }
+        System.out.println("pdf2htmlEX reported " + warningCount + " warnings and " + errorCount + " errors"
+                + (droppedCount > 0 ? " (" + droppedCount + " more not kept)" : "") + ", see " + file);
+    }
+}
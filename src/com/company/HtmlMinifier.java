@@ -0,0 +1,400 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Locale;
+
+/**
+ * Minifies the pages of a task in one streaming pass, right after they were rendered and before they are cached:
+ * comments are dropped, whitespace between tags which spans a line break is dropped and inline stylesheets are
+ * minified. Whitespace on a line is kept, pdf2htmlEX positions text with white-space:pre. Scripts, pre and textarea
+ * are copied as they are. The minified page replaces the original by a rename, never in place, so a page linked
+ * from the cache is not touched.
+ */
+class HtmlMinifier implements OutputMapper {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final String[] RAW_ELEMENTS = {"script", "pre", "textarea"};
+
+    @Override
+    public void map(final RenderTask task) throws IOException {
+        for (File output : task.getOutputs()) {
+            if (output.isFile() && output.getName().endsWith(".html")) {
+                task.addMinifiedBytes(minify(output));
+            }
+        }
+    }
+
+    /**
+     * Returns the bytes saved.
+     */
+    private static long minify(final File file) throws IOException {
+        final File temporary = new File(file.getParentFile(), file.getName() + ".min.tmp");
+        try (Reader reader = new BufferedReader(new InputStreamReader(Files.newInputStream(file.toPath()),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+             Writer writer = new BufferedWriter(new OutputStreamWriter(Files.newOutputStream(temporary.toPath()),
+                     StandardCharsets.UTF_8), BUFFER_SIZE)) {
+            minifyHtml(reader, writer);
+        }
+        final long saved = file.length() - temporary.length();
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return saved;
+    }
+
+    public static void minifyHtml(final Reader input, final Writer output) throws IOException {
+        final PushbackReader reader = new PushbackReader(input, 16);
+        final StringBuilder whitespace = new StringBuilder();
+        int lastWritten = -1;
+        int character;
+        while ((character = reader.read()) != -1) {
+            if (Character.isWhitespace(character)) {
+                whitespace.append((char) character);
+                continue;
+            }
+            if (character == '<' && lookingAt(reader, "!--")) {
+                if (lookingAt(reader, "!--[")) {
+                    // conditional comment, it is markup for old browsers
+                    output.write(whitespace.toString());
+                    whitespace.setLength(0);
+                    output.write('<');
+                    lastWritten = copyUntil(reader, output, "-->");
+                } else {
+                    skipUntil(reader, "-->");
+                }
+                continue;
+            }
+            if (whitespace.length() > 0) {
+                if (!(lastWritten == '>' && character == '<' && whitespace.indexOf("\n") >= 0)) {
+                    output.write(whitespace.toString());
+                    lastWritten = whitespace.charAt(whitespace.length() - 1);
+                }
+                whitespace.setLength(0);
+            }
+            if (character != '<') {
+                output.write(character);
+                lastWritten = character;
+                continue;
+            }
+            output.write('<');
+            final String tag = copyTag(reader, output);
+            lastWritten = '>';
+            if (tag.equals("style")) {
+                final CssMinifier cssMinifier = new CssMinifier(output);
+                copyRaw(reader, output, "style", cssMinifier);
+            } else {
+                for (String rawElement : RAW_ELEMENTS) {
+                    if (tag.equals(rawElement)) {
+                        copyRaw(reader, output, rawElement, null);
+                    }
+                }
+            }
+        }
+        output.write(whitespace.toString());
+    }
+
+    public static void minifyCss(final Reader input, final Writer output) throws IOException {
+        final CssMinifier cssMinifier = new CssMinifier(output);
+        int character;
+        while ((character = input.read()) != -1) {
+            cssMinifier.write(character);
+        }
+        cssMinifier.finish();
+    }
+
+    /**
+     * Copies the rest of a tag up to its closing bracket. Returns the lower case name of an opening tag, or an empty
+     * string for closing tags and declarations.
+     */
+    private static String copyTag(final PushbackReader reader, final Writer output) throws IOException {
+        final StringBuilder name = new StringBuilder();
+        boolean inName = true;
+        int quote = -1;
+        int character;
+        while ((character = reader.read()) != -1) {
+            output.write(character);
+            if (quote != -1) {
+                if (character == quote) {
+                    quote = -1;
+                }
+                continue;
+            }
+            if (character == '>') {
+                break;
+            }
+            if (character == '"' || character == '\'') {
+                quote = character;
+            }
+            if (inName && (Character.isLetterOrDigit(character))) {
+                name.append((char) character);
+            } else {
+                inName = false;
+            }
+        }
+        return name.toString().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Copies the content of a raw element up to its end tag, through the css minifier when one is given. The end tag
+     * itself is left in the reader.
+     */
+    private static void copyRaw(final PushbackReader reader, final Writer output, final String element,
+                                final CssMinifier cssMinifier) throws IOException {
+        final String endTag = "</" + element;
+        int character;
+        while ((character = reader.read()) != -1) {
+            if (character == '<') {
+                reader.unread(character);
+                if (lookingAtIgnoreCase(reader, endTag)) {
+                    break;
+                }
+                reader.read();
+            }
+            if (cssMinifier != null) {
+                cssMinifier.write(character);
+            } else {
+                output.write(character);
+            }
+        }
+        if (cssMinifier != null) {
+            cssMinifier.finish();
+        }
+    }
+
+    private static boolean lookingAt(final PushbackReader reader, final String expected) throws IOException {
+        return lookingAt(reader, expected, false);
+    }
+
+    private static boolean lookingAtIgnoreCase(final PushbackReader reader, final String expected)
+            throws IOException {
+        return lookingAt(reader, expected, true);
+    }
+
+    private static boolean lookingAt(final PushbackReader reader, final String expected, final boolean ignoreCase)
+            throws IOException {
+        final char[] buffer = new char[expected.length()];
+        int read = 0;
+        while (read < buffer.length) {
+            final int count = reader.read(buffer, read, buffer.length - read);
+            if (count == -1) {
+                break;
+            }
+            read += count;
+        }
+        reader.unread(buffer, 0, read);
+        if (read < buffer.length) {
+            return false;
+        }
+        final String actual = new String(buffer);
+        return ignoreCase ? actual.equalsIgnoreCase(expected) : actual.equals(expected);
+    }
+
+    private static void skipUntil(final PushbackReader reader, final String end) throws IOException {
+        int matched = 0;
+        int character;
+        while (matched < end.length() && (character = reader.read()) != -1) {
+            matched = character == end.charAt(matched) ? matched + 1 : character == end.charAt(0) ? 1 : 0;
+        }
+    }
+
+    private static int copyUntil(final PushbackReader reader, final Writer output, final String end)
+            throws IOException {
+        int matched = 0;
+        int character = -1;
+        while (matched < end.length() && (character = reader.read()) != -1) {
+            output.write(character);
+            matched = character == end.charAt(matched) ? matched + 1 : character == end.charAt(0) ? 1 : 0;
+        }
+        return character;
+    }
+
+    /**
+     * Streaming css minifier: drops comments, collapses whitespace and drops it next to braces, semicolons and commas,
+     * and drops the last semicolon of a block. Whitespace around a colon is only dropped in declarations, in a
+     * selector "div :first-child" is not "div:first-child". Strings and url(...) are copied as they are.
+     */
+    private static class CssMinifier {
+        private static final String NO_SPACE_BEFORE = "{};,>)";
+        private static final String NO_SPACE_AFTER = "{};,>(";
+        // at-rules whose block holds rules, not declarations
+        private static final String[] GROUPING_AT_RULES = {"media", "supports", "document", "-moz-document", "layer",
+                "container", "keyframes", "-webkit-keyframes"};
+        private static final int MAX_PRELUDE_LENGTH = 32;
+
+        private final Writer output;
+        private int lastWritten = -1;
+        private int quote = -1;
+        private boolean escaped;
+        private boolean inComment;
+        private boolean inUrl;
+        private boolean pendingSlash;
+        private boolean pendingStar;
+        private boolean pendingSpace;
+        private boolean pendingSemicolon;
+        private boolean pendingComment;
+        // start of the current rule or at-rule, enough to tell which kind of block it opens
+        private final StringBuilder prelude = new StringBuilder();
+        private final StringBuilder identifier = new StringBuilder();
+        // for every open block whether it holds declarations
+        private final Deque<Boolean> blocks = new ArrayDeque<>();
+
+        private CssMinifier(final Writer output) {
+            this.output = output;
+        }
+
+        private void write(final int character) throws IOException {
+            if (inComment) {
+                if (pendingStar && character == '/') {
+                    inComment = false;
+                    pendingComment = true;
+                }
+                pendingStar = character == '*';
+                return;
+            }
+            if (quote != -1) {
+                emit(character);
+                if (escaped) {
+                    escaped = false;
+                } else if (character == '\\') {
+                    escaped = true;
+                } else if (character == quote) {
+                    quote = -1;
+                }
+                return;
+            }
+            if (inUrl) {
+                // an unquoted url may hold anything but whitespace, quotes and parentheses, even // and ;
+                if (character == ')') {
+                    inUrl = false;
+                    token(character);
+                } else if (!Character.isWhitespace(character)) {
+                    emit(character);
+                    if (character == '"' || character == '\'') {
+                        quote = character;
+                    }
+                }
+                return;
+            }
+            if (pendingSlash) {
+                pendingSlash = false;
+                if (character == '*') {
+                    inComment = true;
+                    pendingStar = false;
+                    return;
+                }
+                token('/');
+            }
+            if (character == '/') {
+                pendingSlash = true;
+                return;
+            }
+            if (Character.isWhitespace(character)) {
+                pendingSpace = true;
+                return;
+            }
+            if (character == ';') {
+                if (pendingSemicolon) {
+                    emit(';');
+                }
+                pendingSpace = false;
+                pendingSemicolon = true;
+                return;
+            }
+            final boolean url = character == '(' && identifier.toString().equalsIgnoreCase("url");
+            token(character);
+            if (character == '"' || character == '\'') {
+                quote = character;
+            }
+            inUrl = url;
+            if (character == '{') {
+                blocks.push(!isGroupingAtRule());
+                prelude.setLength(0);
+            } else if (character == '}') {
+                blocks.poll();
+                prelude.setLength(0);
+            }
+        }
+
+        private boolean isGroupingAtRule() {
+            if (prelude.length() == 0 || prelude.charAt(0) != '@') {
+                return false;
+            }
+            int end = 1;
+            while (end < prelude.length() && (Character.isLetterOrDigit(prelude.charAt(end))
+                    || prelude.charAt(end) == '-')) {
+                end++;
+            }
+            final String name = prelude.substring(1, end).toLowerCase(Locale.ROOT);
+            for (String atRule : GROUPING_AT_RULES) {
+                if (atRule.equals(name)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void token(final int character) throws IOException {
+            if (pendingSemicolon) {
+                pendingSemicolon = false;
+                if (character != '}') {
+                    emit(';');
+                }
+                prelude.setLength(0);
+            }
+            // a comment separates tokens but is no whitespace, ".a/**/.b" is ".a.b"
+            if (pendingComment && isIdentifierPart(lastWritten) && isIdentifierPart(character)) {
+                pendingSpace = true;
+            }
+            pendingComment = false;
+            final boolean inDeclarations = Boolean.TRUE.equals(blocks.peek());
+            final boolean noSpaceAfter = lastWritten == ':' ? inDeclarations
+                    : NO_SPACE_AFTER.indexOf(lastWritten) >= 0;
+            final boolean noSpaceBefore = character == ':' ? inDeclarations
+                    : NO_SPACE_BEFORE.indexOf(character) >= 0;
+            if (pendingSpace && lastWritten != -1 && !noSpaceAfter && !noSpaceBefore) {
+                emit(' ');
+            }
+            pendingSpace = false;
+            emit(character);
+        }
+
+        private void emit(final int character) throws IOException {
+            output.write(character);
+            lastWritten = character;
+            if (prelude.length() < MAX_PRELUDE_LENGTH) {
+                prelude.append((char) character);
+            }
+            if (isIdentifierPart(character)) {
+                identifier.append((char) character);
+            } else {
+                identifier.setLength(0);
+            }
+        }
+
+        private static boolean isIdentifierPart(final int character) {
+            return Character.isLetterOrDigit(character) || character == '-' || character == '_';
+        }
+
+        private void finish() throws IOException {
+            if (pendingSlash) {
+                token('/');
+                pendingSlash = false;
+            }
+            if (pendingSemicolon) {
+                emit(';');
+                pendingSemicolon = false;
+            }
+        }
+    }
+}
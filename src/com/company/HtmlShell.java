@@ -0,0 +1,84 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+/**
+ * The document around the pages of a pdf2htmlEX output: everything up to the opening of the page container and
+ * everything from its closing tag on. Page bodies can be written into it without parsing them.
+ */
+class HtmlShell {
+    private static final byte[] PAGE_CONTAINER = "<div id=\"page-container\">".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] CLOSING_DIV = "</div>".getBytes(StandardCharsets.UTF_8);
+
+    private final byte[] prefix;
+    private final byte[] suffix;
+
+    private HtmlShell(final byte[] prefix, final byte[] suffix) {
+        this.prefix = prefix;
+        this.suffix = suffix;
+    }
+
+    /**
+     * Reads the shell of a document whose page container is empty, which is what --split-pages leaves behind.
+     */
+    public static HtmlShell read(final File file) throws IOException {
+        final byte[] content = Files.readAllBytes(file.toPath());
+        final int containerStart = indexOf(content, PAGE_CONTAINER, 0);
+        if (containerStart < 0) {
+            throw new IOException("No page container in " + file);
+        }
+        int prefixEnd = containerStart + PAGE_CONTAINER.length;
+        if (prefixEnd < content.length && content[prefixEnd] == '\n') {
+            prefixEnd++;
+        }
+        final int suffixStart = indexOf(content, CLOSING_DIV, prefixEnd);
+        if (suffixStart < 0) {
+            throw new IOException("Page container is not closed in " + file);
+        }
+        final byte[] prefix = new byte[prefixEnd];
+        System.arraycopy(content, 0, prefix, 0, prefixEnd);
+        final byte[] suffix = new byte[content.length - suffixStart];
+        System.arraycopy(content, suffixStart, suffix, 0, suffix.length);
+        return new HtmlShell(prefix, suffix);
+    }
+
+    /**
+     * Writes a complete document made of this shell around the given page fragments.
+     */
+    public void write(final File target, final File... fragments) throws IOException {
+        try (FileOutputStream outputStream = new FileOutputStream(target);
+             FileChannel output = outputStream.getChannel()) {
+            outputStream.write(prefix);
+            for (File fragment : fragments) {
+                try (FileInputStream inputStream = new FileInputStream(fragment);
+                     FileChannel input = inputStream.getChannel()) {
+                    long position = 0;
+                    final long size = input.size();
+                    while (position < size) {
+                        position += input.transferTo(position, size - position, output);
+                    }
+                }
+            }
+            outputStream.write(suffix);
+        }
+    }
+
+    static int indexOf(final byte[] content, final byte[] pattern, final int from) {
+        outer:
+        for (int index = from; index <= content.length - pattern.length; index++) {
+            for (int patternIndex = 0; patternIndex < pattern.length; patternIndex++) {
+                if (content[index + patternIndex] != pattern[patternIndex]) {
+                    continue outer;
+                }
+            }
+            return index;
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,201 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Append-only record of a run: which tasks were planned, started, completed (with the checksum of every output) or
+ * failed. A run started with --resume reads it back and only re-plans outputs which are missing or do not match
+ * their recorded checksum.
+ * Workers only queue entries; one writer thread appends them in batches and forces each batch to disk.
+ */
+class JobJournal implements TaskObserver {
+    private static final String SEPARATOR = "\t";
+    private static final int MAX_BATCH = 512;
+
+    enum State {
+        JOB,
+        PLANNED,
+        STARTED,
+        COMPLETED,
+        FAILED
+    }
+
+    private final File baseDirectory;
+    private final Map<String, String> completed;
+    private final BlockingQueue<String> entries = new LinkedBlockingQueue<>();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private final FileOutputStream outputStream;
+    private final Writer writer;
+    private final Thread writerThread;
+    private volatile boolean closed;
+
+    private JobJournal(final File file, final File baseDirectory, final Map<String, String> completed,
+                       final boolean append) throws IOException {
+        this.baseDirectory = baseDirectory;
+        this.completed = completed;
+        file.getParentFile().mkdirs();
+        this.outputStream = new FileOutputStream(file, append);
+        this.writer = new OutputStreamWriter(outputStream, StandardCharsets.UTF_8);
+        this.writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                writeEntries();
+            }
+        }, "job-journal");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    /**
+     * Tells whether the journal at file belongs to the same job, i.e. the same PDF, chapter file and options.
+     */
+    public static boolean matches(final File file, final String jobKey) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            final String header = reader.readLine();
+            return header != null && header.equals(State.JOB + SEPARATOR + jobKey);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Opens the journal. When resuming, the recorded completions are loaded and new entries are appended, otherwise
+     * the journal starts over.
+     */
+    public static JobJournal open(final File file, final File baseDirectory, final String jobKey,
+                                  final boolean resume) throws IOException {
+        final Map<String, String> completed = new HashMap<>();
+        if (resume) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final String[] fields = line.split(SEPARATOR);
+                    if (fields.length == 3 && fields[0].equals(State.COMPLETED.name())) {
+                        completed.put(fields[1], fields[2]);
+                    }
+                }
+            }
+        }
+        final JobJournal journal = new JobJournal(file, baseDirectory, completed, resume);
+        if (!resume) {
+            journal.append(State.JOB, jobKey);
+        }
+        return journal;
+    }
+
+    /**
+     * Whether a previous run completed this output and it is still on disk unchanged.
+     */
+    public boolean isCompleted(final File output) {
+        final String checksum = completed.get(relativePath(output));
+        if (checksum == null || !output.isFile()) {
+            return false;
+        }
+        try {
+            return checksum.equals(Checksums.sha256(output));
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public void planned(final RenderTask task) {
+        append(State.PLANNED, task.getName(), task.getStartPage() + "-" + task.getEndPage());
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+        append(State.STARTED, task.getName());
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            failedCount.incrementAndGet();
+            append(State.FAILED, task.getName());
+            return;
+        }
+        for (File output : task.getOutputs()) {
+            try {
+                append(State.COMPLETED, relativePath(output), Checksums.sha256(output));
+            } catch (IOException e) {
+                failedCount.incrementAndGet();
+                append(State.FAILED, task.getName(), "missing " + relativePath(output));
+            }
+        }
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    /**
+     * Writes what is still queued and closes the file.
+     */
+    public void close() {
+        closed = true;
+        try {
+            writerThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void append(final State state, final String... fields) {
+        final StringBuilder builder = new StringBuilder(state.name());
+        for (String field : fields) {
+            builder.append(SEPARATOR).append(field.replace(SEPARATOR, " "));
+        }
+        entries.add(builder.toString());
+    }
+
+    private void writeEntries() {
+        final List<String> batch = new ArrayList<>();
+        try {
+            while (!closed || !entries.isEmpty()) {
+                final String first = entries.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                entries.drainTo(batch, MAX_BATCH - 1);
+                for (String entry : batch) {
+                    writer.write(entry);
+                    writer.write('\n');
+                }
+                writer.flush();
+                outputStream.getFD().sync();
+                batch.clear();
+            }
+        } catch (IOException | InterruptedException e) {
+            System.out.println("Can not write the job journal: " + e.getMessage());
+        } finally {
+            try {
+                writer.close();
+            } catch (IOException e) {
+                System.out.println("Can not close the job journal: " + e.getMessage());
+            }
+        }
+    }
+
+    private String relativePath(final File output) {
+        return baseDirectory.toPath().relativize(output.getAbsoluteFile().toPath()).toString();
+    }
+}
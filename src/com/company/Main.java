@@ -1,33 +1,29 @@
 package com.company;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.Iterator;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
-import java.util.regex.Pattern;
-
-import static com.company.Main.COMMAND_PARAMETER;
-import static com.company.Main.COMMAND_RUN;
+import java.util.Set;
 
 public class Main {
     private static final String DOT = ".";
-    private static final int MAX_PAGE_PER_BATCH = 6;
     private static final int NULL_CHAPTER_INDEX = -1;
     private static final String FOLDER_SPLITTER = File.separator;
     private static final String BATCHES_OUTPUT_DIRECTORY = "batches";
     private static final String OUTPUT_FOLDER = "html";
-    private static final Pattern BATCH_PATTERN = Pattern.compile("(generateHtml)\\d*-\\d*(\\.(bat|sh))");
     private static String lib = FOLDER_SPLITTER + "lib" + FOLDER_SPLITTER + "pdf2HtmlEx.exe";
     private static final int DEFAULT_MAX_THREAD = 8;
     private static final boolean DEFAULT_SEPARATE_FILE = true;
@@ -37,11 +33,66 @@ public class Main {
     private static final Parser THREAD_PARSER = new IntegerParser(DEFAULT_MAX_THREAD, 1, 50);
     private static final Parser ZOOM_PARSER = new FloatParser(DEFAULT_ZOOM, 0.1f, -1);
     private static final Parser SEPARATE_PARSER = new BooleanParser(DEFAULT_SEPARATE_FILE);
+    private static final Parser EXPORT_SCRIPTS_PARSER = new BooleanParser(false);
+    private static final Parser SPLIT_PAGES_PARSER = new BooleanParser(false);
+    private static final int CHUNKS_PER_WORKER = 4;
+    private static final int MAX_CHUNK_SIZE = 16;
+    private static final String CHUNK_FILE_NAME = "chunk.html";
+    private static final String CHUNK_PAGE_TEMPLATE = "chunk-%d.page";
+    private static final Parser CACHE_DIR_PARSER = new StringParser(null);
+    private static final Parser CACHE_SIZE_PARSER = new IntegerParser(1024, 1, -1);
+    private static final String CACHE_COVER = "cover";
+    private static final String CACHE_PAGE = "page";
+    private static final String CACHE_CHUNK_PAGE = "chunk-page";
+    private static final String CACHE_CHAPTER = "chapter";
+    private static final Parser RESUME_PARSER = new BooleanParser(false);
+    private static final String JOURNAL_FILE_NAME = "journal.log";
+    private static final String LOG_FOLDER = "logs";
+    private static final String METRICS_FILE_NAME = "metrics.prom";
+    private static final String RUN_REPORT_FILE_NAME = "run-report.json";
+    private static final Parser PAGE_TIMEOUT_PARSER = new IntegerParser(300, 1, -1);
+    private static final Parser CPU_TIMEOUT_PARSER = new IntegerParser(0, 0, -1);
+    private static final Parser RETRIES_PARSER = new IntegerParser(2, 0, 10);
+    private static final long RETRY_BACKOFF_MILLIS = 1000;
+    private static final Parser RENDERER_PARSER = new StringParser(null);
+    private static final Parser SHARED_ASSETS_PARSER = new BooleanParser(false);
+    private static final Parser ADAPTIVE_PARSER = new BooleanParser(true);
+    private static final Parser MIN_THREAD_PARSER = new IntegerParser(1, 1, 50);
+    private static final Parser MEMORY_LIMIT_PARSER = new IntegerParser(0, 0, -1);
+    private static final String DAEMON_ARGUMENT = "--daemon";
+    private static final String BATCH_ARGUMENT = "--batch";
+    private static final Parser BATCH_OUTPUT_PARSER = new StringParser(null);
+    private static final String WORKER_ARGUMENT = "--worker";
+    private static final Parser QUEUE_PARSER = new StringParser(null);
+    private static final Parser LEASE_TIME_PARSER = new IntegerParser(30, 3, -1);
+    private static WorkQueue workQueue;
+    private static final Parser MINIFY_PARSER = new BooleanParser(false);
+    private static final Parser PRECOMPRESS_PARSER = new ChoiceParser("none", "none", "gz", "gz,br");
+    private static final OutputMapper HTML_MINIFIER = new HtmlMinifier();
+    private static final Parser EVENTS_PARSER = new StringParser(null);
+    private static final String EVENTS_STDOUT = "stdout";
+    private static RenderListener renderListener;
+    private static final String PRIORITY_OPENERS = "openers";
+    private static final String PRIORITY_COVER = "cover";
+    private static final String PRIORITY_NONE = "none";
+    private static final Parser PRIORITY_PARSER = new ChoiceParser(PRIORITY_OPENERS, PRIORITY_OPENERS, PRIORITY_COVER,
+            PRIORITY_NONE);
+    private static final Parser OPENER_PAGES_PARSER = new IntegerParser(2, 1, -1);
+    private static final String SERVE_ARGUMENT = "--serve";
+    private static final Parser SERVE_OUTPUT_PARSER = new StringParser(null);
+    private static final Parser MEMORY_CACHE_PARSER = new IntegerParser(256, 1, -1);
+    private static final Parser PREFETCH_PARSER = new IntegerParser(2, 0, 50);
+    private static final Parser SPLIT_CHAPTERS_PARSER = new BooleanParser(true);
+    private static final Parser COST_MODEL_PARSER = new StringParser(null);
+    private static final String COST_MODEL_FOLDER = "costs";
+    private static final String COST_REPORT_FILE_NAME = "cost-report.json";
+    private static final String PACK_NONE = "none";
+    private static final String PACK_CHAPTER = "chapter";
+    private static final Parser PACK_PARSER = new ChoiceParser(PACK_NONE, PACK_NONE, PACK_CHAPTER, "book");
+    private static final Parser SEARCH_INDEX_PARSER = new BooleanParser(false);
     public static final int COVER_PAGE = -1;
     public static String COMMAND_DELIM = " & ";
     public static String BATCH_FILE_EXTENSION = ".bat ";
-    public static String COMMAND_RUN = "cmd";
-    public static String COMMAND_PARAMETER = " /c ";
 
 
     static {
@@ -49,6 +100,34 @@ public class Main {
         ARGUMENTS.put("-t", THREAD_PARSER);
         ARGUMENTS.put("-z", ZOOM_PARSER);
         ARGUMENTS.put("-s", SEPARATE_PARSER);
+        ARGUMENTS.put("--export-scripts", EXPORT_SCRIPTS_PARSER);
+        ARGUMENTS.put("--split-pages", SPLIT_PAGES_PARSER);
+        ARGUMENTS.put("--cache-dir", CACHE_DIR_PARSER);
+        ARGUMENTS.put("--cache-size", CACHE_SIZE_PARSER);
+        ARGUMENTS.put("--resume", RESUME_PARSER);
+        ARGUMENTS.put("--shared-assets", SHARED_ASSETS_PARSER);
+        ARGUMENTS.put("--page-timeout", PAGE_TIMEOUT_PARSER);
+        ARGUMENTS.put("--cpu-timeout", CPU_TIMEOUT_PARSER);
+        ARGUMENTS.put("--retries", RETRIES_PARSER);
+        ARGUMENTS.put("--renderer", RENDERER_PARSER);
+        ARGUMENTS.put("--adaptive", ADAPTIVE_PARSER);
+        ARGUMENTS.put("--min-threads", MIN_THREAD_PARSER);
+        ARGUMENTS.put("--memory-limit", MEMORY_LIMIT_PARSER);
+        ARGUMENTS.put("--batch-output", BATCH_OUTPUT_PARSER);
+        ARGUMENTS.put("--queue", QUEUE_PARSER);
+        ARGUMENTS.put("--lease-time", LEASE_TIME_PARSER);
+        ARGUMENTS.put("--minify", MINIFY_PARSER);
+        ARGUMENTS.put("--precompress", PRECOMPRESS_PARSER);
+        ARGUMENTS.put("--events", EVENTS_PARSER);
+        ARGUMENTS.put("--priority", PRIORITY_PARSER);
+        ARGUMENTS.put("--opener-pages", OPENER_PAGES_PARSER);
+        ARGUMENTS.put("--serve-output", SERVE_OUTPUT_PARSER);
+        ARGUMENTS.put("--memory-cache", MEMORY_CACHE_PARSER);
+        ARGUMENTS.put("--prefetch", PREFETCH_PARSER);
+        ARGUMENTS.put("--split-chapters", SPLIT_CHAPTERS_PARSER);
+        ARGUMENTS.put("--cost-model", COST_MODEL_PARSER);
+        ARGUMENTS.put("--pack", PACK_PARSER);
+        ARGUMENTS.put("--search-index", SEARCH_INDEX_PARSER);
     }
 
     enum RESULT {
@@ -81,11 +160,9 @@ public class Main {
     private static void initCommandFormat(final boolean isLinux) {
         COMMAND_DELIM = ";";
         BATCH_FILE_EXTENSION = ".sh ";
-        COMMAND_RUN = "/bin/sh/";
-        COMMAND_PARAMETER = " -c ";
     }
 
-    private static void checkArgument(String[] args) {
+    static void checkArgument(String[] args) {
         int index = 2;
         while (index < args.length) {
             if(args[index].trim().equalsIgnoreCase("-l")) {
@@ -115,7 +192,7 @@ public class Main {
 
     }
 
-    static private void deleteAllFiles(final String directory) {
+    static void deleteAllFiles(final String directory) {
         File batDir = new File(directory);
         if (batDir.isDirectory()) {
             File[] files = batDir.listFiles();
@@ -198,18 +275,50 @@ public class Main {
     }
 
     private static void checkLib(final String currentDir) {
-        File file = new File(currentDir + lib);
+        File file = new File(getRendererPath(currentDir));
         if (!file.exists()) {
+            if (RENDERER_PARSER.getValue() != null) {
+                throw new IllegalArgumentException(String.format("Renderer '%s' is not existed.", file));
+            }
             throw new IllegalArgumentException("Do not delete any folder in this lib");
         }
     }
 
+    /**
+     * The bundled pdf2htmlEX, unless another renderer (e.g. the fake one of the benchmarks) was given.
+     */
+    private static String getRendererPath(final String currentDir) {
+        final String renderer = (String) RENDERER_PARSER.getValue();
+        if (renderer != null) {
+            return getFilePathIfRelative(renderer);
+        }
+        return currentDir + lib;
+    }
+
 
     public static void main(String[] args) {
         currentDirectory = System.getProperty("user.dir");
+        if (args != null && args.length > 0 && args[0].trim().equalsIgnoreCase(DAEMON_ARGUMENT)) {
+            runDaemon(args);
+            return;
+        }
+        if (args != null && args.length > 0 && args[0].trim().equalsIgnoreCase(BATCH_ARGUMENT)) {
+            runBatch(args);
+            return;
+        }
+        if (args != null && args.length > 0 && args[0].trim().equalsIgnoreCase(WORKER_ARGUMENT)) {
+            runWorker(args);
+            return;
+        }
+        if (args != null && args.length > 0 && args[0].trim().equalsIgnoreCase(SERVE_ARGUMENT)) {
+            runServer(args);
+            return;
+        }
         try {
             initArgument(args);
             checkLib(currentDirectory);
+            initWorkQueue();
+            initEventStream();
         } catch (Exception ex) {
             System.out.println("************************************");
             System.out.println("Error: " + "\t" + ex.getMessage());
@@ -221,215 +330,1144 @@ public class Main {
         args[0] = getFilePathIfRelative(args[0]);
         args[1] = getFilePathIfRelative(args[1]);
 
+        final RenderJob job = new RenderJob("main", args[0], args[1], new File(currentDirectory), 0);
+        renderBook(job, null);
+    }
+
+    /**
+     * --daemon port [optional arguments]: the optional arguments apply to every submitted book.
+     */
+    private static void runDaemon(final String[] args) {
+        final int port;
+        try {
+            if (args.length < 2) {
+                throw new IllegalArgumentException("No port for " + DAEMON_ARGUMENT);
+            }
+            try {
+                port = Integer.parseInt(args[1]);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Port must be a number: " + args[1]);
+            }
+            checkArgument(args);
+            checkLib(currentDirectory);
+            initWorkQueue();
+            initEventStream();
+        } catch (Exception ex) {
+            System.out.println("************************************");
+            System.out.println("Error: " + "\t" + ex.getMessage());
+            printHelp();
+            return;
+        }
+        final int maxThread = (Integer) THREAD_PARSER.getValue();
+        final ConcurrencyController controller = createConcurrencyController();
+        final RenderDaemon daemon = new RenderDaemon(port, new RenderService(controller, maxThread));
+        try {
+            daemon.start();
+        } catch (IOException e) {
+            System.out.println("Error: " + "\t" + "can not listen on port " + port + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * --serve port folder [optional arguments]: renders the pages of the books in folder when they are requested.
+     * The cache size bounds the rendered pages on disk, --memory-cache the ones kept in memory.
+     */
+    private static void runServer(final String[] args) {
+        final PageServer server;
+        try {
+            if (args.length < 3) {
+                throw new IllegalArgumentException("No port and folder for " + SERVE_ARGUMENT);
+            }
+            final int port;
+            try {
+                port = Integer.parseInt(args[1].trim());
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("the port must be a number: " + args[1]);
+            }
+            final File source = new File(getFilePathIfRelative(args[2]));
+            if (!source.isDirectory()) {
+                throw new IllegalArgumentException(String.format("Folder '%s' is not existed.", args[2]));
+            }
+            // the options follow the port and the folder
+            checkArgument(Arrays.copyOfRange(args, 1, args.length));
+            checkLib(currentDirectory);
+            initWorkQueue();
+            // pages are served one by one, so they are always rendered into files of their own
+            SEPARATE_PARSER.convert("true");
+            final String serveOutput = (String) SERVE_OUTPUT_PARSER.getValue();
+            final File outputRoot = serveOutput == null ? new File(source, "served")
+                    : new File(getFilePathIfRelative(serveOutput));
+            final PageCache cache = new PageCache((Integer) MEMORY_CACHE_PARSER.getValue() * 1024L * 1024L,
+                    (Integer) CACHE_SIZE_PARSER.getValue() * 1024L * 1024L);
+            server = new PageServer(port, outputRoot, getRendererOptions(), cache,
+                    (Integer) THREAD_PARSER.getValue(), (Integer) PREFETCH_PARSER.getValue());
+            server.addBooks(source);
+            server.start();
+        } catch (Exception ex) {
+            System.out.println("************************************");
+            System.out.println("Error: " + "\t" + ex.getMessage());
+            printHelp();
+        }
+    }
+
+    /**
+     * File of a page rendered by the page server, pageIndex counts from 0 within the chapter.
+     */
+    static File getServedPageFile(final String bookDirectory, final int chapterIndex, final int pageIndex) {
+        if (chapterIndex == COVER_PAGE) {
+            return new File(getOutputDirectory(bookDirectory, NULL_CHAPTER_INDEX), "cover.html");
+        }
+        return new File(getOutputDirectory(bookDirectory, chapterIndex), pageIndex + ".html");
+    }
+
+    /**
+     * Task which renders one page for the page server, with the options a full render of the book would use.
+     */
+    static RenderTask buildServedPageTask(final List<Chapter> chapters, final int chapterIndex, final int pageIndex,
+                                          final String pdfFilePath, final String bookDirectory) {
+        final File pageFile = getServedPageFile(bookDirectory, chapterIndex, pageIndex);
+        final int page = chapterIndex == COVER_PAGE ? 1 : chapters.get(chapterIndex).getFirst() + pageIndex;
+        return withOutput(null, buildRenderTask(chapterIndex, page, page, pageFile.getName(),
+                getRendererPath(currentDirectory), pdfFilePath, bookDirectory),
+                chapterIndex == COVER_PAGE ? CACHE_COVER : CACHE_PAGE, pageFile);
+    }
+
+    /**
+     * --batch folder|manifest [optional arguments]: the optional arguments apply to every book of the batch.
+     */
+    private static void runBatch(final String[] args) {
+        final File source;
+        try {
+            if (args.length < 2) {
+                throw new IllegalArgumentException("No folder or manifest for " + BATCH_ARGUMENT);
+            }
+            source = new File(getFilePathIfRelative(args[1]));
+            if (!source.exists()) {
+                throw new IllegalArgumentException(String.format("File '%s' is not existed.", args[1]));
+            }
+            checkArgument(args);
+            checkLib(currentDirectory);
+            initWorkQueue();
+            initEventStream();
+        } catch (Exception ex) {
+            System.out.println("************************************");
+            System.out.println("Error: " + "\t" + ex.getMessage());
+            printHelp();
+            return;
+        }
+        final String batchOutput = (String) BATCH_OUTPUT_PARSER.getValue();
+        final int maxThread = (Integer) THREAD_PARSER.getValue();
+        final ConcurrencyController controller = createConcurrencyController();
+        final BatchRunner batchRunner = new BatchRunner(source,
+                batchOutput == null ? null : new File(getFilePathIfRelative(batchOutput)),
+                new RenderService(controller, maxThread));
+        try {
+            batchRunner.run();
+        } catch (IllegalArgumentException ex) {
+            System.out.println("Error: " + "\t" + ex.getMessage());
+        } catch (IOException | InterruptedException ex) {
+            System.out.println("Error: " + "\t" + "batch " + source + " failed: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * --worker queueFolder [optional arguments]: render tasks of coordinators sharing the queue folder, with -t
+     * threads, until the stop file appears in it.
+     */
+    private static void runWorker(final String[] args) {
+        final File queueDirectory;
+        try {
+            if (args.length < 2) {
+                throw new IllegalArgumentException("No queue folder for " + WORKER_ARGUMENT);
+            }
+            queueDirectory = new File(getFilePathIfRelative(args[1]));
+            checkArgument(args);
+            checkLib(currentDirectory);
+        } catch (Exception ex) {
+            System.out.println("************************************");
+            System.out.println("Error: " + "\t" + ex.getMessage());
+            printHelp();
+            return;
+        }
+        final int maxThread = (Integer) THREAD_PARSER.getValue();
+        final ConcurrencyController controller = (Boolean) ADAPTIVE_PARSER.getValue()
+                ? createConcurrencyController() : null;
+        final QueueWorker worker = new QueueWorker(new WorkQueue(queueDirectory,
+                (Integer) LEASE_TIME_PARSER.getValue() * 1000L), getRendererPath(currentDirectory), maxThread,
+                controller);
+        try {
+            worker.run();
+        } catch (InterruptedException ex) {
+            System.out.println("Serious Error");
+        }
+    }
+
+    /**
+     * With --events the render events are written as NDJSON to stdout or to a file, e.g. a named pipe an uploader
+     * reads. Events on stdout move the log to stderr, so the stream stays parseable.
+     */
+    private static void initEventStream() throws IOException {
+        final String target = (String) EVENTS_PARSER.getValue();
+        if (target == null || renderListener != null) {
+            return;
+        }
+        final PrintStream stream;
+        if (target.equalsIgnoreCase(EVENTS_STDOUT)) {
+            stream = System.out;
+            System.setOut(System.err);
+        } else {
+            // opening a named pipe waits until its reader is there
+            stream = new PrintStream(new FileOutputStream(getFilePathIfRelative(target), true), true,
+                    StandardCharsets.UTF_8.name());
+        }
+        renderListener = new NdjsonEventWriter(stream);
+    }
+
+    /**
+     * With --queue the renders of this process are handed to worker nodes. This process keeps planning, post
+     * processing and requeueing the tasks of workers which died.
+     */
+    private static void initWorkQueue() {
+        final String queueDirectory = (String) QUEUE_PARSER.getValue();
+        if (queueDirectory != null && workQueue == null) {
+            workQueue = new WorkQueue(new File(getFilePathIfRelative(queueDirectory)),
+                    (Integer) LEASE_TIME_PARSER.getValue() * 1000L);
+            workQueue.startLeaseMonitor();
+        }
+    }
+
+    /**
+     * Renders one book into the output folder of the job. Without a shared controller the book gets a concurrency
+     * controller of its own, otherwise its renders compete with other jobs for the shared slots.
+     */
+    static void renderBook(final RenderJob job, final ConcurrencyController sharedController) {
+        if (job.isCancelled()) {
+            return;
+        }
+        job.started();
+        final RenderEvents events = renderListener == null ? null : new RenderEvents(job, renderListener);
+        final String outputDirectory = job.getOutputDirectory().getAbsolutePath();
+        final String tocFilePath = job.getTocPath();
+        final String pdfFilePath = job.getPdfPath();
         // create command
-        final List<Chapter> chapters = readAllChapter(args[0]);
-        final String pdf2HtmlExLibPath = currentDirectory + lib;
-        deleteAllFiles(currentDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY);
-        deleteAllFiles(currentDirectory + FOLDER_SPLITTER + OUTPUT_FOLDER);
-        //code for generate file json
-        runThreadWriteOverviewFile(currentDirectory, chapters);
-        int startPage = 0, endPage = 0;
+        final RenderMetrics metrics = new RenderMetrics();
+        final long planStart = System.nanoTime();
+        final List<Chapter> chapters;
+        try {
+            chapters = readAllChapter(tocFilePath);
+            checkChapters(chapters, new File(pdfFilePath));
+        } catch (IllegalArgumentException e) {
+            System.out.println("Error: " + "\t" + e.getMessage());
+            job.failed(e.getMessage());
+            if (events != null) {
+                events.jobFinished();
+            }
+            return;
+        }
+        final String pdf2HtmlExLibPath = getRendererPath(currentDirectory);
+        final String pdfHash;
+        final String jobKey;
+        try {
+            pdfHash = Checksums.sha256(new File(pdfFilePath));
+            jobKey = Checksums.sha256(pdfHash + "|" + Checksums.sha256(new File(tocFilePath)) + "|"
+                    + getRendererOptions());
+        } catch (IOException e) {
+            System.out.println("Error: " + "\t" + "can not read " + pdfFilePath);
+            job.failed("can not read " + pdfFilePath);
+            if (events != null) {
+                events.jobFinished();
+            }
+            return;
+        }
+        final File journalFile = new File(outputDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY
+                + FOLDER_SPLITTER + JOURNAL_FILE_NAME);
+        final boolean resume = (Boolean) RESUME_PARSER.getValue() && JobJournal.matches(journalFile, jobKey);
+        if ((Boolean) RESUME_PARSER.getValue() && !resume) {
+            System.out.println("No journal of this job found, starting from the beginning");
+        }
+        if (!resume) {
+            deleteAllFiles(outputDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY);
+            deleteAllFiles(outputDirectory + FOLDER_SPLITTER + OUTPUT_FOLDER);
+        }
+        final JobJournal journal;
+        try {
+            journal = JobJournal.open(journalFile, new File(outputDirectory), jobKey, resume);
+        } catch (IOException e) {
+            System.out.println("Error: " + "\t" + "can not open the job journal " + journalFile);
+            job.failed("can not open the job journal " + journalFile);
+            if (events != null) {
+                events.jobFinished();
+            }
+            return;
+        }
+        final RenderCache cache = createCache(pdfHash);
+        final PageCostModel costModel = createCostModel(pdfHash, pdfFilePath);
+        final SharedPageLinker linker = new SharedPageLinker();
+        final List<RenderTask> tasks = planTasks(chapters, pdf2HtmlExLibPath, pdfFilePath, outputDirectory, journal,
+                cache, costModel, linker);
+        if ((Boolean) EXPORT_SCRIPTS_PARSER.getValue()) {
+            exportScripts(outputDirectory, tasks);
+        }
+        int pagesPlanned = 0;
+        for (RenderTask task : tasks) {
+            journal.planned(task);
+            pagesPlanned += task.getPageCount();
+        }
+        job.setPagesPlanned(pagesPlanned);
+        if (events != null) {
+            addChapters(events, chapters, outputDirectory);
+            events.planned(tasks, linker);
+        }
+        final OverviewWriter overview = new OverviewWriter(new File(getOutputDirectory(outputDirectory,
+                NULL_CHAPTER_INDEX)), chapters, (Boolean) SEPARATE_PARSER.getValue());
+        PreviewMarker previewMarker = null;
+        if (!PRIORITY_NONE.equals(PRIORITY_PARSER.getValue())) {
+            previewMarker = new PreviewMarker(job, new File(outputDirectory, OUTPUT_FOLDER), renderListener);
+            previewMarker.planned(tasks);
+        }
+        metrics.recordStage(RenderMetrics.Stage.PLAN, System.nanoTime() - planStart);
+        final DiagnosticsReport diagnosticsReport = new DiagnosticsReport(new File(outputDirectory
+                + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY + FOLDER_SPLITTER + LOG_FOLDER));
+        final Precompressor precompressor = createPrecompressor();
+        final PageArchiveWriter packWriter = createPackWriter(outputDirectory);
+        final SearchIndexer searchIndexer = (Boolean) SEARCH_INDEX_PARSER.getValue()
+                ? new SearchIndexer(new File(getOutputDirectory(outputDirectory, NULL_CHAPTER_INDEX)), chapters)
+                : null;
+        if (packWriter != null) {
+            overview.setPack((String) PACK_PARSER.getValue());
+        }
+        overview.planned(linker);
+        // told in this order when a task finished: the linker comes before the events, the preview, the index, the
+        // packs and the overview, so a linked page is there when they report or read it
+        final List<TaskObserver> observers = new ArrayList<>();
+        addObserver(observers, linker);
+        addObserver(observers, journal);
+        addObserver(observers, diagnosticsReport);
+        addObserver(observers, metrics);
+        addObserver(observers, job);
+        addObserver(observers, precompressor);
+        addObserver(observers, events);
+        addObserver(observers, previewMarker);
+        addObserver(observers, costModel);
+        addObserver(observers, searchIndexer);
+        addObserver(observers, packWriter);
+        addObserver(observers, overview);
+        final List<RenderTask> quarantined = runMultiTasks(tasks, metrics, job, sharedController, costModel,
+                observers);
+        metrics.finish();
+        final long writeStart = System.nanoTime();
+        if (searchIndexer != null) {
+            try {
+                searchIndexer.finish();
+            } catch (IOException e) {
+                System.out.println("Can not write the search index: " + e.getMessage());
+            }
+        }
+        if (packWriter != null) {
+            try {
+                packWriter.finish();
+            } catch (IOException e) {
+                System.out.println("Can not write the page packs: " + e.getMessage());
+            }
+        }
+        overview.finish();
+        if (metrics.getMinifiedBytes() > 0) {
+            System.out.println("Minifying saved " + metrics.getMinifiedBytes() / 1024 + " KB");
+        }
+        journal.close();
+        diagnosticsReport.write();
+        metrics.recordStage(RenderMetrics.Stage.WRITE, System.nanoTime() - writeStart);
+        writeMetrics(outputDirectory, metrics);
+        writeCostModel(outputDirectory, costModel);
+        // last, so the .gz and .br siblings are of the final output.json and reports, not of earlier versions
+        if (precompressor != null) {
+            try {
+                precompressor.finish(new File(outputDirectory, OUTPUT_FOLDER));
+            } catch (InterruptedException e) {
+                System.out.println("Precompression interrupted");
+            }
+        }
+        if (!quarantined.isEmpty()) {
+            System.out.println("Quarantined " + quarantined.size() + " tasks, run again with --resume true to retry" +
+                    " them:");
+            for (RenderTask task : quarantined) {
+                System.out.println("\t" + task.getName() + " pages " + task.getStartPage() + "-" + task.getEndPage()
+                        + ": " + task.getFailureReason());
+            }
+        }
+        if (cache != null) {
+            cache.printSummary();
+            cache.evict();
+        }
+        job.finished(quarantined.size());
+        if (events != null) {
+            events.jobFinished();
+        }
+    }
+
+    /**
+     * Rejects chapters ending past the last page of the pdf, when the pdf tells its number of pages.
+     */
+    static void checkChapters(final List<Chapter> chapters, final File pdfFile) {
+        final int pageCount = PdfCostProbe.pageCount(pdfFile);
+        if (pageCount < 0) {
+            return;
+        }
+        for (Chapter chapter : chapters) {
+            if (chapter.getLast() > pageCount) {
+                throw new IllegalArgumentException("Chapter " + chapter.getName() + " ends at page "
+                        + chapter.getLast() + ", " + pdfFile.getName() + " has " + pageCount + " pages");
+            }
+        }
+    }
+
+    private static void addChapters(final RenderEvents events, final List<Chapter> chapters,
+                                    final String currentDirectory) {
+        final File root = new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX));
+        events.addChapter(COVER_PAGE, "cover", new File(root, "cover.html"), 1, 1);
+        for (int chapterIndex = 0; chapterIndex < chapters.size(); chapterIndex++) {
+            final Chapter chapter = chapters.get(chapterIndex);
+            events.addChapter(chapterIndex, chapter.getName(),
+                    (Boolean) SEPARATE_PARSER.getValue()
+                            ? new File(getOutputDirectory(currentDirectory, chapterIndex))
+                            : new File(root, chapterIndex + ".html"), chapter.getFirst(), chapter.getLast());
+        }
+    }
+
+    static List<RenderTask> planTasks(final List<Chapter> chapters,
+                                      final String pdf2HtmlExLibPath,
+                                      final String pdfFilePath,
+                                      final String currentDirectory,
+                                      final JobJournal journal,
+                                      final RenderCache cache) {
+        return planTasks(chapters, pdf2HtmlExLibPath, pdfFilePath, currentDirectory, journal, cache, null, null);
+    }
+
+    /**
+     * Plans the render tasks of a book. Outputs which the resumed journal or the cache already provide are skipped.
+     * Chunks and chapter parts are cut to about the same predicted cost, every page costs the same without a model.
+     * With a linker, pages which an earlier chapter already covers are not rendered again but linked to its output;
+     * chapter files only when the whole range repeats.
+     */
+    static List<RenderTask> planTasks(final List<Chapter> chapters,
+                                      final String pdf2HtmlExLibPath,
+                                      final String pdfFilePath,
+                                      final String currentDirectory,
+                                      final JobJournal journal,
+                                      final RenderCache cache,
+                                      final PageCostModel costModel,
+                                      final SharedPageLinker linker) {
+        final List<RenderTask> tasks = new ArrayList<>();
+        // output of every page, or of every chapter range in single file books, by the first chapter covering it
+        final Map<String, File> owners = new HashMap<>();
+        final Set<File> plannedOutputs = new HashSet<>();
+        int sharedPages = 0;
+        final int chunkSize = getChunkSize(chapters);
+        final double chunkCost = getChunkCost(chapters, chunkSize, costModel);
+        // a chunk of cheap pages may grow beyond the chunk size, but not beyond what one process should render
+        final int pageLimit = costModel == null ? chunkSize : MAX_CHUNK_SIZE;
         // Render cover page.
-        writeRenderPage(COVER_PAGE,
-                1,
-                1,
-                pdf2HtmlExLibPath,
-                args[1],
-                currentDirectory,
-                0);
+        final File coverFile = new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX), "cover.html");
+        if (!isDone(journal, cache, 1, 1, CACHE_COVER, coverFile)) {
+            tasks.add(withOutput(cache, buildRenderTask(COVER_PAGE,
+                    1,
+                    1,
+                    coverFile.getName(),
+                    pdf2HtmlExLibPath,
+                    pdfFilePath,
+                    currentDirectory), CACHE_COVER, coverFile));
+            if (!PRIORITY_NONE.equals(PRIORITY_PARSER.getValue())) {
+                tasks.get(tasks.size() - 1).setPriority(RenderTask.Priority.COVER);
+            }
+        }
         for (int chapterIndex = 0; chapterIndex < chapters.size(); chapterIndex++) {
             Chapter chapter = chapters.get(chapterIndex);
-            if ((Boolean) SEPARATE_PARSER.getValue()) {
-                final int totalPage = chapter.getLast() - chapter.getFirst() + 1;
-                final int numOfBatches = totalPage % MAX_PAGE_PER_BATCH == 0 ?
-                        totalPage / MAX_PAGE_PER_BATCH : totalPage / MAX_PAGE_PER_BATCH + 1;
-                for (int batchIndex = 1; batchIndex <= numOfBatches; batchIndex++) {
-                    startPage = chapter.getFirst() + (batchIndex - 1) * MAX_PAGE_PER_BATCH;
-                    endPage = startPage + MAX_PAGE_PER_BATCH - 1;
-                    endPage = endPage < chapter.getLast() ? endPage : chapter.getLast();
-                    writeRenderPage(chapterIndex,
-                            startPage,
+            final File chapterDirectory = new File(getOutputDirectory(currentDirectory, chapterIndex));
+            if ((Boolean) SEPARATE_PARSER.getValue() && (Boolean) SPLIT_PAGES_PARSER.getValue()) {
+                // one pdf2htmlEX process per chunk of pages which are not cached, pages are split out afterwards
+                int page = chapter.getFirst();
+                while (page <= chapter.getLast()) {
+                    final File pageFile = new File(chapterDirectory, (page - chapter.getFirst()) + ".html");
+                    if (isShared(linker, owners, String.valueOf(page), pageFile)) {
+                        linkShared(linker, owners.get(String.valueOf(page)), plannedOutputs, chapterIndex, page, page,
+                                pageFile);
+                        sharedPages++;
+                        page++;
+                        continue;
+                    }
+                    if (isDone(journal, cache, page, page, CACHE_CHUNK_PAGE, pageFile)) {
+                        page++;
+                        continue;
+                    }
+                    // the openers get a chunk of their own, so they are not held up by the pages after them
+                    final int openerPages = getOpenerPages();
+                    final int limit = page - chapter.getFirst() < openerPages
+                            ? Math.min(pageLimit, openerPages - (page - chapter.getFirst())) : pageLimit;
+                    int endPage = page;
+                    double cost = getPageCost(costModel, page);
+                    while (endPage < chapter.getLast() && endPage - page + 1 < limit
+                            && (cost += getPageCost(costModel, endPage + 1)) <= chunkCost
+                            && !isShared(linker, owners, String.valueOf(endPage + 1),
+                            new File(chapterDirectory, (endPage + 1 - chapter.getFirst()) + ".html"))
+                            && !isDone(journal, cache, endPage + 1, endPage + 1, CACHE_CHUNK_PAGE,
+                            new File(chapterDirectory, (endPage + 1 - chapter.getFirst()) + ".html"))) {
+                        endPage++;
+                    }
+                    tasks.add(buildChunkTask(chapterIndex,
+                            chapter,
+                            page,
                             endPage,
                             pdf2HtmlExLibPath,
-                            args[1],
+                            pdfFilePath,
                             currentDirectory,
-                            batchIndex);
+                            cache));
+                    plannedOutputs.addAll(tasks.get(tasks.size() - 1).getOutputs());
+                    page = endPage + 1;
+                }
+            } else if ((Boolean) SEPARATE_PARSER.getValue()) {
+                // one task per page, the scheduler balances them across workers
+                for (int page = chapter.getFirst(); page <= chapter.getLast(); page++) {
+                    final File pageFile = new File(chapterDirectory, (page - chapter.getFirst()) + ".html");
+                    if (isShared(linker, owners, String.valueOf(page), pageFile)) {
+                        linkShared(linker, owners.get(String.valueOf(page)), plannedOutputs, chapterIndex, page, page,
+                                pageFile);
+                        sharedPages++;
+                        continue;
+                    }
+                    if (isDone(journal, cache, page, page, CACHE_PAGE, pageFile)) {
+                        continue;
+                    }
+                    plannedOutputs.add(pageFile);
+                    tasks.add(prioritize(withOutput(cache, buildRenderTask(chapterIndex,
+                            page,
+                            page,
+                            pageFile.getName(),
+                            pdf2HtmlExLibPath,
+                            pdfFilePath,
+                            currentDirectory), CACHE_PAGE, pageFile), chapter));
                 }
             } else {
-                writeRenderPage(chapterIndex, chapter.getFirst(), chapter.getLast(), pdf2HtmlExLibPath, args[1],
-                        currentDirectory, 1);
+                final File chapterFile = new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX),
+                        chapterIndex + ".html");
+                final String range = chapter.getFirst() + "-" + chapter.getLast();
+                if (isShared(linker, owners, range, chapterFile)) {
+                    linkShared(linker, owners.get(range), plannedOutputs, chapterIndex, chapter.getFirst(),
+                            chapter.getLast(), chapterFile);
+                    sharedPages += chapter.getLast() - chapter.getFirst() + 1;
+                    continue;
+                }
+                if (isDone(journal, cache, chapter.getFirst(), chapter.getLast(), CACHE_CHAPTER, chapterFile)) {
+                    continue;
+                }
+                plannedOutputs.add(chapterFile);
+                if (isSplitChapter(chapter, chunkCost, costModel)) {
+                    // page ranges rendered in parallel, the part which completes the chapter stitches it
+                    final ChapterStitcher stitcher = new ChapterStitcher(chapter.getFirst(), chapter.getLast(),
+                            chapterFile);
+                    int page = chapter.getFirst();
+                    while (page <= chapter.getLast()) {
+                        int endPage = page;
+                        double cost = getPageCost(costModel, page);
+                        while (endPage < chapter.getLast() && endPage - page + 1 < pageLimit
+                                && (cost += getPageCost(costModel, endPage + 1)) <= chunkCost) {
+                            endPage++;
+                        }
+                        tasks.add(buildChapterPartTask(chapterIndex, chapter, page, endPage, pdf2HtmlExLibPath,
+                                pdfFilePath, currentDirectory, cache, stitcher));
+                        page = endPage + 1;
+                    }
+                    continue;
+                }
+                tasks.add(withOutput(cache, buildRenderTask(chapterIndex, chapter.getFirst(), chapter.getLast(),
+                        chapterFile.getName(), pdf2HtmlExLibPath, pdfFilePath, currentDirectory), CACHE_CHAPTER,
+                        chapterFile));
             }
 
         }
-        runMultiTasks(currentDirectory, chapters);
-        deleteAllFiles(currentDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY);
+        if (sharedPages > 0) {
+            System.out.println(sharedPages + " pages of chapters repeating earlier ones are linked instead of rendered "
+                    + "again");
+            if ((Boolean) SEPARATE_PARSER.getValue()) {
+                prioritizeLinkedOpeners(tasks, chapters, linker);
+            }
+        }
+        return tasks;
     }
 
-    private static void writeRenderPage(final int chapterIndex,
-                                        final int startPage,
-                                        final int endPage,
-                                        final String pdf2HtmlExLibPath,
-                                        final String pdfFilePath,
-                                        final String currentDirectory,
-                                        final int part) {
-        try {
-            final File filebat = new File(currentDirectory +
-                    FOLDER_SPLITTER +
-                    BATCHES_OUTPUT_DIRECTORY +
-                    FOLDER_SPLITTER + "generateHtml" +
-                    // TODO fix this. Change pattern if you have internet
-                    (chapterIndex == COVER_PAGE ? 0 : chapterIndex) +
-                    "-" +
-                    part +
-                    "" +
-                    BATCH_FILE_EXTENSION);
-            filebat.getParentFile().mkdirs();
-            filebat.createNewFile();
-            BufferedWriter writer = new BufferedWriter(new FileWriter(filebat));
-            String zoomInString = String.valueOf((Float) ZOOM_PARSER.getValue());
-            if (chapterIndex == COVER_PAGE) {
-                writePage(writer, 1, 1, "cover.html", pdf2HtmlExLibPath, zoomInString,
-                        currentDirectory, pdfFilePath, chapterIndex);
-            } else {
-                if ((Boolean) SEPARATE_PARSER.getValue()) {
-                    int htmlPageIndex = (part - 1) * MAX_PAGE_PER_BATCH;
-                    for (int index = 0; index + startPage <= endPage; index++) {
-                        writePage(writer, index + startPage, index + startPage, (index + htmlPageIndex) + ".html",
-                                pdf2HtmlExLibPath,
-                                zoomInString,
-                                currentDirectory, pdfFilePath, chapterIndex);
-                        if ((index + startPage) != endPage) {
-                            writer.append(COMMAND_DELIM);
-                        }
+    /**
+     * Makes a task an opener when an opener page of a later chapter is linked to its output, so those openers are not
+     * left to the rest of the book and the preview waits for them.
+     */
+    private static void prioritizeLinkedOpeners(final List<RenderTask> tasks, final List<Chapter> chapters,
+                                                final SharedPageLinker linker) {
+        for (RenderTask task : tasks) {
+            if (task.getPriority() != RenderTask.Priority.REST) {
+                continue;
+            }
+            for (File output : task.getOutputs()) {
+                for (SharedPageLinker.Alias alias : linker.getAliases(output)) {
+                    if (alias.getFirstPage() - chapters.get(alias.getChapterIndex()).getFirst() < getOpenerPages()) {
+                        task.setPriority(RenderTask.Priority.OPENER);
                     }
-                } else {
-                    writePage(writer, startPage, endPage, chapterIndex + ".html", pdf2HtmlExLibPath, zoomInString,
-                            currentDirectory, pdfFilePath, NULL_CHAPTER_INDEX);
                 }
             }
+        }
+    }
 
+    /**
+     * Whether an earlier chapter already covers the pages of the target, the first chapter asking owns them.
+     */
+    private static boolean isShared(final SharedPageLinker linker, final Map<String, File> owners, final String pages,
+                                    final File target) {
+        if (linker == null) {
+            return false;
+        }
+        final File owner = owners.get(pages);
+        if (owner == null) {
+            owners.put(pages, target);
+            return false;
+        }
+        return !owner.equals(target);
+    }
 
-            writer.flush();
+    /**
+     * Links the target to the output of the chapter owning its pages: right away when that output is already there,
+     * otherwise once the task rendering it has finished.
+     */
+    private static void linkShared(final SharedPageLinker linker, final File owner, final Set<File> plannedOutputs,
+                                   final int chapterIndex, final int firstPage, final int lastPage,
+                                   final File target) {
+        if (plannedOutputs.contains(owner)) {
+            linker.add(owner, chapterIndex, firstPage, lastPage, target);
+            return;
+        }
+        try {
+            SharedPageLinker.link(owner, target);
         } catch (IOException e) {
-            System.out.println("Has error with chapter=" + chapterIndex);
-        }
-    }
-
-    private static void writePage(final BufferedWriter writer, final int firstPage, final int lastPage, final String
-            outputFileName, final String pdf2HtmlExLibPath, final String zoomInString, final String currentDir,
-                                  final String pdfFilePath, final int chapterIndex) throws
-            IOException {
-        writer.append(pdf2HtmlExLibPath);
-        writer.append(" -f ");
-        writer.append(firstPage + " ");
-        writer.append(" -l ");
-        writer.append(lastPage + " ");
-        writer.append("--zoom " + zoomInString);
-        writer.append(" --process-outline 0 ");
-        writer.append(" --dest-dir ");
-        writer.append(" " + currentDir + FOLDER_SPLITTER + OUTPUT_FOLDER);
+            System.out.println("Can not link " + target + " to " + owner + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Pages at the start of every chapter which are rendered before the rest, 0 when only the cover is.
+     */
+    private static int getOpenerPages() {
+        return PRIORITY_OPENERS.equals(PRIORITY_PARSER.getValue()) ? (Integer) OPENER_PAGES_PARSER.getValue() : 0;
+    }
+
+    /**
+     * Makes a task which starts within the opener pages of its chapter an opener. Whole chapter files are not
+     * prioritized, the reader gets nothing of them before they are complete anyway.
+     */
+    private static RenderTask prioritize(final RenderTask task, final Chapter chapter) {
+        if (task.getStartPage() - chapter.getFirst() < getOpenerPages()) {
+            task.setPriority(RenderTask.Priority.OPENER);
+        }
+        return task;
+    }
+
+    private static String getRendererOptions() {
+        return "zoom=" + ZOOM_PARSER.getValue() + "|process-outline=0|shared-assets="
+                + SHARED_ASSETS_PARSER.getValue() + "|minify=" + MINIFY_PARSER.getValue();
+    }
+
+    /**
+     * Null when --pack is none or the pages are not files of their own, the chapter files of -s false are not packed.
+     */
+    private static PageArchiveWriter createPackWriter(final String currentDirectory) {
+        if (PACK_NONE.equals(PACK_PARSER.getValue())) {
+            return null;
+        }
+        if (!(Boolean) SEPARATE_PARSER.getValue()) {
+            System.out.println("Warning: --pack only packs the page files of -s true, the chapter files are kept");
+            return null;
+        }
+        return new PageArchiveWriter(new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX)),
+                PACK_CHAPTER.equals(PACK_PARSER.getValue()));
+    }
+
+    /**
+     * Null when --precompress is none. Compression runs next to the renders, so it only gets half of the cores.
+     */
+    private static Precompressor createPrecompressor() {
+        final String formats = (String) PRECOMPRESS_PARSER.getValue();
+        if ("none".equals(formats)) {
+            return null;
+        }
+        String brotliPath = null;
+        if (formats.contains("br")) {
+            brotliPath = Precompressor.findBrotli();
+            if (brotliPath == null) {
+                System.out.println("Warning: brotli is not on the PATH, only writing .gz files");
+            }
+        }
+        return new Precompressor(Math.max(1, Runtime.getRuntime().availableProcessors() / 2), brotliPath);
+    }
+
+    private static RenderCache createCache(final String pdfHash) {
+        final String cacheDirectory = (String) CACHE_DIR_PARSER.getValue();
+        if (cacheDirectory == null || cacheDirectory.isEmpty()) {
+            return null;
+        }
+        final RenderCache cache = new RenderCache(new File(getFilePathIfRelative(cacheDirectory)),
+                (Integer) CACHE_SIZE_PARSER.getValue() * 1024L * 1024L,
+                pdfHash,
+                getRendererOptions());
+        if ((Boolean) SHARED_ASSETS_PARSER.getValue()) {
+            cache.setAssetsDirectory(getAssetsDirectory(currentDirectory));
+        }
+        return cache;
+    }
+
+    /**
+     * Whether the output is already there: completed by an interrupted run which is being resumed, or restored from
+     * the cache.
+     */
+    private static boolean isDone(final JobJournal journal, final RenderCache cache, final int first, final int last,
+                                  final String variant, final File target) {
+        if (journal != null && journal.isCompleted(target)) {
+            return true;
+        }
+        return cache != null && cache.restore(cache.key(first, last, variant), target);
+    }
+
+    private static RenderTask withOutput(final RenderCache cache, final RenderTask task, final String variant,
+                                         final File output) {
+        task.addOutput(output);
+        if ((Boolean) MINIFY_PARSER.getValue()) {
+            task.addOutputMapper(HTML_MINIFIER);
+        }
+        if (cache != null) {
+            task.addOutputMapper(cache.storer(Collections.singletonMap(
+                    cache.key(task.getStartPage(), task.getEndPage(), variant), output)));
+        }
+        return task;
+    }
+
+    private static RenderTask buildRenderTask(final int chapterIndex,
+                                              final int startPage,
+                                              final int endPage,
+                                              final String outputFileName,
+                                              final String pdf2HtmlExLibPath,
+                                              final String pdfFilePath,
+                                              final String currentDirectory) {
+        final RenderTask task = new RenderTask("generateHtml" +
+                (chapterIndex == COVER_PAGE ? 0 : chapterIndex) +
+                "-" +
+                (chapterIndex == COVER_PAGE ? 0 : startPage),
+                chapterIndex,
+                startPage,
+                endPage);
+        applyLimits(task);
+        applyWorkQueue(task);
+        final boolean separate = (Boolean) SEPARATE_PARSER.getValue();
+        final File outputDirectory = new File(getOutputDirectory(currentDirectory,
+                separate ? chapterIndex : NULL_CHAPTER_INDEX));
+        if ((Boolean) SHARED_ASSETS_PARSER.getValue()) {
+            // render next to nothing else, pdf2htmlEX names fonts and images per process
+            final File stageDirectory = getStageDirectory(currentDirectory, task);
+            task.addCommand(buildPageCommand(startPage, endPage, outputFileName, pdf2HtmlExLibPath,
+                    stageDirectory.getAbsolutePath(), pdfFilePath, null));
+            task.addOutputMapper(createAssetDeduplicator(currentDirectory, stageDirectory, outputDirectory));
+            task.addOutputMapper(moveFromStage(stageDirectory, outputFileName, outputDirectory));
+        } else {
+            task.addCommand(buildPageCommand(startPage, endPage, outputFileName, pdf2HtmlExLibPath,
+                    outputDirectory.getAbsolutePath(), pdfFilePath, null));
+        }
+        return task;
+    }
+
+    private static File getStageDirectory(final String currentDirectory, final RenderTask task) {
+        return new File(currentDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY + FOLDER_SPLITTER
+                + task.getName());
+    }
+
+    private static File getAssetsDirectory(final String currentDirectory) {
+        return new File(currentDirectory + FOLDER_SPLITTER + OUTPUT_FOLDER + FOLDER_SPLITTER
+                + AssetDeduplicator.ASSETS_FOLDER);
+    }
+
+    private static AssetDeduplicator createAssetDeduplicator(final String currentDirectory,
+                                                             final File stageDirectory,
+                                                             final File outputDirectory) {
+        final File assetsDirectory = getAssetsDirectory(currentDirectory);
+        final String assetsPrefix = outputDirectory.getAbsoluteFile().toPath()
+                .relativize(assetsDirectory.getAbsoluteFile().toPath()).toString().replace(File.separatorChar, '/')
+                + "/";
+        return new AssetDeduplicator(stageDirectory, assetsDirectory, assetsPrefix);
+    }
+
+    private static OutputMapper moveFromStage(final File stageDirectory, final String fileName,
+                                              final File outputDirectory) {
+        return new OutputMapper() {
+            @Override
+            public void map(RenderTask task) throws IOException {
+                outputDirectory.mkdirs();
+                Files.move(new File(stageDirectory, fileName).toPath(), new File(outputDirectory, fileName).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING);
+                stageDirectory.delete();
+            }
+        };
+    }
+
+    /**
+     * @param pageFileName template of the page files for --split-pages, null for a single file
+     */
+    private static RenderCommand buildPageCommand(final int firstPage, final int lastPage, final String
+            outputFileName, final String pdf2HtmlExLibPath, final String destDirectory, final String pdfFilePath,
+                                                  final String pageFileName) {
+        return new RenderCommand(pdf2HtmlExLibPath, firstPage, lastPage, (Float) ZOOM_PARSER.getValue(),
+                (Boolean) SHARED_ASSETS_PARSER.getValue(), destDirectory, new File(pdfFilePath).getAbsolutePath(),
+                outputFileName, pageFileName, getMemoryLimitBytes());
+    }
+
+    private static String getOutputDirectory(final String currentDir, final int chapterIndex) {
         if (chapterIndex != NULL_CHAPTER_INDEX) {
-            writer.append(FOLDER_SPLITTER + chapterIndex + " ");
+            return currentDir + FOLDER_SPLITTER + OUTPUT_FOLDER + FOLDER_SPLITTER + chapterIndex;
+        }
+        return currentDir + FOLDER_SPLITTER + OUTPUT_FOLDER;
+    }
+
+    /**
+     * Pages per --split-pages invocation: enough chunks to keep every worker busy, but large enough that the PDF is
+     * not re-parsed for every single page.
+     */
+    private static int getChunkSize(final List<Chapter> chapters) {
+        int totalPage = 0;
+        for (Chapter chapter : chapters) {
+            totalPage += chapter.getLast() - chapter.getFirst() + 1;
         }
-        writer.append(" " + pdfFilePath);
-        writer.append(" " + outputFileName + " ");
+        final int chunks = (Integer) THREAD_PARSER.getValue() * CHUNKS_PER_WORKER;
+        final int chunkSize = (totalPage + chunks - 1) / chunks;
+        return Math.max(1, Math.min(MAX_CHUNK_SIZE, chunkSize));
     }
 
-    private static void runThreadWriteOverviewFile(final String currentDirectory, final List<Chapter> chapters) {
-        new Thread(new Runnable() {
+    /**
+     * Predicted cost of a chunk: the share of the book's cost the chunk size stands for, so chunks of expensive pages
+     * get fewer of them. With every page costing 1 this is the chunk size.
+     */
+    private static double getChunkCost(final List<Chapter> chapters, final int chunkSize,
+                                       final PageCostModel costModel) {
+        int totalPage = 0;
+        double totalCost = 0;
+        double maxCost = 0;
+        for (Chapter chapter : chapters) {
+            for (int page = chapter.getFirst(); page <= chapter.getLast(); page++) {
+                final double cost = getPageCost(costModel, page);
+                totalPage++;
+                totalCost += cost;
+                maxCost = Math.max(maxCost, cost);
+            }
+        }
+        return totalPage == 0 ? chunkSize : Math.max(maxCost, totalCost * chunkSize / totalPage);
+    }
+
+    private static double getPageCost(final PageCostModel costModel, final int page) {
+        return costModel == null ? 1 : costModel.pageCost(page);
+    }
+
+    /**
+     * History of render costs per page, null when the folder can not be created.
+     */
+    private static PageCostModel createCostModel(final String pdfHash, final String pdfFilePath) {
+        final String costDirectory = (String) COST_MODEL_PARSER.getValue();
+        final File directory = new File(costDirectory == null || costDirectory.isEmpty()
+                ? currentDirectory + FOLDER_SPLITTER + COST_MODEL_FOLDER : costDirectory);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("Can not create the cost model folder " + directory + ", planning by page count");
+            return null;
+        }
+        final PageCostModel costModel = PageCostModel.load(directory, pdfHash, new File(pdfFilePath));
+        System.out.println("Planning by " + (costModel.hasHistory() ? "measured page costs"
+                : costModel.hasStaticEstimate() ? "page content sizes" : "page count"));
+        return costModel;
+    }
+
+    private static void writeCostModel(final String currentDirectory, final PageCostModel costModel) {
+        if (costModel == null) {
+            return;
+        }
+        try {
+            costModel.save();
+            costModel.writeReport(new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX),
+                    COST_REPORT_FILE_NAME));
+        } catch (IOException e) {
+            System.out.println("Can not write the cost model: " + e.getMessage());
+        }
+    }
+
+    private static RenderTask buildChunkTask(final int chapterIndex,
+                                             final Chapter chapter,
+                                             final int startPage,
+                                             final int endPage,
+                                             final String pdf2HtmlExLibPath,
+                                             final String pdfFilePath,
+                                             final String currentDirectory,
+                                             final RenderCache cache) {
+        final RenderTask task = new RenderTask("generateHtml" + chapterIndex + "-" + startPage + "-" + endPage,
+                chapterIndex,
+                startPage,
+                endPage);
+        applyLimits(task);
+        applyWorkQueue(task);
+        final File stageDirectory = getStageDirectory(currentDirectory, task);
+        final File outputDirectory = new File(getOutputDirectory(currentDirectory, chapterIndex));
+        task.addCommand(buildPageCommand(startPage, endPage, CHUNK_FILE_NAME, pdf2HtmlExLibPath,
+                stageDirectory.getAbsolutePath(), pdfFilePath, CHUNK_PAGE_TEMPLATE));
+        if ((Boolean) SHARED_ASSETS_PARSER.getValue()) {
+            task.addOutputMapper(createAssetDeduplicator(currentDirectory, stageDirectory, outputDirectory));
+        }
+        task.addOutputMapper(new SplitPagesMapper(stageDirectory, CHUNK_FILE_NAME, CHUNK_PAGE_TEMPLATE,
+                outputDirectory, chapter.getFirst()));
+        if ((Boolean) MINIFY_PARSER.getValue()) {
+            task.addOutputMapper(HTML_MINIFIER);
+        }
+        final Map<String, File> outputs = new HashMap<>();
+        for (int page = startPage; page <= endPage; page++) {
+            final File pageFile = new File(outputDirectory, (page - chapter.getFirst()) + ".html");
+            task.addOutput(pageFile);
+            if (cache != null) {
+                outputs.put(cache.key(page, page, CACHE_CHUNK_PAGE), pageFile);
+            }
+        }
+        if (cache != null) {
+            task.addOutputMapper(cache.storer(outputs));
+        }
+        prioritize(task, chapter);
+        // a failing chunk is bisected, so one broken page does not take its neighbours down
+        task.setSplitter(new TaskSplitter() {
             @Override
-            public void run() {
-                try {
-                    File fileJSON = new File(currentDirectory
-                            + FOLDER_SPLITTER
-                            + OUTPUT_FOLDER
-                            + FOLDER_SPLITTER +
-                            "output.json");
-                    fileJSON.getParentFile().mkdirs();
-                    fileJSON.createNewFile();
-                    BufferedWriter bufferedWriter = new BufferedWriter((new FileWriter(fileJSON)));
-                    bufferedWriter.append("export var data = ");
-                    bufferedWriter.append("{ \"chapters\": ");
-                    bufferedWriter.append("\t[ \n");
-                    Iterator<Chapter> iterator = chapters.iterator();
-                    int num = 0;
-                    int numberOfPages;
-
-                    while (iterator.hasNext()) {
-                        Chapter chapter = iterator.next();
-                        numberOfPages = (chapter.getLast() - chapter.getFirst() + 1);
-                        bufferedWriter.append("\t\t{\n");
-                        bufferedWriter.append("\t\t\t\"title\": \"" + chapter.getName() + "\",\n");
-                        bufferedWriter.append("\t\t\t\"path\": \"/data/" + num + "\",\n");
-                        bufferedWriter.append("\t\t\t\"numberOfPage\": " + numberOfPages + "\n");
-                        bufferedWriter.append("\t\t}\n");
-                        if (iterator.hasNext()) {
-                            bufferedWriter.append(",\n");
-                        }
-                        num++;
+            public RenderTask split(RenderTask parent, int first, int last) {
+                return buildChunkTask(chapterIndex, chapter, first, last, pdf2HtmlExLibPath, pdfFilePath,
+                        currentDirectory, cache);
+            }
+        });
+        return task;
+    }
+
+    /**
+     * Whether a chapter of a single file book is rendered in parts. Not with shared assets, the parts would link
+     * stylesheets of their own which can not be scoped.
+     */
+    private static boolean isSplitChapter(final Chapter chapter, final double chunkCost,
+                                          final PageCostModel costModel) {
+        if (!(Boolean) SPLIT_CHAPTERS_PARSER.getValue() || (Boolean) SHARED_ASSETS_PARSER.getValue()) {
+            return false;
+        }
+        double cost = 0;
+        for (int page = chapter.getFirst(); page <= chapter.getLast(); page++) {
+            cost += getPageCost(costModel, page);
+        }
+        return chapter.getLast() > chapter.getFirst() && cost > chunkCost;
+    }
+
+    private static RenderTask buildChapterPartTask(final int chapterIndex,
+                                                   final Chapter chapter,
+                                                   final int startPage,
+                                                   final int endPage,
+                                                   final String pdf2HtmlExLibPath,
+                                                   final String pdfFilePath,
+                                                   final String currentDirectory,
+                                                   final RenderCache cache,
+                                                   final ChapterStitcher stitcher) {
+        final RenderTask task = new RenderTask("generateHtml" + chapterIndex + "-part-" + startPage + "-" + endPage,
+                chapterIndex,
+                startPage,
+                endPage);
+        applyLimits(task);
+        applyWorkQueue(task);
+        final File stageDirectory = getStageDirectory(currentDirectory, task);
+        final String partFileName = chapterIndex + ".html";
+        task.addCommand(buildPageCommand(startPage, endPage, partFileName, pdf2HtmlExLibPath,
+                stageDirectory.getAbsolutePath(), pdfFilePath, null));
+        task.addOutputMapper(stitcher.partMapper(startPage, endPage, new File(stageDirectory, partFileName)));
+        // only the part which stitched the chapter has it as output, the mappers after the stitcher skip the others
+        if ((Boolean) MINIFY_PARSER.getValue()) {
+            task.addOutputMapper(HTML_MINIFIER);
+        }
+        if (cache != null) {
+            final File chapterFile = new File(getOutputDirectory(currentDirectory, NULL_CHAPTER_INDEX),
+                    chapterIndex + ".html");
+            final OutputMapper storer = cache.storer(Collections.singletonMap(
+                    cache.key(chapter.getFirst(), chapter.getLast(), CACHE_CHAPTER), chapterFile));
+            task.addOutputMapper(new OutputMapper() {
+                @Override
+                public void map(RenderTask task) throws IOException {
+                    // the chapter file on disk is an older one until the stitching part reports it
+                    if (task.getOutputs().contains(chapterFile)) {
+                        storer.map(task);
                     }
-                    bufferedWriter.append("\t]\n");
-                    bufferedWriter.append("}");
-                    bufferedWriter.flush();
-                    bufferedWriter.close();
-                    System.out.println("finish writing output.txt");
-                } catch (Exception ex) {
-                    ex.printStackTrace();
                 }
+            });
+        }
+        task.setSplitter(new TaskSplitter() {
+            @Override
+            public RenderTask split(RenderTask parent, int first, int last) {
+                return buildChapterPartTask(chapterIndex, chapter, first, last, pdf2HtmlExLibPath, pdfFilePath,
+                        currentDirectory, cache, stitcher);
             }
-        }).start();
+        });
+        return task;
     }
 
-    private static void runMultiTasks(final String currentDirectory,
-                                      final List<Chapter> chapters) {
+    /**
+     * Time limits of a task grow with the number of pages it renders.
+     */
+    private static void applyLimits(final RenderTask task) {
+        task.setTimeouts((Integer) PAGE_TIMEOUT_PARSER.getValue() * 1000L * task.getPageCount(),
+                (Integer) CPU_TIMEOUT_PARSER.getValue() * 1000L * task.getPageCount());
+        task.setMemoryLimit(getMemoryLimitBytes());
+    }
 
-        if (chapters != null && chapters.size() > 0) {
-            List<Future> futures = new ArrayList<>();
-            ExecutorService pool = Executors.newFixedThreadPool((Integer) THREAD_PARSER.getValue());
-            final String directory = currentDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY;
-            File batchesFolder = new File(directory);
-            if (batchesFolder.exists() && batchesFolder.isDirectory()) {
-                if (batchesFolder.listFiles() != null) {
-                    List<NewThread> threads = new ArrayList<>();
-                    for (File file : batchesFolder.listFiles()) {
-                        if (file.isFile() && BATCH_PATTERN.matcher(file.getName()).matches()) {
-                            threads.add(new NewThread(file.getName(), directory));
-                        }
-                    }
+    private static void applyWorkQueue(final RenderTask task) {
+        if (workQueue != null) {
+            task.setWorkQueue(workQueue);
+        }
+    }
 
-                    try {
-                        pool.invokeAll(threads);
-                    } catch (InterruptedException ex) {
-                        System.out.println("Serious Error");
-                    }
-                }
+    private static long getMemoryLimitBytes() {
+        return (Integer) MEMORY_LIMIT_PARSER.getValue() * 1024L * 1024L;
+    }
 
+    private static void exportScripts(final String currentDirectory, final List<RenderTask> tasks) {
+        final File directory = new File(currentDirectory + FOLDER_SPLITTER + BATCHES_OUTPUT_DIRECTORY);
+        for (RenderTask task : tasks) {
+            try {
+                task.exportScript(directory, BATCH_FILE_EXTENSION, COMMAND_DELIM);
+            } catch (IOException e) {
+                System.out.println("Has error with chapter=" + task.getChapterIndex());
             }
+        }
+    }
 
-            pool.shutdown();
+    private static void writeMetrics(final String currentDirectory, final RenderMetrics metrics) {
+        final String directory = currentDirectory + FOLDER_SPLITTER + OUTPUT_FOLDER + FOLDER_SPLITTER;
+        try {
+            new File(directory).mkdirs();
+            metrics.writePrometheus(new File(directory + METRICS_FILE_NAME));
+            metrics.writeJson(new File(directory + RUN_REPORT_FILE_NAME));
+        } catch (IOException e) {
+            System.out.println("Can not write the run metrics: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Controller of the renders, the same in every mode: between --min-threads and -t with --adaptive true, otherwise
+     * a fixed -t which the jobs sharing it still divide fairly.
+     */
+    private static ConcurrencyController createConcurrencyController() {
+        final int maxThread = (Integer) THREAD_PARSER.getValue();
+        return new ConcurrencyController((Boolean) ADAPTIVE_PARSER.getValue()
+                ? Math.min((Integer) MIN_THREAD_PARSER.getValue(), maxThread) : maxThread, maxThread);
+    }
+
+    /**
+     * Optional observers are null when their feature is off.
+     */
+    private static void addObserver(final List<TaskObserver> observers, final TaskObserver observer) {
+        if (observer != null) {
+            observers.add(observer);
+        }
+    }
+
+    /**
+     * @param metrics       samples the scheduler while the tasks run
+     * @param job           holds the scheduler while the tasks run, so it can be cancelled
+     * @param costEstimator orders the tasks, null to count pages
+     * @param observers     told about every task in list order
+     */
+    private static List<RenderTask> runMultiTasks(final List<RenderTask> tasks, final RenderMetrics metrics,
+                                                  final RenderJob job,
+                                                  final ConcurrencyController sharedController,
+                                                  final CostEstimator costEstimator,
+                                                  final List<TaskObserver> observers) {
+
+        if (tasks != null && tasks.size() > 0) {
+            final int maxThread = (Integer) THREAD_PARSER.getValue();
+            // renders on worker nodes do not use the memory of this machine, -t is what the workers take together
+            final boolean adaptive = sharedController != null
+                    || (Boolean) ADAPTIVE_PARSER.getValue() && workQueue == null;
+            // with the controller bounding the renders, twice the workers keep post-processing off the render slots
+            final WorkStealingScheduler scheduler = new WorkStealingScheduler(adaptive ? maxThread * 2 : maxThread,
+                    costEstimator != null ? costEstimator : new PageCountCostEstimator());
+            scheduler.setRetryPolicy((Integer) RETRIES_PARSER.getValue(), RETRY_BACKOFF_MILLIS);
+            for (TaskObserver observer : observers) {
+                scheduler.addObserver(observer);
+            }
+            ConcurrencyController concurrencyController = null;
+            ConcurrencyController.Share share = null;
+            if (sharedController != null) {
+                share = sharedController.newShare(job.getPriority());
+                scheduler.setConcurrencyController(sharedController, share);
+                scheduler.addObserver(sharedController);
+            } else if (adaptive) {
+                // -t is the upper bound, the controller decides how many of the workers render at once
+                concurrencyController = createConcurrencyController();
+                scheduler.setConcurrencyController(concurrencyController, concurrencyController.newShare(0));
+                scheduler.addObserver(concurrencyController);
+                System.out.println("Starting with " + concurrencyController.getLimit() + " concurrent renders on "
+                        + (Threads.isVirtual() ? "virtual" : "platform") + " threads");
+                concurrencyController.start();
+            }
+            metrics.startSampling(scheduler);
+            job.setScheduler(scheduler);
+            try {
+                scheduler.run(tasks);
+            } catch (InterruptedException ex) {
+                System.out.println("Serious Error");
+            } finally {
+                job.setScheduler(null);
+                if (share != null) {
+                    sharedController.removeShare(share);
+                }
+            }
+            if (concurrencyController != null) {
+                concurrencyController.stop();
+                concurrencyController.printSummary();
+            }
+            scheduler.printUtilizationReport();
             System.out.println("Finished");
+            return scheduler.getQuarantined();
         }
+        return Collections.emptyList();
     }
 
-    private static List<Chapter> readAllChapter(String link) {
+    /**
+     * Reads the chapter file: a line with the name of every chapter, followed by a line with its first and last page.
+     * Throws IllegalArgumentException naming the line of a malformed or inverted range.
+     */
+    static List<Chapter> readAllChapter(String link) {
         List<Chapter> chapters = new ArrayList<>();
         try {
             FileReader fileReader = new FileReader(link);
             BufferedReader bufferedReader = new BufferedReader(fileReader);
             String line;
+            int lineNumber = 0;
             while ((line = bufferedReader.readLine()) != null && !line.isEmpty()) {
+                lineNumber += 2;
                 Chapter chapter = new Chapter();
                 chapter.setName(line);
                 final String firstLastString = bufferedReader.readLine();
-                if(firstLastString == null || firstLastString.isEmpty()) {
-                    continue;
+                if (firstLastString == null || firstLastString.trim().isEmpty()) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + link + ": chapter " + line
+                            + " has no page range");
                 }
-                String[] firstlast = firstLastString.split(" ");
-                chapter.setFirst(Integer.valueOf(firstlast[0]));
-                if (firstlast.length < 2) {
-                    chapter.setLast(Integer.valueOf(firstlast[0]));
-                } else {
-                    chapter.setLast(Integer.valueOf(firstlast[1]));
+                String[] firstlast = firstLastString.trim().split("\\s+");
+                if (firstlast.length > 2) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + link + ": "
+                            + firstLastString + " is not a page range");
+                }
+                try {
+                    chapter.setFirst(Integer.parseInt(firstlast[0]));
+                    chapter.setLast(Integer.parseInt(firstlast[firstlast.length - 1]));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + link + ": "
+                            + firstLastString + " is not a page range");
+                }
+                if (chapter.getFirst() < 1 || chapter.getLast() < chapter.getFirst()) {
+                    throw new IllegalArgumentException("Line " + lineNumber + " of " + link + ": pages "
+                            + chapter.getFirst() + "-" + chapter.getLast() + " of chapter " + line
+                            + " are not a valid range");
                 }
                 chapters.add(chapter);
             }
@@ -445,14 +1483,81 @@ public class Main {
         System.out.println("*******************************************************************************************");
         System.out.println("To use this lib run the command :");
         System.out.println("java generatelink.jar fileTxt filePdf [ optional arguments]");
+        System.out.println("java generatelink.jar --daemon port [ optional arguments]: keep running and render the " +
+                "books submitted to http://127.0.0.1:port/jobs, all of them sharing -t renders.");
+        System.out.println("java generatelink.jar --batch folder|manifest [ optional arguments]: render every book " +
+                "of a folder (book.pdf with book.txt) or of a manifest (chapter file, pdf and optional output " +
+                "folder per line, tab separated), all of them sharing -t renders.");
+        System.out.println("java generatelink.jar --worker queueFolder [ optional arguments]: render the tasks " +
+                "coordinators put into the shared queue folder with -t threads, until queueFolder/stop exists.");
+        System.out.println("java generatelink.jar --serve port folder [ optional arguments]: serve the pages of " +
+                "the books in folder (book.pdf with book.txt) on http://127.0.0.1:port/book/chapter/page.html, " +
+                "rendering each page when it is first requested.");
         System.out.println("Usage:");
         System.out.println("fileTxt: file path of file txt which contains information of chapters of the book.");
         System.out.println("filePdf: file path of file pdf which will be converted to html");
         System.out.println("Optional arguments: ");
-        System.out.println("-t numberOfThread (optional): is number of thread to handle( Default value is 8).");
+        System.out.println("-t numberOfThread (optional): is the highest number of renders running at once( Default " +
+                "value is 8).");
         System.out.println("-z value to zoom(optional): zoom level of page( Default value is 1.0).");
         System.out.println("-s Separate each file (optional): Separate each page to a html file( Default value is 0)");
         System.out.println("-l runnning in linux");
+        System.out.println("--export-scripts true|false (optional): also write the render commands as scripts " +
+                "into batches/ for debugging( Default value is false).");
+        System.out.println("--split-pages true|false (optional): with -s, render a chunk of pages per pdf2htmlEX " +
+                "process and split it into page files( Default value is false).");
+        System.out.println("--cache-dir folder (optional): reuse pages rendered by earlier runs from this cache.");
+        System.out.println("--cache-size megabytes (optional): size bound of the cache( Default value is 1024).");
+        System.out.println("--resume true|false (optional): continue an interrupted run, only rendering pages which " +
+                "are missing or failed( Default value is false).");
+        System.out.println("--shared-assets true|false (optional): keep css, js, fonts and images out of the pages " +
+                "and store each of them once in html/assets( Default value is false).");
+        System.out.println("--page-timeout seconds (optional): wall clock limit per page, a task gets this times its " +
+                "number of pages( Default value is 300).");
+        System.out.println("--cpu-timeout seconds (optional): cpu time limit per page, 0 for none( Default value is " +
+                "0).");
+        System.out.println("--retries count (optional): attempts after a failure before a task is split or " +
+                "quarantined( Default value is 2).");
+        System.out.println("--renderer path (optional): pdf2htmlEX executable to use instead of lib/pdf2HtmlEx.exe.");
+        System.out.println("--batch-output folder (optional): with --batch, put the folder of each book here instead " +
+                "of next to its pdf.");
+        System.out.println("--queue folder (optional): hand the renders to worker nodes through this folder on a " +
+                "shared file system, the pdf and the output must be on it as well.");
+        System.out.println("--lease-time seconds (optional): a task a worker did not report on for this long is " +
+                "queued again( Default value is 30).");
+        System.out.println("--adaptive true|false (optional): adjust the number of renders between --min-threads and " +
+                "-t to the free memory and load, false always runs -t( Default value is true).");
+        System.out.println("--min-threads count (optional): lowest number of renders running at once( Default value " +
+                "is 1).");
+        System.out.println("--memory-limit megabytes (optional): kill a render which grows beyond this, also set as " +
+                "data rlimit when prlimit is installed, 0 for none( Default value is 0).");
+        System.out.println("--minify true|false (optional): drop comments and line breaks between tags from the " +
+                "pages and minify their inline css( Default value is false).");
+        System.out.println("--precompress none|gz|gz,br (optional): write .gz, and with brotli installed .br, " +
+                "files next to the pages for the web server to send as they are( Default value is none).");
+        System.out.println("--events stdout|file (optional): write page, chapter and job events as JSON lines while " +
+                "rendering, to stdout (the log moves to stderr) or to a file or named pipe.");
+        System.out.println("--priority openers|cover|none (optional): render the cover and the first pages of every " +
+                "chapter, or only the cover, before the rest and write html/preview.ready once they are there( " +
+                "Default value is openers).");
+        System.out.println("--serve-output folder (optional): with --serve, where the rendered pages are kept( " +
+                "Default value is folder/served).");
+        System.out.println("--memory-cache megabytes (optional): with --serve, rendered pages kept in memory, the " +
+                "rest spills to disk up to --cache-size( Default value is 256).");
+        System.out.println("--prefetch count (optional): with --serve, pages after a requested one which are " +
+                "rendered ahead while renders are idle( Default value is 2).");
+        System.out.println("--split-chapters true|false (optional): with -s false, render chapters longer than a " +
+                "chunk as page ranges in parallel and stitch them into the chapter file( Default value is true).");
+        System.out.println("--opener-pages count (optional): with --priority openers, pages at the start of every " +
+                "chapter rendered first( Default value is 2).");
+        System.out.println("--cost-model folder (optional): where the measured render time and size of every page " +
+                "are kept to plan chunks of equal cost, html/cost-report.json compares predicted and actual time( " +
+                "Default value is costs next to lib).");
+        System.out.println("--pack none|chapter|book (optional): with -s true, append the pages to html/chapter.pack " +
+                "or, with the cover, to html/book.pack as they finish, the page files are kept( Default value is " +
+                "none).");
+        System.out.println("--search-index true|false (optional): index the words of every page as it is rendered " +
+                "into html/search.idx for the reader's search( Default value is false).");
     }
 
     private class Arguments {
@@ -486,43 +1591,6 @@ public class Main {
     }
 }
 
-class NewThread implements Callable<Integer> {
-    private String fileName;
-    private String directory;
-
-    public NewThread(final String fileName, final String directory) {
-        this.fileName = fileName;
-        this.directory = directory;
-    }
-
-
-    private void deleteFile() {
-        String url = this.directory + File.separator + this.fileName;
-        File file = new File(url);
-        file.deleteOnExit();
-    }
-
-    @Override
-    public Integer call() throws Exception {
-        final ProcessBuilder processBuilder = new ProcessBuilder(COMMAND_RUN, COMMAND_PARAMETER,
-                fileName);
-        processBuilder.directory(new File(this.directory));
-
-        try {
-            System.out.println("start " + fileName);
-            Process process = processBuilder.start();
-            System.out.println("Finish " + fileName + process.waitFor());
-            process.destroy();
-            return 1;
-        } catch (IOException | InterruptedException ex) {
-            ex.printStackTrace();
-            return 0;
-        } finally {
-            deleteFile();
-        }
-    }
-}
-
 class Chapter {
     private String name;
     private int first;
@@ -613,11 +1681,11 @@ class IntegerParser implements Parser {
 
     public void convert(final String valueInString) {
         final Integer newValue = Integer.valueOf(valueInString);
-        if (maxValue != -1 && value > maxValue) {
+        if (maxValue != -1 && newValue > maxValue) {
             throw new IllegalArgumentException(String.format("the value %s must be less than %d", valueInString,
                     maxValue));
         }
-        if (minValue != -1 && value < minValue) {
+        if (minValue != -1 && newValue < minValue) {
             throw new IllegalArgumentException(String.format("the value %s must be grater than %d", valueInString,
                     minValue));
         }
@@ -644,3 +1712,47 @@ class BooleanParser implements Parser {
         return this.value;
     }
 }
+
+class StringParser implements Parser {
+    private String value;
+
+    public StringParser(final String value) {
+        this.value = value;
+    }
+
+    public void convert(final String valueInString) {
+        if (valueInString == null || valueInString.trim().isEmpty()) {
+            throw new IllegalArgumentException("the value must not be empty");
+        }
+        this.value = valueInString;
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+}
+
+class ChoiceParser implements Parser {
+    private final String[] choices;
+    private String value;
+
+    public ChoiceParser(final String value, final String... choices) {
+        this.value = value;
+        this.choices = choices;
+    }
+
+    public void convert(final String valueInString) {
+        for (String choice : choices) {
+            if (choice.equals(valueInString)) {
+                this.value = choice;
+                return;
+            }
+        }
+        throw new IllegalArgumentException(String.format("the value %s must be one of %s", valueInString,
+                String.join("|", choices)));
+    }
+
+    public String getValue() {
+        return this.value;
+    }
+}
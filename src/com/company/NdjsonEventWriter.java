@@ -0,0 +1,59 @@
+package com.company;
+
+import java.io.File;
+import java.io.PrintStream;
+
+/**
+ * Writes render events as one JSON object per line, for an uploader reading stdout or a named pipe. Every line is
+ * flushed on its own. A reader which goes away does not stop the rendering, the events are dropped from then on.
+ */
+class NdjsonEventWriter implements RenderListener {
+    private final PrintStream output;
+
+    public NdjsonEventWriter(final PrintStream output) {
+        this.output = output;
+    }
+
+    @Override
+    public void pageRendered(final RenderJob job, final int chapterIndex, final int firstPage, final int lastPage,
+                             final File file, final String sha256) {
+        write("{\"event\": \"page\", \"time\": " + System.currentTimeMillis()
+                + ", \"job\": " + Json.quote(job.getId())
+                + ", \"chapter\": " + chapterIndex
+                + ", \"firstPage\": " + firstPage
+                + ", \"lastPage\": " + lastPage
+                + ", \"path\": " + Json.quote(file.getAbsolutePath())
+                + ", \"bytes\": " + file.length()
+                + ", \"sha256\": " + Json.quote(sha256) + "}");
+    }
+
+    @Override
+    public void chapterCompleted(final RenderJob job, final int chapterIndex, final String name, final File path,
+                                 final int missingPages) {
+        write("{\"event\": \"chapter\", \"time\": " + System.currentTimeMillis()
+                + ", \"job\": " + Json.quote(job.getId())
+                + ", \"chapter\": " + chapterIndex
+                + ", \"name\": " + Json.quote(name)
+                + ", \"path\": " + Json.quote(path == null ? null : path.getAbsolutePath())
+                + ", \"status\": " + Json.quote(missingPages == 0 ? "complete" : "incomplete")
+                + ", \"missingPages\": " + missingPages + "}");
+    }
+
+    @Override
+    public void previewReady(final RenderJob job, final File marker) {
+        write("{\"event\": \"preview\", \"time\": " + System.currentTimeMillis()
+                + ", \"job\": " + Json.quote(job.getId())
+                + ", \"path\": " + Json.quote(marker.getAbsolutePath()) + "}");
+    }
+
+    @Override
+    public void jobFinished(final RenderJob job) {
+        write("{\"event\": \"job\", \"time\": " + System.currentTimeMillis()
+                + ", \"job\": " + job.toJson() + "}");
+    }
+
+    private synchronized void write(final String line) {
+        output.println(line);
+        output.flush();
+    }
+}
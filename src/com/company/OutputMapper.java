@@ -0,0 +1,10 @@
+package com.company;
+
+import java.io.IOException;
+
+/**
+ * Moves what a finished render task produced into the layout expected by the readers of html/.
+ */
+interface OutputMapper {
+    public void map(final RenderTask task) throws IOException;
+}
@@ -0,0 +1,339 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Writes output.json, the overview the reader app loads, from what was actually rendered: every page with its size,
+ * checksum, dimensions and status. Written once the tasks are planned, again whenever a chapter completes and at the
+ * end of the job, each time replacing the file at once so the app never reads half of it.
+ */
+class OverviewWriter implements TaskObserver {
+    static final String FILE_NAME = "output.json";
+    private static final String PATH_PREFIX = "/data/";
+    private static final Pattern PAGE_DIV = Pattern.compile(
+            "<div[^>]*\\sclass=\"pf ([^\"]*)\"[^>]*data-page-no=\"([0-9a-fA-F]+)\"");
+    private static final Pattern SIZE_RULE = Pattern.compile("([^{}]+)\\{(width|height):([0-9.]+)px;?\\}");
+
+    enum Status {
+        PENDING,
+        RENDERED,
+        REUSED,
+        FAILED;
+
+        String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final File htmlDirectory;
+    private final List<Chapter> chapters;
+    private final boolean separate;
+    private final Map<File, Entry> entries = new HashMap<>();
+    private final List<List<Entry>> chapterEntries = new ArrayList<>();
+    private final Entry cover;
+    private SharedPageLinker linker;
+    private String pack;
+
+    /**
+     * A rendered file: a page with -s true, a whole chapter otherwise.
+     */
+    private static final class Entry {
+        private final int chapterIndex;
+        private final int firstPage;
+        private final int lastPage;
+        private final File file;
+        private final String path;
+        private Status status = Status.PENDING;
+        private long bytes = -1;
+        private String sha256;
+        private Map<Integer, float[]> sizes = new HashMap<>();
+
+        private Entry(final int chapterIndex, final int firstPage, final int lastPage, final File file,
+                      final String path) {
+            this.chapterIndex = chapterIndex;
+            this.firstPage = firstPage;
+            this.lastPage = lastPage;
+            this.file = file;
+            this.path = path;
+        }
+    }
+
+    /**
+     * @param separate whether pages are separate files, as with -s true
+     */
+    public OverviewWriter(final File htmlDirectory, final List<Chapter> chapters, final boolean separate) {
+        this.htmlDirectory = htmlDirectory;
+        this.chapters = chapters;
+        this.separate = separate;
+        this.cover = new Entry(Main.COVER_PAGE, 1, 1, new File(htmlDirectory, "cover.html"),
+                PATH_PREFIX + "cover.html");
+        entries.put(cover.file, cover);
+        for (int chapterIndex = 0; chapterIndex < chapters.size(); chapterIndex++) {
+            final Chapter chapter = chapters.get(chapterIndex);
+            final List<Entry> list = new ArrayList<>();
+            if (separate) {
+                for (int page = chapter.getFirst(); page <= chapter.getLast(); page++) {
+                    final int pageIndex = page - chapter.getFirst();
+                    list.add(new Entry(chapterIndex, page, page,
+                            new File(new File(htmlDirectory, String.valueOf(chapterIndex)), pageIndex + ".html"),
+                            PATH_PREFIX + chapterIndex + "/" + pageIndex + ".html"));
+                }
+            } else {
+                list.add(new Entry(chapterIndex, chapter.getFirst(), chapter.getLast(),
+                        new File(htmlDirectory, chapterIndex + ".html"), PATH_PREFIX + chapterIndex + ".html"));
+            }
+            for (Entry entry : list) {
+                entries.put(entry.file, entry);
+            }
+            chapterEntries.add(list);
+        }
+    }
+
+    /**
+     * Marks the pages as also packed into html/*.pack once the job is finished.
+     */
+    public synchronized void setPack(final String pack) {
+        this.pack = pack;
+    }
+
+    /**
+     * Takes the files the cache or a resumed run already provided as reused, the rest as pending, and writes the
+     * first overview.
+     *
+     * @param linker the pages shared between chapters, or null
+     */
+    public void planned(final SharedPageLinker linker) {
+        synchronized (this) {
+            this.linker = linker;
+        }
+        for (Entry entry : entries.values()) {
+            if (entry.file.isFile()) {
+                update(entry, Status.REUSED);
+            }
+        }
+        write();
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            return;
+        }
+        final List<Entry> finished = new ArrayList<>();
+        for (File output : task.getOutputs()) {
+            final Entry entry = entries.get(output);
+            if (entry != null) {
+                finished.add(entry);
+            }
+            final List<SharedPageLinker.Alias> aliases;
+            synchronized (this) {
+                aliases = linker == null ? Collections.<SharedPageLinker.Alias>emptyList()
+                        : linker.getAliases(output);
+            }
+            for (SharedPageLinker.Alias alias : aliases) {
+                final Entry aliasEntry = entries.get(alias.getFile());
+                if (aliasEntry != null) {
+                    finished.add(aliasEntry);
+                }
+            }
+        }
+        boolean chapterCompleted = false;
+        for (Entry entry : finished) {
+            if (update(entry, Status.RENDERED)) {
+                chapterCompleted |= isComplete(entry.chapterIndex);
+            }
+        }
+        if (chapterCompleted) {
+            write();
+        }
+    }
+
+    /**
+     * Marks what is still missing as failed and writes the final overview.
+     */
+    public void finish() {
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                if (entry.status == Status.PENDING) {
+                    entry.status = Status.FAILED;
+                }
+            }
+        }
+        write();
+    }
+
+    /**
+     * Reads size, checksum and page dimensions of the file. Returns whether the entry was pending.
+     */
+    private boolean update(final Entry entry, final Status status) {
+        long bytes = -1;
+        String sha256 = null;
+        Map<Integer, float[]> sizes = new HashMap<>();
+        try {
+            final byte[] content = Files.readAllBytes(entry.file.toPath());
+            bytes = content.length;
+            sha256 = Checksums.sha256(content);
+            sizes = readPageSizes(new String(content, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            System.out.println("Can not read " + entry.file + " for " + FILE_NAME + ": " + e.getMessage());
+        }
+        synchronized (this) {
+            final boolean pending = entry.status == Status.PENDING;
+            entry.status = status;
+            entry.bytes = bytes;
+            entry.sha256 = sha256;
+            entry.sizes = sizes;
+            return pending;
+        }
+    }
+
+    private synchronized boolean isComplete(final int chapterIndex) {
+        final List<Entry> list = chapterIndex == Main.COVER_PAGE ? Collections.singletonList(cover)
+                : chapterEntries.get(chapterIndex);
+        for (Entry entry : list) {
+            if (entry.status == Status.PENDING) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Width and height in pixels of every page of a pdf2htmlEX file by pdf page number, from the w and h classes of
+     * the page frames and the rules of the stylesheet.
+     */
+    static Map<Integer, float[]> readPageSizes(final String html) {
+        final Map<String, Float> classSizes = new HashMap<>();
+        final Matcher rule = SIZE_RULE.matcher(html);
+        while (rule.find()) {
+            for (String selector : rule.group(1).split(",")) {
+                final String trimmed = selector.trim();
+                final int dot = trimmed.lastIndexOf('.');
+                if (dot < 0) {
+                    continue;
+                }
+                final String className = trimmed.substring(dot + 1);
+                if (!classSizes.containsKey(className)) {
+                    classSizes.put(className, Float.valueOf(rule.group(3)));
+                }
+            }
+        }
+        final Map<Integer, float[]> sizes = new HashMap<>();
+        final Matcher page = PAGE_DIV.matcher(html);
+        while (page.find()) {
+            final float[] size = {-1, -1};
+            for (String className : page.group(1).split("\\s+")) {
+                final Float value = classSizes.get(className);
+                if (value != null && className.startsWith("w")) {
+                    size[0] = value;
+                } else if (value != null && className.startsWith("h")) {
+                    size[1] = value;
+                }
+            }
+            sizes.put(Integer.parseInt(page.group(2), 16), size);
+        }
+        return sizes;
+    }
+
+    private synchronized void write() {
+        final File file = new File(htmlDirectory, FILE_NAME);
+        final File temporary = new File(htmlDirectory, FILE_NAME + ".tmp");
+        try {
+            htmlDirectory.mkdirs();
+            try (PrintWriter writer = new PrintWriter(temporary, "UTF-8")) {
+                writer.println("export var data = {");
+                if (pack != null) {
+                    writer.println("\t\"pack\": " + Json.quote(pack) + ",");
+                }
+                writer.println("\t\"cover\": " + pageJson(cover, cover.firstPage, true) + ",");
+                writer.println("\t\"chapters\": [");
+                for (int chapterIndex = 0; chapterIndex < chapters.size(); chapterIndex++) {
+                    writeChapter(writer, chapterIndex);
+                    writer.println(chapterIndex < chapters.size() - 1 ? "," : "");
+                }
+                writer.println("\t]");
+                writer.println("}");
+            }
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Can not write " + file + ": " + e.getMessage());
+        }
+    }
+
+    private void writeChapter(final PrintWriter writer, final int chapterIndex) {
+        final Chapter chapter = chapters.get(chapterIndex);
+        final List<Entry> list = chapterEntries.get(chapterIndex);
+        int missing = 0;
+        for (Entry entry : list) {
+            if (entry.status == Status.PENDING || entry.status == Status.FAILED) {
+                missing += entry.lastPage - entry.firstPage + 1;
+            }
+        }
+        writer.println("\t\t{");
+        writer.println("\t\t\t\"title\": " + Json.quote(chapter.getName()) + ",");
+        writer.println("\t\t\t\"path\": " + Json.quote(PATH_PREFIX + chapterIndex) + ",");
+        writer.println("\t\t\t\"numberOfPage\": " + (chapter.getLast() - chapter.getFirst() + 1) + ",");
+        writer.println("\t\t\t\"firstPage\": " + chapter.getFirst() + ",");
+        writer.println("\t\t\t\"missingPages\": " + missing + ",");
+        if (!separate) {
+            final Entry entry = list.get(0);
+            writer.println("\t\t\t\"file\": " + fileJson(entry) + ",");
+        }
+        writer.println("\t\t\t\"pages\": [");
+        int index = 0;
+        for (Entry entry : list) {
+            for (int page = entry.firstPage; page <= entry.lastPage; page++) {
+                writer.print("\t\t\t\t" + pageJson(entry, page, separate));
+                writer.println(++index < chapter.getLast() - chapter.getFirst() + 1 ? "," : "");
+            }
+        }
+        writer.println("\t\t\t]");
+        writer.print("\t\t}");
+    }
+
+    private static String fileJson(final Entry entry) {
+        return "{\"path\": " + Json.quote(entry.path) + ", \"bytes\": " + (entry.bytes < 0 ? "null" : entry.bytes)
+                + ", \"sha256\": " + Json.quote(entry.sha256) + ", \"status\": " + Json.quote(entry.status.label())
+                + "}";
+    }
+
+    /**
+     * A page, with the file it is in when that holds only this page.
+     */
+    private static String pageJson(final Entry entry, final int page, final boolean withFile) {
+        final float[] size = entry.sizes.get(page);
+        final StringBuilder json = new StringBuilder("{\"page\": ").append(page);
+        if (withFile) {
+            json.append(", \"path\": ").append(Json.quote(entry.path))
+                    .append(", \"bytes\": ").append(entry.bytes < 0 ? "null" : String.valueOf(entry.bytes))
+                    .append(", \"sha256\": ").append(Json.quote(entry.sha256));
+        }
+        json.append(", \"width\": ").append(size == null || size[0] < 0 ? "null" : formatSize(size[0]))
+                .append(", \"height\": ").append(size == null || size[1] < 0 ? "null" : formatSize(size[1]))
+                .append(", \"status\": ").append(Json.quote(entry.status.label()))
+                .append('}');
+        return json.toString();
+    }
+
+    private static String formatSize(final float value) {
+        return String.format(Locale.ROOT, "%.2f", value);
+    }
+}
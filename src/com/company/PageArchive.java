@@ -0,0 +1,122 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads a pack written by {@link PageArchiveWriter}: the pages one after the other, then an index of fixed width
+ * entries sorted by chapter and page, then a footer locating the index. The file is memory-mapped, a page is a slice of
+ * the mapping found by a binary search of the index, so serving it needs neither a file open nor a copy.
+ */
+final class PageArchive implements Closeable {
+    static final byte[] MAGIC = "PAGEPACK".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    // chapter, page, offset and length of a page
+    static final int ENTRY_SIZE = 4 + 4 + 8 + 4;
+    // offset of the index, number of entries, version and magic
+    static final int FOOTER_SIZE = 8 + 4 + 4 + 8;
+    static final String EXTENSION = ".pack";
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int indexOffset;
+    private final int entryCount;
+
+    private PageArchive(final FileChannel channel, final ByteBuffer buffer, final int indexOffset,
+                        final int entryCount) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.indexOffset = indexOffset;
+        this.entryCount = entryCount;
+    }
+
+    public static PageArchive open(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException(file + " is too large to map");
+            }
+            if (size < MAGIC.length + FOOTER_SIZE) {
+                throw new IOException(file + " is not a page pack");
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+            final int footer = (int) size - FOOTER_SIZE;
+            final long indexOffset = buffer.getLong(footer);
+            final int entryCount = buffer.getInt(footer + 8);
+            final int version = buffer.getInt(footer + 12);
+            if (!hasMagic(buffer, 0) || !hasMagic(buffer, footer + 16) || version != VERSION || indexOffset < 0
+                    || entryCount < 0 || indexOffset + (long) entryCount * ENTRY_SIZE != footer) {
+                throw new IOException(file + " is not a page pack of version " + VERSION);
+            }
+            return new PageArchive(channel, buffer, (int) indexOffset, entryCount);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getPageCount() {
+        return entryCount;
+    }
+
+    public int getChapterIndex(final int entry) {
+        return buffer.getInt(indexOffset + entry * ENTRY_SIZE);
+    }
+
+    public int getPageIndex(final int entry) {
+        return buffer.getInt(indexOffset + entry * ENTRY_SIZE + 4);
+    }
+
+    /**
+     * The page as a read only slice of the mapping, or null when the pack does not have it.
+     *
+     * @param chapterIndex -1 for the cover
+     */
+    public ByteBuffer getPage(final int chapterIndex, final int pageIndex) {
+        int low = 0;
+        int high = entryCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int position = indexOffset + middle * ENTRY_SIZE;
+            int compared = Integer.compare(buffer.getInt(position), chapterIndex);
+            if (compared == 0) {
+                compared = Integer.compare(buffer.getInt(position + 4), pageIndex);
+            }
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                final ByteBuffer page = buffer.duplicate();
+                final int offset = (int) buffer.getLong(position + 8);
+                page.limit(offset + buffer.getInt(position + 16));
+                page.position(offset);
+                return page.slice().asReadOnlyBuffer();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Closes the file, the mapping itself goes away once no slice of it is used any more.
+     */
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static boolean hasMagic(final ByteBuffer buffer, final int position) {
+        for (int index = 0; index < MAGIC.length; index++) {
+            if (buffer.get(position + index) != MAGIC[index]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,204 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Packs the page files of a book rendered with -s true into one {@link PageArchive} per chapter, or one for the whole
+ * book with the cover. Pages are appended as soon as their task finished, in whatever order that is; the index is
+ * written when the job is finished and the pack is only moved into place then, so a pack in html/ is always complete.
+ */
+class PageArchiveWriter implements TaskObserver {
+    private static final String BOOK_PACK_NAME = "book";
+    private static final String COVER_FILE_NAME = "cover.html";
+    private static final String PAGE_EXTENSION = ".html";
+
+    private final File htmlDirectory;
+    private final boolean perChapter;
+    private final Map<String, Pack> packs = new HashMap<>();
+    private long packedBytes;
+
+    /**
+     * A pack being written, to a temporary file next to it.
+     */
+    private static final class Pack {
+        private final File file;
+        private final File temporary;
+        private final FileChannel channel;
+        private final List<long[]> entries = new ArrayList<>();
+        private final Set<String> pages = new HashSet<>();
+
+        private Pack(final File file) throws IOException {
+            this.file = file;
+            this.temporary = new File(file.getPath() + ".tmp");
+            this.channel = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            writeFully(channel, ByteBuffer.wrap(PageArchive.MAGIC));
+        }
+    }
+
+    /**
+     * @param perChapter a pack per chapter, otherwise one for the book
+     */
+    public PageArchiveWriter(final File htmlDirectory, final boolean perChapter) {
+        this.htmlDirectory = htmlDirectory;
+        this.perChapter = perChapter;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            return;
+        }
+        for (File output : task.getOutputs()) {
+            try {
+                add(output);
+            } catch (IOException e) {
+                System.out.println("Can not pack " + output + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Packs the pages the tasks did not report, because the cache or a resumed run had them or they are linked from
+     * another chapter, writes the indexes and moves the packs into place. The page files are kept, --resume and the
+     * precompressed siblings still need them.
+     */
+    public void finish() throws IOException {
+        int packedPages = 0;
+        final File[] chapterDirectories = htmlDirectory.listFiles();
+        if (chapterDirectories != null) {
+            for (File directory : chapterDirectories) {
+                final File[] files = directory.isDirectory() && parseIndex(directory.getName()) != null
+                        ? directory.listFiles() : null;
+                if (files == null) {
+                    continue;
+                }
+                for (File file : files) {
+                    if (add(file)) {
+                        packedPages++;
+                    }
+                }
+            }
+        }
+        if (!perChapter && add(new File(htmlDirectory, COVER_FILE_NAME))) {
+            packedPages++;
+        }
+        synchronized (this) {
+            for (Pack pack : packs.values()) {
+                close(pack);
+            }
+            System.out.println("Packed " + packedPages + " pages of " + packedBytes / 1024 + " KB into "
+                    + packs.size() + " " + (packs.size() == 1 ? "pack" : "packs"));
+            packs.clear();
+        }
+    }
+
+    /**
+     * Appends a page file to its pack, unless it is not a page or already there. Returns whether it is packed.
+     */
+    private synchronized boolean add(final File file) throws IOException {
+        final String name = file.getName();
+        if (!name.endsWith(PAGE_EXTENSION) || !file.isFile()) {
+            return false;
+        }
+        final int chapterIndex;
+        final int pageIndex;
+        if (name.equals(COVER_FILE_NAME) && file.getParentFile().equals(htmlDirectory)) {
+            if (perChapter) {
+                return false;
+            }
+            chapterIndex = -1;
+            pageIndex = 0;
+        } else {
+            final Integer chapter = parseIndex(file.getParentFile().getName());
+            final Integer page = parseIndex(name.substring(0, name.length() - PAGE_EXTENSION.length()));
+            if (chapter == null || page == null || !file.getParentFile().getParentFile().equals(htmlDirectory)) {
+                return false;
+            }
+            chapterIndex = chapter;
+            pageIndex = page;
+        }
+        final String packName = perChapter ? String.valueOf(chapterIndex) : BOOK_PACK_NAME;
+        Pack pack = packs.get(packName);
+        if (pack == null) {
+            pack = new Pack(new File(htmlDirectory, packName + PageArchive.EXTENSION));
+            packs.put(packName, pack);
+        }
+        if (!pack.pages.add(chapterIndex + "/" + pageIndex)) {
+            return true;
+        }
+        final long offset = pack.channel.position();
+        final long length;
+        try (FileChannel source = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            length = source.size();
+            long copied = 0;
+            while (copied < length) {
+                copied += source.transferTo(copied, length - copied, pack.channel);
+            }
+        }
+        pack.channel.position(offset + length);
+        pack.entries.add(new long[]{chapterIndex, pageIndex, offset, length});
+        packedBytes += length;
+        return true;
+    }
+
+    private static void close(final Pack pack) throws IOException {
+        try {
+            Collections.sort(pack.entries, new Comparator<long[]>() {
+                @Override
+                public int compare(long[] first, long[] second) {
+                    final int compared = Long.compare(first[0], second[0]);
+                    return compared != 0 ? compared : Long.compare(first[1], second[1]);
+                }
+            });
+            final long indexOffset = pack.channel.position();
+            final ByteBuffer index = ByteBuffer.allocate(pack.entries.size() * PageArchive.ENTRY_SIZE
+                    + PageArchive.FOOTER_SIZE);
+            for (long[] entry : pack.entries) {
+                index.putInt((int) entry[0]).putInt((int) entry[1]).putLong(entry[2]).putInt((int) entry[3]);
+            }
+            index.putLong(indexOffset).putInt(pack.entries.size()).putInt(PageArchive.VERSION)
+                    .put(PageArchive.MAGIC);
+            index.flip();
+            writeFully(pack.channel, index);
+            pack.channel.force(true);
+        } finally {
+            pack.channel.close();
+        }
+        Files.move(pack.temporary.toPath(), pack.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private static Integer parseIndex(final String value) {
+        for (int index = 0; index < value.length(); index++) {
+            if (!Character.isDigit(value.charAt(index))) {
+                return null;
+            }
+        }
+        return value.isEmpty() || value.length() > 9 ? null : Integer.valueOf(value);
+    }
+}
@@ -0,0 +1,202 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardCopyOption;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two tier cache of rendered pages for the page server. Hot pages are kept in memory, bounded by bytes and evicted
+ * least recently used first; an evicted page spills to its file on disk, where the second tier keeps it until the
+ * disk bound is reached as well. A page missing from both is loaded once however many requests ask for it at the
+ * same time, the others wait for the same load.
+ */
+class PageCache {
+    private final long memoryBytes;
+    private final long diskBytes;
+    // access ordered, the first entry is the least recently used one
+    private final LinkedHashMap<String, Entry> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private final LinkedHashMap<String, File> disk = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentHashMap<String, FutureTask<byte[]>> loading = new ConcurrentHashMap<>();
+    private long memoryUsed;
+    private long diskUsed;
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong loads = new AtomicLong();
+    private final AtomicLong collapsed = new AtomicLong();
+
+    private static class Entry {
+        private final String key;
+        private final File file;
+        private final byte[] content;
+
+        private Entry(final String key, final File file, final byte[] content) {
+            this.key = key;
+            this.file = file;
+            this.content = content;
+        }
+    }
+
+    public PageCache(final long memoryBytes, final long diskBytes) {
+        this.memoryBytes = memoryBytes;
+        this.diskBytes = diskBytes;
+    }
+
+    /**
+     * Registers a page which is already on disk, e.g. rendered before the server was restarted.
+     */
+    public synchronized void addFromDisk(final String key, final File file) {
+        if (!disk.containsKey(key)) {
+            disk.put(key, file);
+            diskUsed += file.length();
+        }
+    }
+
+    public synchronized boolean contains(final String key) {
+        return memory.containsKey(key) || disk.containsKey(key);
+    }
+
+    /**
+     * The page, from memory, from disk or written to file by the loader.
+     *
+     * @param loader renders the page into file, only called when the page is in neither tier
+     */
+    public byte[] get(final String key, final File file, final Callable<Void> loader) throws IOException {
+        synchronized (this) {
+            final Entry entry = memory.get(key);
+            if (entry != null) {
+                memoryHits.incrementAndGet();
+                disk.get(key);
+                return entry.content;
+            }
+        }
+        final FutureTask<byte[]> load = new FutureTask<>(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return load(key, file, loader);
+            }
+        });
+        final FutureTask<byte[]> running = loading.putIfAbsent(key, load);
+        if (running != null) {
+            collapsed.incrementAndGet();
+            return await(running);
+        }
+        try {
+            load.run();
+            return await(load);
+        } finally {
+            loading.remove(key, load);
+        }
+    }
+
+    private byte[] load(final String key, final File file, final Callable<Void> loader) throws Exception {
+        final boolean onDisk;
+        synchronized (this) {
+            onDisk = disk.containsKey(key) && file.isFile();
+        }
+        byte[] content = null;
+        if (onDisk) {
+            try {
+                content = Files.readAllBytes(file.toPath());
+                diskHits.incrementAndGet();
+            } catch (NoSuchFileException e) {
+                // evicted from disk in the meantime, render it again
+            }
+        }
+        if (content == null) {
+            loads.incrementAndGet();
+            loader.call();
+            if (!file.isFile()) {
+                throw new IOException("the renderer did not write " + file.getName());
+            }
+            content = Files.readAllBytes(file.toPath());
+        }
+        synchronized (this) {
+            if (!disk.containsKey(key)) {
+                disk.put(key, file);
+                diskUsed += content.length;
+            }
+            if (content.length <= memoryBytes && !memory.containsKey(key)) {
+                memory.put(key, new Entry(key, file, content));
+                memoryUsed += content.length;
+            }
+            evict();
+        }
+        return content;
+    }
+
+    private static byte[] await(final FutureTask<byte[]> load) throws IOException {
+        try {
+            return load.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for the page");
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            throw new IOException(String.valueOf(cause.getMessage()), cause);
+        }
+    }
+
+    private void evict() {
+        final Iterator<Map.Entry<String, Entry>> memoryEntries = memory.entrySet().iterator();
+        while (memoryUsed > memoryBytes && memoryEntries.hasNext()) {
+            final Entry entry = memoryEntries.next().getValue();
+            memoryEntries.remove();
+            memoryUsed -= entry.content.length;
+            if (spill(entry) && !disk.containsKey(entry.key)) {
+                disk.put(entry.key, entry.file);
+                diskUsed += entry.content.length;
+            }
+        }
+        final Iterator<Map.Entry<String, File>> diskEntries = disk.entrySet().iterator();
+        while (diskUsed > diskBytes && diskEntries.hasNext()) {
+            final Map.Entry<String, File> entry = diskEntries.next();
+            // a page still in memory keeps its file, it would only be spilled again
+            if (memory.containsKey(entry.getKey())) {
+                continue;
+            }
+            diskEntries.remove();
+            diskUsed -= entry.getValue().length();
+            entry.getValue().delete();
+        }
+    }
+
+    /**
+     * Makes sure a page dropped from memory is on disk, the file may have been evicted while the page was hot.
+     */
+    private static boolean spill(final Entry entry) {
+        if (entry.file.isFile()) {
+            return true;
+        }
+        final File temporary = new File(entry.file.getPath() + ".tmp");
+        try {
+            entry.file.getParentFile().mkdirs();
+            Files.write(temporary.toPath(), entry.content);
+            Files.move(temporary.toPath(), entry.file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (IOException e) {
+            System.out.println("Can not spill " + entry.file + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    public synchronized String getSummary() {
+        return String.format(Locale.ROOT, "memory %d KB of %d KB, disk %d KB of %d KB, %d memory hits, %d disk hits, "
+                        + "%d renders, %d collapsed requests", memoryUsed / 1024, memoryBytes / 1024,
+                diskUsed / 1024, diskBytes / 1024, memoryHits.get(), diskHits.get(), loads.get(), collapsed.get());
+    }
+}
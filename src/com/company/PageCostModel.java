@@ -0,0 +1,215 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Render time and output size of every page of a PDF, measured by earlier runs and kept in one file per PDF hash.
+ * Estimates task costs in milliseconds for the planner and the scheduler: measured pages by their history, the others
+ * by the static estimate of {@link PdfCostProbe} at the speed this PDF was rendered with so far. Also collects the
+ * predicted and the actual time of every task for the cost report.
+ */
+class PageCostModel implements CostEstimator, TaskObserver {
+    private static final double DEFAULT_MILLIS_PER_UNIT = 1000;
+    // weight of a new measurement against the history of the page
+    private static final double WEIGHT = 0.5;
+
+    private final File file;
+    private final double[] staticUnits;
+    private final Map<Integer, double[]> pages = new TreeMap<>();
+    private final double millisPerUnit;
+    private final List<Sample> samples = new ArrayList<>();
+
+    private static final class Sample {
+        private final String name;
+        private final int pageCount;
+        private final double predictedMillis;
+        private final double actualMillis;
+
+        private Sample(final String name, final int pageCount, final double predictedMillis,
+                       final double actualMillis) {
+            this.name = name;
+            this.pageCount = pageCount;
+            this.predictedMillis = predictedMillis;
+            this.actualMillis = actualMillis;
+        }
+    }
+
+    private PageCostModel(final File file, final double[] staticUnits) {
+        this.file = file;
+        this.staticUnits = staticUnits;
+        read();
+        double measuredMillis = 0;
+        double measuredUnits = 0;
+        for (Map.Entry<Integer, double[]> entry : pages.entrySet()) {
+            measuredMillis += entry.getValue()[0];
+            measuredUnits += getStaticUnits(entry.getKey());
+        }
+        millisPerUnit = measuredUnits > 0 ? measuredMillis / measuredUnits : DEFAULT_MILLIS_PER_UNIT;
+    }
+
+    /**
+     * Loads the history of the PDF from the folder, the static estimate is only read from the PDF when pages lack one.
+     */
+    public static PageCostModel load(final File directory, final String pdfHash, final File pdf) {
+        return new PageCostModel(new File(directory, pdfHash + ".tsv"), PdfCostProbe.estimate(pdf));
+    }
+
+    public boolean hasHistory() {
+        return !pages.isEmpty();
+    }
+
+    public boolean hasStaticEstimate() {
+        return staticUnits != null;
+    }
+
+    /**
+     * Predicted render time of a page in milliseconds.
+     */
+    public synchronized double pageCost(final int page) {
+        final double[] measured = pages.get(page);
+        return measured != null ? measured[0] : getStaticUnits(page) * millisPerUnit;
+    }
+
+    @Override
+    public synchronized double estimate(final RenderTask task) {
+        double cost = 0;
+        for (int page = task.getStartPage(); page <= task.getEndPage(); page++) {
+            cost += pageCost(page);
+        }
+        return cost;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    /**
+     * Shares the render time of a task among its pages, by their output sizes when it wrote a file per page and by
+     * their predicted costs otherwise.
+     */
+    @Override
+    public synchronized void taskFinished(final RenderTask task, final boolean success) {
+        if (!success || task.isCancelled() || task.getRenderNanos() <= 0) {
+            return;
+        }
+        final double actualMillis = task.getRenderNanos() / 1e6;
+        samples.add(new Sample(task.getName(), task.getPageCount(), task.getCost(), actualMillis));
+        final int pageCount = task.getPageCount();
+        final List<File> outputs = task.getOutputs();
+        final double[] bytes = new double[pageCount];
+        final double[] weights = new double[pageCount];
+        double totalWeight = 0;
+        final boolean perPage = outputs.size() == pageCount;
+        for (int index = 0; index < pageCount; index++) {
+            bytes[index] = perPage ? outputs.get(index).length() : -1;
+            weights[index] = perPage ? bytes[index] : pageCost(task.getStartPage() + index);
+            totalWeight += weights[index];
+        }
+        for (int index = 0; index < pageCount; index++) {
+            final double millis = totalWeight > 0 ? actualMillis * weights[index] / totalWeight
+                    : actualMillis / pageCount;
+            final double[] history = pages.get(task.getStartPage() + index);
+            if (history == null) {
+                pages.put(task.getStartPage() + index, new double[]{millis, Math.max(0, bytes[index])});
+            } else {
+                history[0] = history[0] * (1 - WEIGHT) + millis * WEIGHT;
+                if (bytes[index] >= 0) {
+                    history[1] = history[1] * (1 - WEIGHT) + bytes[index] * WEIGHT;
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the history back, replacing the file at once so concurrent readers never see half of it.
+     */
+    public synchronized void save() throws IOException {
+        file.getParentFile().mkdirs();
+        final File temporary = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try (PrintWriter writer = new PrintWriter(temporary, "UTF-8")) {
+            for (Map.Entry<Integer, double[]> entry : pages.entrySet()) {
+                writer.println(entry.getKey() + "\t" + format("%.1f", entry.getValue()[0]) + "\t"
+                        + (long) entry.getValue()[1]);
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Writes the predicted against the actual time of every task and prints the totals.
+     */
+    public synchronized void writeReport(final File reportFile) throws IOException {
+        double predicted = 0;
+        double actual = 0;
+        double error = 0;
+        for (Sample sample : samples) {
+            predicted += sample.predictedMillis;
+            actual += sample.actualMillis;
+            error += Math.abs(sample.predictedMillis - sample.actualMillis) / sample.actualMillis;
+        }
+        final double meanError = samples.isEmpty() ? 0 : error / samples.size();
+        try (PrintWriter writer = new PrintWriter(reportFile, "UTF-8")) {
+            writer.println("{");
+            writer.println("  \"source\": " + Json.quote(hasHistory() || staticUnits == null ? "history"
+                    : "static") + ",");
+            writer.println(format("  \"predictedSeconds\": %.3f,", predicted / 1000));
+            writer.println(format("  \"actualSeconds\": %.3f,", actual / 1000));
+            writer.println(format("  \"meanAbsoluteError\": %.3f,", meanError));
+            writer.println("  \"tasks\": [");
+            for (int index = 0; index < samples.size(); index++) {
+                final Sample sample = samples.get(index);
+                writer.println(format("    {\"name\": %s, \"pages\": %d, \"predictedSeconds\": %.3f, " +
+                                "\"actualSeconds\": %.3f}%s", Json.quote(sample.name), sample.pageCount,
+                        sample.predictedMillis / 1000, sample.actualMillis / 1000,
+                        index < samples.size() - 1 ? "," : ""));
+            }
+            writer.println("  ]");
+            writer.println("}");
+        }
+        System.out.println(format("Predicted %.1f s of rendering, took %.1f s, mean error per task %.0f%%",
+                predicted / 1000, actual / 1000, meanError * 100));
+    }
+
+    private double getStaticUnits(final int page) {
+        return staticUnits != null && page >= 1 && page <= staticUnits.length ? staticUnits[page - 1] : 1;
+    }
+
+    private void read() {
+        if (!file.isFile()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(new FileReader(file))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t");
+                if (fields.length < 3) {
+                    continue;
+                }
+                try {
+                    pages.put(Integer.parseInt(fields[0]), new double[]{Double.parseDouble(fields[1]),
+                            Double.parseDouble(fields[2])});
+                } catch (NumberFormatException e) {
+                    // a damaged line only loses the history of its page
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Can not read the cost history " + file + ": " + e.getMessage());
+        }
+    }
+
+    private static String format(final String format, final Object... arguments) {
+        return String.format(Locale.ROOT, format, arguments);
+    }
+}
@@ -0,0 +1,417 @@
+package com.company;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the pages of a folder of books (book.pdf with book.txt) and renders each page only when it is first asked
+ * for, so pages nobody reads cost nothing. Listens on the loopback interface:
+ * <ul>
+ * <li>GET /&lt;book&gt;/&lt;chapter&gt;/&lt;page&gt;.html a page, numbered from 0 within its chapter like the
+ * rendered folders.</li>
+ * <li>GET /&lt;book&gt;/cover.html the cover.</li>
+ * <li>GET /&lt;book&gt;/&lt;file&gt; any other file of the rendered book, e.g. shared assets.</li>
+ * <li>GET / the books with their chapters and the cache figures.</li>
+ * </ul>
+ * Rendered pages go through a {@link PageCache}, at most -t renders run at once and the next pages of a requested
+ * one are prefetched while renders are idle. Pages a run with --pack left in html/*.pack are served from the mapped
+ * {@link PageArchive} and never rendered again.
+ */
+class PageServer {
+    private static final Pattern PAGE_PATH = Pattern.compile("/([^/]+)/(\\d+)/(\\d+)\\.html");
+    private static final Pattern COVER_PATH = Pattern.compile("/([^/]+)/cover\\.html");
+    private static final String OPTIONS_FILE_NAME = "render-options";
+    private static final int QUEUED_PREFETCHES_PER_RENDER = 8;
+
+    private final int port;
+    private final File outputRoot;
+    private final String rendererOptions;
+    private final PageCache cache;
+    private final Semaphore renders;
+    private final int prefetchPages;
+    private final ThreadPoolExecutor prefetcher;
+    private final Map<String, Book> books = new LinkedHashMap<>();
+    private HttpServer server;
+
+    /**
+     * A book being served: its chapters and the folder its pages are rendered to.
+     */
+    private static class Book {
+        private final String id;
+        private final String pdfPath;
+        private final List<Chapter> chapters;
+        private final File directory;
+        private final List<PageArchive> packs = new ArrayList<>();
+
+        private Book(final String id, final String pdfPath, final List<Chapter> chapters, final File directory) {
+            this.id = id;
+            this.pdfPath = pdfPath;
+            this.chapters = chapters;
+            this.directory = directory;
+        }
+    }
+
+    /**
+     * @param rendererOptions options the pages are rendered with, pages on disk rendered with others are dropped
+     */
+    public PageServer(final int port, final File outputRoot, final String rendererOptions, final PageCache cache,
+                      final int maxRenders, final int prefetchPages) {
+        this.port = port;
+        this.outputRoot = outputRoot;
+        this.rendererOptions = rendererOptions;
+        this.cache = cache;
+        this.renders = new Semaphore(maxRenders, true);
+        this.prefetchPages = prefetchPages;
+        // prefetches are only a guess, when too many are waiting new ones are dropped
+        this.prefetcher = new ThreadPoolExecutor(maxRenders, maxRenders, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(maxRenders * QUEUED_PREFETCHES_PER_RENDER),
+                new ThreadPoolExecutor.DiscardPolicy());
+    }
+
+    /**
+     * Serves every pdf of the folder which has a chapter file of the same name next to it.
+     */
+    public void addBooks(final File source) throws IOException {
+        final File[] files = source.listFiles();
+        if (files == null) {
+            throw new IllegalArgumentException("Can not list " + source);
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            final String name = file.getName();
+            if (!file.isFile() || !name.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+                continue;
+            }
+            final String id = name.substring(0, name.length() - ".pdf".length());
+            final File tocFile = new File(source, id + ".txt");
+            if (!tocFile.isFile()) {
+                System.out.println("Skipping " + file + ": no chapter file " + tocFile.getName());
+                continue;
+            }
+            final List<Chapter> chapters;
+            try {
+                chapters = Main.readAllChapter(tocFile.getPath());
+                Main.checkChapters(chapters, file);
+            } catch (IllegalArgumentException e) {
+                System.out.println("Skipping " + file + ": " + e.getMessage());
+                continue;
+            }
+            final Book book = new Book(id, file.getAbsolutePath(), chapters, new File(outputRoot, id));
+            prepare(book);
+            books.put(id, book);
+        }
+        if (books.isEmpty()) {
+            throw new IllegalArgumentException("No books found in " + source);
+        }
+    }
+
+    /**
+     * Registers the pages an earlier run left on disk, or drops them when they were rendered with other options.
+     */
+    private void prepare(final Book book) throws IOException {
+        final File optionsFile = new File(book.directory, OPTIONS_FILE_NAME);
+        final String stamp = rendererOptions + "|" + Checksums.sha256(new File(book.pdfPath));
+        if (optionsFile.isFile()
+                && stamp.equals(new String(Files.readAllBytes(optionsFile.toPath()), StandardCharsets.UTF_8))) {
+            openPacks(book);
+            registerPage(book, Main.COVER_PAGE, 0);
+            for (int chapterIndex = 0; chapterIndex < book.chapters.size(); chapterIndex++) {
+                final Chapter chapter = book.chapters.get(chapterIndex);
+                for (int pageIndex = 0; pageIndex <= chapter.getLast() - chapter.getFirst(); pageIndex++) {
+                    registerPage(book, chapterIndex, pageIndex);
+                }
+            }
+            return;
+        }
+        Main.deleteAllFiles(book.directory.getPath());
+        book.directory.mkdirs();
+        Files.write(optionsFile.toPath(), stamp.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void openPacks(final Book book) {
+        final File[] files = Main.getServedPageFile(book.directory.getPath(), Main.COVER_PAGE, 0).getParentFile()
+                .listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (!file.isFile() || !file.getName().endsWith(PageArchive.EXTENSION)) {
+                continue;
+            }
+            try {
+                book.packs.add(PageArchive.open(file));
+            } catch (IOException e) {
+                System.out.println("Skipping pack " + file + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * The page from a pack of the book, or null when no pack has it.
+     */
+    private static ByteBuffer getPackedPage(final Book book, final int chapterIndex, final int pageIndex) {
+        for (PageArchive pack : book.packs) {
+            final ByteBuffer page = pack.getPage(chapterIndex, pageIndex);
+            if (page != null) {
+                return page;
+            }
+        }
+        return null;
+    }
+
+    private void registerPage(final Book book, final int chapterIndex, final int pageIndex) {
+        final File file = Main.getServedPageFile(book.directory.getPath(), chapterIndex, pageIndex);
+        if (file.isFile()) {
+            cache.addFromDisk(key(book, chapterIndex, pageIndex), file);
+        }
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    route(exchange);
+                } catch (IOException ex) {
+                    respond(exchange, 502, "application/json; charset=utf-8",
+                            error(String.valueOf(ex.getMessage())));
+                } catch (RuntimeException ex) {
+                    System.out.println("Can not serve " + exchange.getRequestURI() + ": " + ex.getMessage());
+                    respond(exchange, 500, "application/json; charset=utf-8",
+                            error(String.valueOf(ex.getMessage())));
+                }
+            }
+        });
+        // requests mostly wait for renders, one thread each
+        server.setExecutor(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Threads.start("page-request", command);
+            }
+        });
+        server.start();
+        System.out.println("Serving " + books.size() + " books on http://" + server.getAddress().getHostString()
+                + ":" + server.getAddress().getPort() + "/");
+    }
+
+    private void route(final HttpExchange exchange) throws IOException {
+        if (!"GET".equals(exchange.getRequestMethod())) {
+            respond(exchange, 405, "application/json; charset=utf-8", error("use GET"));
+            return;
+        }
+        final String path = exchange.getRequestURI().getPath();
+        if (path.equals("/")) {
+            respond(exchange, 200, "application/json; charset=utf-8", index());
+            return;
+        }
+        final Matcher page = PAGE_PATH.matcher(path);
+        final Matcher cover = COVER_PATH.matcher(path);
+        final boolean isPage = page.matches();
+        final boolean isCover = !isPage && cover.matches();
+        if (isPage || isCover) {
+            final Book book = books.get(isPage ? page.group(1) : cover.group(1));
+            final int chapterIndex = isPage ? Integer.parseInt(page.group(2)) : Main.COVER_PAGE;
+            final int pageIndex = isPage ? Integer.parseInt(page.group(3)) : 0;
+            if (book == null || !exists(book, chapterIndex, pageIndex)) {
+                respond(exchange, 404, "application/json; charset=utf-8", error("no page " + path));
+                return;
+            }
+            final ByteBuffer packed = getPackedPage(book, chapterIndex, pageIndex);
+            if (packed != null) {
+                respond(exchange, 200, "text/html; charset=utf-8", packed);
+            } else {
+                respond(exchange, 200, "text/html; charset=utf-8", getPage(book, chapterIndex, pageIndex));
+            }
+            prefetch(book, chapterIndex, pageIndex);
+            return;
+        }
+        serveFile(exchange, path);
+    }
+
+    private byte[] getPage(final Book book, final int chapterIndex, final int pageIndex) throws IOException {
+        return cache.get(key(book, chapterIndex, pageIndex),
+                Main.getServedPageFile(book.directory.getPath(), chapterIndex, pageIndex), new Callable<Void>() {
+                    @Override
+                    public Void call() throws Exception {
+                        renders.acquire();
+                        try {
+                            render(book, chapterIndex, pageIndex);
+                        } finally {
+                            renders.release();
+                        }
+                        return null;
+                    }
+                });
+    }
+
+    private void render(final Book book, final int chapterIndex, final int pageIndex) throws Exception {
+        final RenderTask task = Main.buildServedPageTask(book.chapters, chapterIndex, pageIndex, book.pdfPath,
+                book.directory.getPath());
+        final long start = System.nanoTime();
+        if (task.call() != 1) {
+            throw new IOException("can not render " + book.id + " " + task.getName() + ": "
+                    + task.getFailureReason());
+        }
+        System.out.println(String.format(Locale.ROOT, "rendered %s %s in %.2fs", book.id, task.getName(),
+                (System.nanoTime() - start) / 1e9));
+    }
+
+    /**
+     * Renders the pages after the requested one in pdf order, crossing into the next chapter, while renders are
+     * idle. A prefetch never waits for a render slot, requests of readers go first.
+     */
+    private void prefetch(final Book book, final int chapterIndex, final int pageIndex) {
+        final int pdfPage = chapterIndex == Main.COVER_PAGE ? 0
+                : book.chapters.get(chapterIndex).getFirst() + pageIndex;
+        for (int next = pdfPage + 1; next <= pdfPage + prefetchPages; next++) {
+            for (int index = 0; index < book.chapters.size(); index++) {
+                final Chapter chapter = book.chapters.get(index);
+                if (next >= chapter.getFirst() && next <= chapter.getLast()) {
+                    submitPrefetch(book, index, next - chapter.getFirst());
+                    break;
+                }
+            }
+        }
+    }
+
+    private void submitPrefetch(final Book book, final int chapterIndex, final int pageIndex) {
+        if (cache.contains(key(book, chapterIndex, pageIndex))
+                || getPackedPage(book, chapterIndex, pageIndex) != null) {
+            return;
+        }
+        prefetcher.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (cache.contains(key(book, chapterIndex, pageIndex)) || !renders.tryAcquire()) {
+                    return;
+                }
+                try {
+                    cache.get(key(book, chapterIndex, pageIndex),
+                            Main.getServedPageFile(book.directory.getPath(), chapterIndex, pageIndex),
+                            new Callable<Void>() {
+                                @Override
+                                public Void call() throws Exception {
+                                    render(book, chapterIndex, pageIndex);
+                                    return null;
+                                }
+                            });
+                } catch (IOException ex) {
+                    System.out.println("prefetch failed: " + ex.getMessage());
+                } finally {
+                    renders.release();
+                }
+            }
+        });
+    }
+
+    private static boolean exists(final Book book, final int chapterIndex, final int pageIndex) {
+        if (chapterIndex == Main.COVER_PAGE) {
+            return true;
+        }
+        if (chapterIndex >= book.chapters.size()) {
+            return false;
+        }
+        final Chapter chapter = book.chapters.get(chapterIndex);
+        return pageIndex <= chapter.getLast() - chapter.getFirst();
+    }
+
+    /**
+     * Files which are not pages, only from the html folder of a book.
+     */
+    private void serveFile(final HttpExchange exchange, final String path) throws IOException {
+        final int slash = path.indexOf('/', 1);
+        final Book book = slash < 0 ? null : books.get(path.substring(1, slash));
+        if (book != null) {
+            final File root = new File(Main.getServedPageFile(book.directory.getPath(), Main.COVER_PAGE, 0)
+                    .getParentFile().getCanonicalPath());
+            final File file = new File(root, path.substring(slash + 1)).getCanonicalFile();
+            if (file.getPath().startsWith(root.getPath() + File.separator) && file.isFile()) {
+                final String type = Files.probeContentType(file.toPath());
+                respond(exchange, 200, type == null ? "application/octet-stream" : type,
+                        Files.readAllBytes(file.toPath()));
+                return;
+            }
+        }
+        respond(exchange, 404, "application/json; charset=utf-8", error("no file " + path));
+    }
+
+    private String index() {
+        final StringBuilder builder = new StringBuilder("{\"cache\": ").append(Json.quote(cache.getSummary()))
+                .append(", \"books\": [");
+        boolean firstBook = true;
+        for (Book book : books.values()) {
+            builder.append(firstBook ? "\n" : ",\n").append("{\"id\": ").append(Json.quote(book.id))
+                    .append(", \"chapters\": [");
+            for (int index = 0; index < book.chapters.size(); index++) {
+                final Chapter chapter = book.chapters.get(index);
+                builder.append(index == 0 ? "" : ", ").append("{\"name\": ").append(Json.quote(chapter.getName()))
+                        .append(", \"pages\": ").append(chapter.getLast() - chapter.getFirst() + 1).append("}");
+            }
+            builder.append("]}");
+            firstBook = false;
+        }
+        return builder.append("\n]}").toString();
+    }
+
+    private static String key(final Book book, final int chapterIndex, final int pageIndex) {
+        return book.id + "/" + chapterIndex + "/" + pageIndex;
+    }
+
+    private static String error(final String message) {
+        return "{\"error\": " + Json.quote(message) + "}";
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String type, final String json)
+            throws IOException {
+        respond(exchange, status, type, (json + "\n").getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String type, final byte[] body)
+            throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String type,
+                                final ByteBuffer body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", type);
+        exchange.sendResponseHeaders(status, body.remaining());
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            final WritableByteChannel channel = Channels.newChannel(outputStream);
+            while (body.hasRemaining()) {
+                channel.write(body);
+            }
+        }
+    }
+}
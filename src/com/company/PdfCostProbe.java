@@ -0,0 +1,679 @@
+package com.company;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Cheap static estimate of how expensive every page of a PDF is to render, for pages without measured history. Only
+ * the cross reference and the page tree are read: a page costs one unit plus its content stream bytes and the bytes
+ * of the images and forms it draws, scaled so a plain text page is close to one unit. Classic xref tables, xref
+ * streams with object streams and hybrid files, whose table points to an xref stream through /XRefStm, are understood,
+ * with Flate and PNG predictors. Anything else, or a page tree with a node that does not resolve or that does not add
+ * up to its /Count, gives up and the caller falls back to counting pages.
+ */
+final class PdfCostProbe {
+    private static final double CONTENT_BYTES_PER_UNIT = 50 * 1024;
+    private static final double IMAGE_BYTES_PER_UNIT = 512 * 1024;
+    private static final int TAIL_BYTES = 2048;
+    private static final int MAX_TREE_DEPTH = 64;
+    private static final Object NULL = new Object();
+
+    private final ByteBuffer buffer;
+    private final Map<Integer, Long> offsets = new HashMap<>();
+    // object number of the object stream and index within it, for compressed objects
+    private final Map<Integer, int[]> compressed = new HashMap<>();
+    private final Map<Integer, List<Object>> objectStreams = new HashMap<>();
+    private Map<String, Object> trailer;
+    private int declaredPageCount = -1;
+
+    private static final class Ref {
+        private final int number;
+
+        private Ref(final int number) {
+            this.number = number;
+        }
+    }
+
+    private static final class Name {
+        private final String value;
+
+        private Name(final String value) {
+            this.value = value;
+        }
+    }
+
+    private PdfCostProbe(final ByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Estimated units per page, index 0 for page 1, or null when the PDF can not be read this way.
+     */
+    public static double[] estimate(final File pdf) {
+        try (FileChannel channel = FileChannel.open(pdf.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return null;
+            }
+            final PdfCostProbe probe = new PdfCostProbe(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+            return probe.estimatePages();
+        } catch (IOException | RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Number of pages of the PDF, the /Count of its page tree, or -1 when it can not be read this way. Never a part of
+     * the pages: when any node of the page tree does not resolve the count is not trusted either.
+     */
+    public static int pageCount(final File pdf) {
+        try (FileChannel channel = FileChannel.open(pdf.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                return -1;
+            }
+            final PdfCostProbe probe = new PdfCostProbe(channel.map(FileChannel.MapMode.READ_ONLY, 0,
+                    channel.size()));
+            return probe.estimatePages() == null ? -1 : probe.declaredPageCount;
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Units of every page, or null unless the whole page tree resolved to exactly /Count pages.
+     */
+    private double[] estimatePages() throws IOException {
+        readCrossReferences(findStartXref());
+        final Object root = resolve(trailer.get("Root"));
+        if (!(root instanceof Map)) {
+            return null;
+        }
+        final Object pages = resolve(((Map<?, ?>) root).get("Pages"));
+        if (!(pages instanceof Map) || !(resolve(((Map<?, ?>) pages).get("Count")) instanceof Number)) {
+            return null;
+        }
+        declaredPageCount = ((Number) resolve(((Map<?, ?>) pages).get("Count"))).intValue();
+        final List<Double> costs = new ArrayList<>();
+        walkPages(pages, null, costs, new HashSet<Integer>(), 0);
+        if (costs.isEmpty() || costs.size() != declaredPageCount) {
+            return null;
+        }
+        final double[] result = new double[costs.size()];
+        for (int index = 0; index < result.length; index++) {
+            result[index] = costs.get(index);
+        }
+        return result;
+    }
+
+    /**
+     * Adds the units of the pages below the node. Throws when a node does not resolve, so the pages are never counted
+     * in part.
+     */
+    private void walkPages(final Object node, final Object inheritedResources, final List<Double> costs,
+                           final Set<Integer> visited, final int depth) throws IOException {
+        if (!(node instanceof Map)) {
+            throw new IOException("page tree node does not resolve");
+        }
+        if (depth > MAX_TREE_DEPTH) {
+            throw new IOException("page tree too deep");
+        }
+        final Map<?, ?> dictionary = (Map<?, ?>) node;
+        final Object resources = dictionary.containsKey("Resources") ? dictionary.get("Resources")
+                : inheritedResources;
+        final Object kids = resolve(dictionary.get("Kids"));
+        if (kids instanceof List) {
+            for (Object kid : (List<?>) kids) {
+                if (kid instanceof Ref && !visited.add(((Ref) kid).number)) {
+                    throw new IOException("page tree node " + ((Ref) kid).number + " is used twice");
+                }
+                walkPages(resolve(kid), resources, costs, visited, depth + 1);
+            }
+            return;
+        }
+        if (dictionary.containsKey("Kids") || isName(dictionary.get("Type"), "Pages")) {
+            throw new IOException("page tree node without kids");
+        }
+        long contentBytes = 0;
+        final Object contents = resolve(dictionary.get("Contents"));
+        if (contents instanceof List) {
+            for (Object content : (List<?>) contents) {
+                contentBytes += streamLength(content);
+            }
+        } else {
+            contentBytes += streamLength(dictionary.get("Contents"));
+        }
+        long imageBytes = 0;
+        final Object resourceDictionary = resolve(resources);
+        if (resourceDictionary instanceof Map) {
+            final Object xObjects = resolve(((Map<?, ?>) resourceDictionary).get("XObject"));
+            if (xObjects instanceof Map) {
+                for (Object xObject : ((Map<?, ?>) xObjects).values()) {
+                    final Object target = resolve(xObject);
+                    if (target instanceof Map && isName(((Map<?, ?>) target).get("Subtype"), "Form")) {
+                        contentBytes += streamLength(xObject);
+                    } else {
+                        imageBytes += streamLength(xObject);
+                    }
+                }
+            }
+        }
+        costs.add(1 + contentBytes / CONTENT_BYTES_PER_UNIT + imageBytes / IMAGE_BYTES_PER_UNIT);
+    }
+
+    private long streamLength(final Object reference) throws IOException {
+        final Object stream = resolve(reference);
+        if (!(stream instanceof Map)) {
+            return 0;
+        }
+        final Object length = resolve(((Map<?, ?>) stream).get("Length"));
+        return length instanceof Number ? ((Number) length).longValue() : 0;
+    }
+
+    private int findStartXref() throws IOException {
+        final int size = buffer.limit();
+        final int from = Math.max(0, size - TAIL_BYTES);
+        final String tail = ascii(from, size);
+        final int index = tail.lastIndexOf("startxref");
+        if (index < 0) {
+            throw new IOException("no startxref");
+        }
+        return Integer.parseInt(tail.substring(index + "startxref".length()).trim().split("\\s+")[0]);
+    }
+
+    /**
+     * Reads the cross reference sections from the newest one back through /Prev; newer entries win. The xref stream a
+     * table names with /XRefStm belongs to the same section: it holds the objects the table leaves out, typically
+     * those in object streams.
+     */
+    private void readCrossReferences(final int start) throws IOException {
+        int position = start;
+        final Set<Integer> seen = new HashSet<>();
+        while (position >= 0 && seen.add(position)) {
+            final Lexer lexer = new Lexer(buffer, position, buffer.limit());
+            final Map<String, Object> sectionTrailer;
+            if ("xref".equals(lexer.peekKeyword())) {
+                lexer.next();
+                sectionTrailer = readXrefTable(lexer);
+                final Object stream = sectionTrailer.get("XRefStm");
+                if (stream instanceof Number && seen.add(((Number) stream).intValue())) {
+                    readXrefStream(new Lexer(buffer, ((Number) stream).intValue(), buffer.limit()));
+                }
+            } else {
+                sectionTrailer = readXrefStream(lexer);
+            }
+            if (trailer == null) {
+                trailer = sectionTrailer;
+            }
+            final Object previous = sectionTrailer.get("Prev");
+            position = previous instanceof Number ? ((Number) previous).intValue() : -1;
+        }
+        if (trailer == null) {
+            throw new IOException("no trailer");
+        }
+    }
+
+    private Map<String, Object> readXrefTable(final Lexer lexer) throws IOException {
+        while (true) {
+            final Object first = lexer.next();
+            if (!(first instanceof Number)) {
+                if (first instanceof String && "trailer".equals(first)) {
+                    return dictionary(lexer.next());
+                }
+                throw new IOException("broken xref table");
+            }
+            final int firstObject = ((Number) first).intValue();
+            final int count = ((Number) lexer.next()).intValue();
+            for (int index = 0; index < count; index++) {
+                final long offset = ((Number) lexer.next()).longValue();
+                lexer.next();
+                final Object type = lexer.next();
+                if ("n".equals(type) && !offsets.containsKey(firstObject + index)
+                        && !compressed.containsKey(firstObject + index)) {
+                    offsets.put(firstObject + index, offset);
+                }
+            }
+        }
+    }
+
+    private Map<String, Object> readXrefStream(final Lexer lexer) throws IOException {
+        lexer.next();
+        lexer.next();
+        if (!"obj".equals(lexer.next())) {
+            throw new IOException("no xref at startxref");
+        }
+        final Map<String, Object> dictionary = dictionary(lexer.next());
+        final byte[] data = streamData(lexer, dictionary);
+        final List<?> widths = (List<?>) dictionary.get("W");
+        final int[] width = new int[3];
+        for (int index = 0; index < 3; index++) {
+            width[index] = ((Number) widths.get(index)).intValue();
+        }
+        final int entrySize = width[0] + width[1] + width[2];
+        final Object indexValue = dictionary.get("Index");
+        final List<Integer> ranges = new ArrayList<>();
+        if (indexValue instanceof List) {
+            for (Object value : (List<?>) indexValue) {
+                ranges.add(((Number) value).intValue());
+            }
+        } else {
+            ranges.add(0);
+            ranges.add(((Number) dictionary.get("Size")).intValue());
+        }
+        int position = 0;
+        for (int range = 0; range + 1 < ranges.size(); range += 2) {
+            for (int index = 0; index < ranges.get(range + 1) && position + entrySize <= data.length; index++) {
+                final long type = width[0] == 0 ? 1 : field(data, position, width[0]);
+                final long second = field(data, position + width[0], width[1]);
+                final long third = field(data, position + width[0] + width[1], width[2]);
+                final int object = ranges.get(range) + index;
+                if (!offsets.containsKey(object) && !compressed.containsKey(object)) {
+                    if (type == 1) {
+                        offsets.put(object, second);
+                    } else if (type == 2) {
+                        compressed.put(object, new int[]{(int) second, (int) third});
+                    }
+                }
+                position += entrySize;
+            }
+        }
+        return dictionary;
+    }
+
+    private static long field(final byte[] data, final int position, final int width) {
+        long value = 0;
+        for (int index = 0; index < width; index++) {
+            value = (value << 8) | (data[position + index] & 0xff);
+        }
+        return value;
+    }
+
+    private Object resolve(final Object value) throws IOException {
+        Object current = value;
+        for (int depth = 0; current instanceof Ref && depth < 8; depth++) {
+            current = readObject(((Ref) current).number);
+        }
+        return current instanceof Ref ? null : current;
+    }
+
+    private Object readObject(final int number) throws IOException {
+        final Long offset = offsets.get(number);
+        if (offset != null) {
+            final Lexer lexer = new Lexer(buffer, offset.intValue(), buffer.limit());
+            lexer.next();
+            lexer.next();
+            if (!"obj".equals(lexer.next())) {
+                return null;
+            }
+            return lexer.next();
+        }
+        final int[] location = compressed.get(number);
+        if (location == null) {
+            return null;
+        }
+        List<Object> objects = objectStreams.get(location[0]);
+        if (objects == null) {
+            objects = readObjectStream(location[0]);
+            objectStreams.put(location[0], objects);
+        }
+        return location[1] < objects.size() ? objects.get(location[1]) : null;
+    }
+
+    private List<Object> readObjectStream(final int number) throws IOException {
+        final List<Object> objects = new ArrayList<>();
+        final Long offset = offsets.get(number);
+        if (offset == null) {
+            return objects;
+        }
+        final Lexer lexer = new Lexer(buffer, offset.intValue(), buffer.limit());
+        lexer.next();
+        lexer.next();
+        lexer.next();
+        final Map<String, Object> dictionary = dictionary(lexer.next());
+        final byte[] data = streamData(lexer, dictionary);
+        final int count = ((Number) dictionary.get("N")).intValue();
+        final int first = ((Number) dictionary.get("First")).intValue();
+        final ByteBuffer content = ByteBuffer.wrap(data);
+        final Lexer header = new Lexer(content, 0, first);
+        final int[] starts = new int[count];
+        for (int index = 0; index < count; index++) {
+            header.next();
+            starts[index] = first + ((Number) header.next()).intValue();
+        }
+        for (int index = 0; index < count; index++) {
+            objects.add(new Lexer(content, starts[index], data.length).next());
+        }
+        return objects;
+    }
+
+    /**
+     * Decoded data of the stream whose dictionary the lexer just read.
+     */
+    private byte[] streamData(final Lexer lexer, final Map<String, Object> dictionary) throws IOException {
+        if (!"stream".equals(lexer.next())) {
+            throw new IOException("no stream");
+        }
+        int start = lexer.position;
+        if (buffer(lexer).get(start) == '\r') {
+            start++;
+        }
+        if (buffer(lexer).get(start) == '\n') {
+            start++;
+        }
+        final Object length = resolve(dictionary.get("Length"));
+        final byte[] raw = new byte[((Number) length).intValue()];
+        final ByteBuffer source = buffer(lexer).duplicate();
+        source.position(start);
+        source.get(raw);
+        final Object filter = dictionary.get("Filter");
+        if (filter == null) {
+            return raw;
+        }
+        if (!isName(filter, "FlateDecode") && !(filter instanceof List && ((List<?>) filter).size() == 1
+                && isName(((List<?>) filter).get(0), "FlateDecode"))) {
+            throw new IOException("unsupported filter");
+        }
+        final byte[] inflated = inflate(raw);
+        Object parameters = resolve(dictionary.get("DecodeParms"));
+        if (parameters instanceof List) {
+            parameters = ((List<?>) parameters).isEmpty() ? null : resolve(((List<?>) parameters).get(0));
+        }
+        if (parameters instanceof Map) {
+            final Object predictor = ((Map<?, ?>) parameters).get("Predictor");
+            final Object columns = ((Map<?, ?>) parameters).get("Columns");
+            if (predictor instanceof Number && ((Number) predictor).intValue() >= 10) {
+                return unpredict(inflated, columns instanceof Number ? ((Number) columns).intValue() : 1);
+            }
+        }
+        return inflated;
+    }
+
+    private static ByteBuffer buffer(final Lexer lexer) {
+        return lexer.buffer;
+    }
+
+    private static byte[] inflate(final byte[] raw) throws IOException {
+        final Inflater inflater = new Inflater();
+        inflater.setInput(raw);
+        final ByteArrayOutputStream output = new ByteArrayOutputStream(raw.length * 4);
+        final byte[] chunk = new byte[8192];
+        try {
+            while (!inflater.finished()) {
+                final int count = inflater.inflate(chunk);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                output.write(chunk, 0, count);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("broken stream", e);
+        } finally {
+            inflater.end();
+        }
+        return output.toByteArray();
+    }
+
+    /**
+     * Reverses the PNG predictors, every row starts with its filter type.
+     */
+    private static byte[] unpredict(final byte[] data, final int columns) {
+        final int rows = data.length / (columns + 1);
+        final byte[] result = new byte[rows * columns];
+        for (int row = 0; row < rows; row++) {
+            final int filter = data[row * (columns + 1)] & 0xff;
+            for (int column = 0; column < columns; column++) {
+                final int raw = data[row * (columns + 1) + 1 + column] & 0xff;
+                final int left = column > 0 ? result[row * columns + column - 1] & 0xff : 0;
+                final int up = row > 0 ? result[(row - 1) * columns + column] & 0xff : 0;
+                final int upLeft = row > 0 && column > 0 ? result[(row - 1) * columns + column - 1] & 0xff : 0;
+                final int value;
+                switch (filter) {
+                    case 1:
+                        value = raw + left;
+                        break;
+                    case 2:
+                        value = raw + up;
+                        break;
+                    case 3:
+                        value = raw + (left + up) / 2;
+                        break;
+                    case 4:
+                        final int estimate = left + up - upLeft;
+                        final int distanceLeft = Math.abs(estimate - left);
+                        final int distanceUp = Math.abs(estimate - up);
+                        final int distanceUpLeft = Math.abs(estimate - upLeft);
+                        value = raw + (distanceLeft <= distanceUp && distanceLeft <= distanceUpLeft ? left
+                                : distanceUp <= distanceUpLeft ? up : upLeft);
+                        break;
+                    default:
+                        value = raw;
+                }
+                result[row * columns + column] = (byte) value;
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> dictionary(final Object value) throws IOException {
+        if (!(value instanceof Map)) {
+            throw new IOException("dictionary expected");
+        }
+        return (Map<String, Object>) value;
+    }
+
+    private static boolean isName(final Object value, final String name) {
+        return value instanceof Name && ((Name) value).value.equals(name);
+    }
+
+    private String ascii(final int from, final int to) {
+        final byte[] bytes = new byte[to - from];
+        final ByteBuffer source = buffer.duplicate();
+        source.position(from);
+        source.get(bytes);
+        return new String(bytes, StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Reads PDF objects: numbers, references, names, strings, arrays, dictionaries and keywords. Strings are skipped,
+     * their content is not needed for the estimate.
+     */
+    private static final class Lexer {
+        private final ByteBuffer buffer;
+        private final int end;
+        private int position;
+
+        private Lexer(final ByteBuffer buffer, final int position, final int end) {
+            this.buffer = buffer;
+            this.position = position;
+            this.end = end;
+        }
+
+        private String peekKeyword() {
+            final int saved = position;
+            skipWhitespace();
+            final StringBuilder keyword = new StringBuilder();
+            while (position < end && isRegular(buffer.get(position))) {
+                keyword.append((char) buffer.get(position++));
+            }
+            position = saved;
+            return keyword.toString();
+        }
+
+        private Object next() throws IOException {
+            skipWhitespace();
+            if (position >= end) {
+                throw new IOException("unexpected end");
+            }
+            final int character = buffer.get(position) & 0xff;
+            if (character == '/') {
+                position++;
+                final StringBuilder name = new StringBuilder();
+                while (position < end && isRegular(buffer.get(position))) {
+                    name.append((char) buffer.get(position++));
+                }
+                return new Name(name.toString());
+            }
+            if (character == '[') {
+                position++;
+                final List<Object> array = new ArrayList<>();
+                while (true) {
+                    skipWhitespace();
+                    if (position < end && buffer.get(position) == ']') {
+                        position++;
+                        return array;
+                    }
+                    array.add(next());
+                    reduceReference(array);
+                }
+            }
+            if (character == '<' && position + 1 < end && buffer.get(position + 1) == '<') {
+                position += 2;
+                final List<Object> entries = new ArrayList<>();
+                while (true) {
+                    skipWhitespace();
+                    if (position + 1 < end && buffer.get(position) == '>' && buffer.get(position + 1) == '>') {
+                        position += 2;
+                        break;
+                    }
+                    entries.add(next());
+                    reduceReference(entries);
+                }
+                final Map<String, Object> dictionary = new HashMap<>();
+                for (int index = 0; index + 1 < entries.size(); index += 2) {
+                    if (entries.get(index) instanceof Name) {
+                        dictionary.put(((Name) entries.get(index)).value, entries.get(index + 1));
+                    }
+                }
+                return dictionary;
+            }
+            if (character == '<') {
+                while (position < end && buffer.get(position) != '>') {
+                    position++;
+                }
+                position++;
+                return "";
+            }
+            if (character == '(') {
+                skipString();
+                return "";
+            }
+            if (character == '+' || character == '-' || character == '.' || character >= '0' && character <= '9') {
+                final int start = position;
+                position++;
+                while (position < end && isRegular(buffer.get(position))) {
+                    position++;
+                }
+                final String number = new String(bytes(start, position), StandardCharsets.ISO_8859_1);
+                try {
+                    return number.contains(".") ? (Object) Double.parseDouble(number) : (Object) Long.parseLong(number);
+                } catch (NumberFormatException e) {
+                    return 0L;
+                }
+            }
+            final StringBuilder keyword = new StringBuilder();
+            while (position < end && isRegular(buffer.get(position))) {
+                keyword.append((char) buffer.get(position++));
+            }
+            if (keyword.length() == 0) {
+                position++;
+                return NULL;
+            }
+            final String value = keyword.toString();
+            if ("null".equals(value)) {
+                return NULL;
+            }
+            if ("true".equals(value) || "false".equals(value)) {
+                return Boolean.valueOf(value);
+            }
+            return value;
+        }
+
+        /**
+         * Folds "number generation R" at the end of the list into a reference.
+         */
+        private static void reduceReference(final List<Object> values) {
+            final int size = values.size();
+            if (size >= 3 && "R".equals(values.get(size - 1)) && values.get(size - 2) instanceof Long
+                    && values.get(size - 3) instanceof Long) {
+                final int number = ((Long) values.get(size - 3)).intValue();
+                values.subList(size - 3, size).clear();
+                values.add(new Ref(number));
+            }
+        }
+
+        private void skipString() {
+            int depth = 0;
+            while (position < end) {
+                final byte character = buffer.get(position++);
+                if (character == '\\') {
+                    position++;
+                } else if (character == '(') {
+                    depth++;
+                } else if (character == ')' && --depth == 0) {
+                    return;
+                }
+            }
+        }
+
+        private void skipWhitespace() {
+            while (position < end) {
+                final byte character = buffer.get(position);
+                if (character == '%') {
+                    while (position < end && buffer.get(position) != '\n' && buffer.get(position) != '\r') {
+                        position++;
+                    }
+                } else if (character == ' ' || character == '\n' || character == '\r' || character == '\t'
+                        || character == '\f' || character == 0) {
+                    position++;
+                } else {
+                    return;
+                }
+            }
+        }
+
+        private byte[] bytes(final int from, final int to) {
+            final byte[] bytes = new byte[to - from];
+            final ByteBuffer source = buffer.duplicate();
+            source.position(from);
+            source.get(bytes);
+            return bytes;
+        }
+
+        private static boolean isRegular(final byte character) {
+            switch (character) {
+                case ' ':
+                case '\n':
+                case '\r':
+                case '\t':
+                case '\f':
+                case 0:
+                case '(':
+                case ')':
+                case '<':
+                case '>':
+                case '[':
+                case ']':
+                case '{':
+                case '}':
+                case '/':
+                case '%':
+                    return false;
+                default:
+                    return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes precompressed .gz and optionally .br siblings of the pages, so the web server can send them as they are
+ * instead of compressing on every request. Pages are handed over as soon as their task finished and compressed by a
+ * small pool while the rendering goes on; when the pool is full the finishing worker compresses its own pages, which
+ * keeps the backlog bounded. Brotli needs the brotli command line tool.
+ */
+class Precompressor implements TaskObserver {
+    private static final String GZIP_EXTENSION = ".gz";
+    private static final String BROTLI_EXTENSION = ".br";
+    private static final String[] COMPRESSIBLE_EXTENSIONS = {".html", ".css", ".js", ".svg", ".json"};
+    private static final int QUEUED_FILES_PER_THREAD = 16;
+
+    private final String brotliPath;
+    private final ThreadPoolExecutor pool;
+    private final Set<File> submitted = ConcurrentHashMap.newKeySet();
+    private final AtomicLong files = new AtomicLong();
+    private final AtomicLong originalBytes = new AtomicLong();
+    private final AtomicLong gzipBytes = new AtomicLong();
+    private final AtomicLong brotliBytes = new AtomicLong();
+
+    /**
+     * @param brotliPath brotli executable, null for gzip only
+     */
+    public Precompressor(final int threads, final String brotliPath) {
+        this.brotliPath = brotliPath;
+        this.pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * QUEUED_FILES_PER_THREAD),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    /**
+     * The brotli executable on the PATH, or null when there is none.
+     */
+    public static String findBrotli() {
+        final String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        for (String directory : path.split(File.pathSeparator)) {
+            for (String name : new String[]{"brotli", "brotli.exe"}) {
+                final File candidate = new File(directory, name);
+                if (candidate.isFile() && candidate.canExecute()) {
+                    return candidate.getAbsolutePath();
+                }
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (success) {
+            for (File output : task.getOutputs()) {
+                submit(output);
+            }
+        }
+    }
+
+    public void submit(final File file) {
+        if (!submitted.add(file)) {
+            return;
+        }
+        pool.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    compress(file);
+                } catch (IOException | InterruptedException ex) {
+                    System.out.println("Can not compress " + file + ": " + ex.getMessage());
+                }
+            }
+        });
+    }
+
+    /**
+     * Compresses what the tasks did not hand over, pages restored from the cache or a resumed run and shared
+     * assets, then waits for the pool and prints the savings.
+     */
+    public void finish(final File htmlDirectory) throws InterruptedException {
+        sweep(htmlDirectory);
+        pool.shutdown();
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        final long original = originalBytes.get();
+        System.out.println(String.format(Locale.ROOT, "Precompressed %d files of %d KB: gzip %d KB (%.1f%% saved)%s",
+                files.get(), original / 1024, gzipBytes.get() / 1024, saved(original, gzipBytes.get()),
+                brotliPath == null ? "" : String.format(Locale.ROOT, ", brotli %d KB (%.1f%% saved)",
+                        brotliBytes.get() / 1024, saved(original, brotliBytes.get()))));
+    }
+
+    private void sweep(final File directory) {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            if (child.isDirectory()) {
+                sweep(child);
+            } else if (isCompressible(child.getName())) {
+                final File gzip = new File(child.getPath() + GZIP_EXTENSION);
+                if (!gzip.isFile() || gzip.lastModified() < child.lastModified()) {
+                    submit(child);
+                }
+            }
+        }
+    }
+
+    private static boolean isCompressible(final String name) {
+        for (String extension : COMPRESSIBLE_EXTENSIONS) {
+            if (name.endsWith(extension)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compress(final File file) throws IOException, InterruptedException {
+        if (!file.isFile()) {
+            return;
+        }
+        final File gzip = new File(file.getPath() + GZIP_EXTENSION);
+        final File gzipTemporary = new File(file.getPath() + GZIP_EXTENSION + ".tmp");
+        try (OutputStream outputStream = new BestGzipOutputStream(Files.newOutputStream(gzipTemporary.toPath()))) {
+            Files.copy(file.toPath(), outputStream);
+        }
+        Files.move(gzipTemporary.toPath(), gzip.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        files.incrementAndGet();
+        originalBytes.addAndGet(file.length());
+        gzipBytes.addAndGet(gzip.length());
+
+        if (brotliPath != null) {
+            final File brotli = new File(file.getPath() + BROTLI_EXTENSION);
+            final File brotliTemporary = new File(file.getPath() + BROTLI_EXTENSION + ".tmp");
+            final Process process = new ProcessBuilder(brotliPath, "-q", "11", "-f", "-o",
+                    brotliTemporary.getPath(), file.getPath()).redirectErrorStream(true)
+                    .redirectOutput(ProcessBuilder.Redirect.DISCARD).start();
+            if (process.waitFor() != 0) {
+                brotliTemporary.delete();
+                throw new IOException("brotli exited with " + process.exitValue());
+            }
+            Files.move(brotliTemporary.toPath(), brotli.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            brotliBytes.addAndGet(brotli.length());
+        }
+    }
+
+    /**
+     * Compressed once and served many times, so the slowest level pays off.
+     */
+    private static class BestGzipOutputStream extends GZIPOutputStream {
+        private BestGzipOutputStream(final OutputStream outputStream) throws IOException {
+            super(outputStream);
+            def.setLevel(Deflater.BEST_COMPRESSION);
+        }
+    }
+
+    private static double saved(final long original, final long compressed) {
+        return original == 0 ? 0 : (original - compressed) * 100.0 / original;
+    }
+}
@@ -0,0 +1,90 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+
+/**
+ * Writes html/preview.ready once the cover and the chapter openers are rendered, so a book can be published as
+ * browsable while the rest of its pages are still on the way. Counts the pages of the prioritized tasks, so retries
+ * and split tasks do not matter. When a prioritized page is quarantined the marker is not written.
+ */
+class PreviewMarker implements TaskObserver {
+    public static final String FILE_NAME = "preview.ready";
+
+    private final RenderJob job;
+    private final File marker;
+    private final RenderListener listener;
+    private int missingPages;
+    private int previewPages;
+    private boolean written;
+
+    /**
+     * @param listener told about the preview as well, may be null
+     */
+    public PreviewMarker(final RenderJob job, final File htmlDirectory, final RenderListener listener) {
+        this.job = job;
+        this.marker = new File(htmlDirectory, FILE_NAME);
+        this.listener = listener;
+    }
+
+    public void planned(final List<RenderTask> tasks) {
+        synchronized (this) {
+            for (RenderTask task : tasks) {
+                if (task.getPriority() != RenderTask.Priority.REST) {
+                    missingPages += task.getPageCount();
+                }
+            }
+            previewPages = missingPages;
+        }
+        checkReady();
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (success && task.getPriority() != RenderTask.Priority.REST) {
+            synchronized (this) {
+                missingPages -= task.getPageCount();
+            }
+            checkReady();
+        }
+    }
+
+    private void checkReady() {
+        synchronized (this) {
+            if (written || missingPages > 0) {
+                return;
+            }
+            written = true;
+        }
+        final File temporary = new File(marker.getPath() + ".tmp");
+        marker.getParentFile().mkdirs();
+        try (PrintWriter writer = new PrintWriter(Files.newBufferedWriter(temporary.toPath(),
+                StandardCharsets.UTF_8))) {
+            writer.println("{\"job\": " + Json.quote(job.getId()) + ", \"previewPages\": " + previewPages
+                    + ", \"time\": " + System.currentTimeMillis() + "}");
+        } catch (IOException e) {
+            System.out.println("Can not write " + marker + ": " + e.getMessage());
+            return;
+        }
+        try {
+            Files.move(temporary.toPath(), marker.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.out.println("Can not write " + marker + ": " + e.getMessage());
+            return;
+        }
+        System.out.println("Preview ready: " + marker);
+        if (listener != null) {
+            listener.previewReady(job, marker);
+        }
+    }
+}
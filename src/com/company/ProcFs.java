@@ -0,0 +1,108 @@
+package com.company;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Reads process and machine figures from /proc. Every method returns -1 when the figure is not available, e.g. on a
+ * system without /proc or once the process is gone.
+ */
+final class ProcFs {
+    private static final long CLOCK_TICKS_PER_SECOND = 100;
+    // zero based positions in the whole stat line
+    private static final int UTIME_FIELD = 13;
+    private static final int STIME_FIELD = 14;
+
+    private ProcFs() {
+    }
+
+    /**
+     * User plus system cpu time of the process.
+     */
+    public static long getCpuMillis(final ProcessHandle handle) {
+        final String stat = read("/proc/" + handle.pid() + "/stat");
+        if (stat != null) {
+            // the command name may contain spaces, so split after its closing parenthesis, which drops pid and name
+            final String[] fields = stat.substring(stat.lastIndexOf(')') + 2).split(" ");
+            try {
+                final long ticks = Long.parseLong(fields[UTIME_FIELD - 2]) + Long.parseLong(fields[STIME_FIELD - 2]);
+                return ticks * 1000 / CLOCK_TICKS_PER_SECOND;
+            } catch (RuntimeException e) {
+                return -1;
+            }
+        }
+        final Optional<Duration> duration = handle.info().totalCpuDuration();
+        return duration.isPresent() ? duration.get().toMillis() : -1;
+    }
+
+    /**
+     * Resident set size of the process.
+     */
+    public static long getRssBytes(final ProcessHandle handle) {
+        return readKilobytes("/proc/" + handle.pid() + "/status", "VmRSS:");
+    }
+
+    /**
+     * Peak resident set size of the process so far.
+     */
+    public static long getPeakRssBytes(final ProcessHandle handle) {
+        return readKilobytes("/proc/" + handle.pid() + "/status", "VmHWM:");
+    }
+
+    /**
+     * Memory the kernel considers available for new work without swapping.
+     */
+    public static long getAvailableMemoryBytes() {
+        return readKilobytes("/proc/meminfo", "MemAvailable:");
+    }
+
+    /**
+     * Physical memory of the machine.
+     */
+    public static long getTotalMemoryBytes() {
+        return readKilobytes("/proc/meminfo", "MemTotal:");
+    }
+
+    /**
+     * Load average over the last minute.
+     */
+    public static double getLoadAverage() {
+        final String loadAverage = read("/proc/loadavg");
+        if (loadAverage == null) {
+            return -1;
+        }
+        try {
+            return Double.parseDouble(loadAverage.split(" ")[0]);
+        } catch (RuntimeException e) {
+            return -1;
+        }
+    }
+
+    private static long readKilobytes(final String file, final String key) {
+        try {
+            final List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+            for (String line : lines) {
+                if (line.startsWith(key)) {
+                    final String value = line.substring(key.length()).trim();
+                    return Long.parseLong(value.split("\\s+")[0]) * 1024;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            return -1;
+        }
+        return -1;
+    }
+
+    private static String read(final String file) {
+        try {
+            return new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.UTF_8).trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
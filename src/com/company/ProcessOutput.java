@@ -0,0 +1,119 @@
+package com.company;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drains the merged stdout/stderr of a renderer process on its own thread, so a chatty pdf2htmlEX never blocks on a
+ * full pipe. Only the last lines are kept; warnings and errors are turned into diagnostics attributed to the page
+ * pdf2htmlEX was working on.
+ */
+class ProcessOutput implements Runnable {
+    private static final int MAX_TAIL_LINES = 200;
+    private static final int MAX_DIAGNOSTICS = 1000;
+    private static final Pattern PROGRESS = Pattern.compile("Working:\\s*(\\d+)/(\\d+)");
+    private static final Pattern DIAGNOSTIC = Pattern.compile("(?i)^(?:syntax |internal )?(warning|error)\\b.*");
+
+    private final InputStream inputStream;
+    private final int firstPage;
+    private final ArrayDeque<String> tail = new ArrayDeque<>();
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int droppedDiagnostics;
+    private int currentPage;
+    private Thread thread;
+
+    public ProcessOutput(final InputStream inputStream, final int firstPage) {
+        this.inputStream = inputStream;
+        this.firstPage = firstPage;
+        this.currentPage = firstPage;
+    }
+
+    public void start(final String name) {
+        thread = Threads.start(name + "-output", this);
+    }
+
+    /**
+     * Waits until the process closed its output.
+     */
+    public void join() throws InterruptedException {
+        if (thread != null) {
+            thread.join();
+        }
+    }
+
+    @Override
+    public void run() {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                handle(line);
+            }
+        } catch (IOException e) {
+            // the process went away, whatever was read is kept
+        }
+    }
+
+    private synchronized void handle(final String line) {
+        if (tail.size() == MAX_TAIL_LINES) {
+            tail.removeFirst();
+        }
+        tail.addLast(line);
+        final Matcher progress = PROGRESS.matcher(line);
+        if (progress.find()) {
+            currentPage = firstPage + Integer.parseInt(progress.group(1)) - 1;
+            return;
+        }
+        final Matcher diagnostic = DIAGNOSTIC.matcher(line.trim());
+        if (diagnostic.matches()) {
+            if (diagnostics.size() < MAX_DIAGNOSTICS) {
+                diagnostics.add(new Diagnostic(currentPage, diagnostic.group(1).toLowerCase(), line.trim()));
+            } else {
+                droppedDiagnostics++;
+            }
+        }
+    }
+
+    public synchronized List<String> getTail() {
+        return new ArrayList<>(tail);
+    }
+
+    public synchronized List<Diagnostic> getDiagnostics() {
+        return new ArrayList<>(diagnostics);
+    }
+
+    public synchronized int getDroppedDiagnostics() {
+        return droppedDiagnostics;
+    }
+}
+
+class Diagnostic {
+    private final int page;
+    private final String severity;
+    private final String message;
+
+    public Diagnostic(final int page, final String severity, final String message) {
+        this.page = page;
+        this.severity = severity;
+        this.message = message;
+    }
+
+    public int getPage() {
+        return page;
+    }
+
+    public String getSeverity() {
+        return severity;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+}
@@ -0,0 +1,47 @@
+package com.company;
+
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One timer thread which samples the resource usage of all running renderers and enforces their limits, so the
+ * thread of a render task only waits for its process to exit.
+ */
+final class ProcessSupervisor {
+    private static final long INTERVAL_MILLIS = 100;
+    private static final ScheduledExecutorService TIMER = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "process-supervisor");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private ProcessSupervisor() {
+    }
+
+    /**
+     * Runs the check periodically until the process exits.
+     */
+    public static void watch(final Process process, final Runnable check) {
+        final ScheduledFuture<?> future = TIMER.scheduleAtFixedRate(new Runnable() {
+            @Override
+            public void run() {
+                if (process.isAlive()) {
+                    check.run();
+                }
+            }
+        }, INTERVAL_MILLIS, INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+        process.onExit().thenRun(new Runnable() {
+            @Override
+            public void run() {
+                future.cancel(false);
+            }
+        });
+    }
+}
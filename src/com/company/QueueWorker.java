@@ -0,0 +1,192 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Worker node of a distributed render: claims tasks from a shared {@link WorkQueue}, renders them with the local
+ * renderer under the limits the coordinator set, and publishes the results. Leases are renewed while a task renders;
+ * when a lease is lost the render is killed, as the task already runs elsewhere.
+ * Runs until the stop file appears in the queue folder.
+ */
+class QueueWorker {
+    private static final long IDLE_SLEEP_MILLIS = 500;
+
+    private final WorkQueue queue;
+    private final String rendererPath;
+    private final int threadCount;
+    private final ConcurrencyController controller;
+    private final Map<File, RenderTask> leases = new ConcurrentHashMap<>();
+
+    /**
+     * @param controller decides how many of the threads render at once, null to let all of them run
+     */
+    public QueueWorker(final WorkQueue queue, final String rendererPath, final int threadCount,
+                       final ConcurrencyController controller) {
+        this.queue = queue;
+        this.rendererPath = rendererPath;
+        this.threadCount = threadCount;
+        this.controller = controller;
+    }
+
+    public void run() throws InterruptedException {
+        System.out.println("Worker " + queue.getNodeId() + " taking tasks with " + threadCount + " threads");
+        final ConcurrencyController.Share share = controller == null ? null : controller.newShare(0);
+        if (controller != null) {
+            controller.start();
+        }
+        final Thread renewer = Threads.start("lease-renewer", new Runnable() {
+            @Override
+            public void run() {
+                renewLeases();
+            }
+        });
+        final List<Thread> threads = new ArrayList<>();
+        for (int index = 0; index < threadCount; index++) {
+            final String workerId = queue.getNodeId() + "-" + index;
+            threads.add(Threads.start("queue-worker-" + index, new Runnable() {
+                @Override
+                public void run() {
+                    work(workerId, share);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        renewer.interrupt();
+        if (controller != null) {
+            controller.stop();
+        }
+        System.out.println("Worker " + queue.getNodeId() + " stopped");
+    }
+
+    private void work(final String workerId, final ConcurrencyController.Share share) {
+        while (!queue.isStopped()) {
+            ConcurrencyController.Slot slot = null;
+            try {
+                if (controller != null) {
+                    slot = controller.tryAcquire(share, IDLE_SLEEP_MILLIS);
+                    if (slot == null) {
+                        continue;
+                    }
+                }
+                final File lease = queue.claim(workerId);
+                if (lease == null) {
+                    Thread.sleep(IDLE_SLEEP_MILLIS);
+                    continue;
+                }
+                render(lease);
+            } catch (InterruptedException e) {
+                return;
+            } catch (IOException | RuntimeException ex) {
+                System.out.println("Worker " + workerId + " failed: " + ex.getMessage());
+            } finally {
+                if (slot != null) {
+                    slot.release();
+                }
+            }
+        }
+    }
+
+    private void render(final File lease) throws IOException {
+        final Properties properties = queue.readTask(lease);
+        final RenderTask task;
+        try {
+            task = createTask(properties);
+        } catch (IllegalArgumentException e) {
+            // anyone who can write to the queue folder can drop a task, so report it instead of running it
+            System.out.println("Rejected task " + lease.getName() + ": " + e.getMessage());
+            final Properties result = new Properties();
+            result.setProperty("exitCode", "1");
+            result.setProperty("failureReason", "rejected: " + e.getMessage());
+            result.setProperty("worker", queue.getNodeId());
+            queue.complete(lease, result);
+            return;
+        }
+
+        leases.put(lease, task);
+        boolean success = false;
+        try {
+            success = task.call() == 1;
+        } catch (Exception ex) {
+            System.out.println("Task " + task.getName() + " failed: " + ex.getMessage());
+        } finally {
+            leases.remove(lease);
+        }
+
+        final Properties result = new Properties();
+        result.setProperty("exitCode", success ? "0" : "1");
+        if (task.getFailureReason() != null) {
+            result.setProperty("failureReason", task.getFailureReason());
+        }
+        result.setProperty("worker", queue.getNodeId());
+        result.setProperty("cpuMillis", String.valueOf(task.getCpuMillis()));
+        result.setProperty("peakRssBytes", String.valueOf(task.getPeakRssBytes()));
+        for (int index = 0; index < task.getOutputTail().size(); index++) {
+            result.setProperty("tail." + index, task.getOutputTail().get(index));
+        }
+        for (int index = 0; index < task.getDiagnostics().size(); index++) {
+            final Diagnostic diagnostic = task.getDiagnostics().get(index);
+            result.setProperty("diagnostic." + index + ".page", String.valueOf(diagnostic.getPage()));
+            result.setProperty("diagnostic." + index + ".severity", diagnostic.getSeverity());
+            result.setProperty("diagnostic." + index + ".message", diagnostic.getMessage());
+        }
+        if (!queue.complete(lease, result)) {
+            System.out.println("lease of " + task.getName() + " was lost, dropping its result");
+        }
+    }
+
+    /**
+     * Builds the task and its commands for the local renderer from the values of a queued task.
+     */
+    private RenderTask createTask(final Properties properties) {
+        final RenderTask task;
+        final long memoryLimitBytes;
+        try {
+            task = new RenderTask(properties.getProperty("name"),
+                    Integer.parseInt(properties.getProperty("chapterIndex")),
+                    Integer.parseInt(properties.getProperty("startPage")),
+                    Integer.parseInt(properties.getProperty("endPage")));
+            task.setTimeouts(Long.parseLong(properties.getProperty("wallTimeoutMillis", "0")),
+                    Long.parseLong(properties.getProperty("cpuTimeoutMillis", "0")));
+            memoryLimitBytes = Long.parseLong(properties.getProperty("memoryLimitBytes", "0"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("not a number: " + e.getMessage());
+        }
+        if (task.getName() == null || !task.getName().matches("[A-Za-z0-9._-]+")) {
+            throw new IllegalArgumentException("not a task name: " + task.getName());
+        }
+        task.setMemoryLimit(memoryLimitBytes);
+        for (int commandIndex = 0; RenderCommand.isStored(properties, "command." + commandIndex + ".");
+             commandIndex++) {
+            task.addCommand(RenderCommand.load(properties, "command." + commandIndex + ".", rendererPath,
+                    memoryLimitBytes));
+        }
+        if (task.getCommands().isEmpty()) {
+            throw new IllegalArgumentException("no command");
+        }
+        return task;
+    }
+
+    private void renewLeases() {
+        while (!Thread.currentThread().isInterrupted()) {
+            try {
+                Thread.sleep(queue.getLeaseMillis() / 3);
+            } catch (InterruptedException e) {
+                return;
+            }
+            for (Map.Entry<File, RenderTask> entry : leases.entrySet()) {
+                if (!queue.renew(entry.getKey())) {
+                    System.out.println("lease of " + entry.getValue().getName() + " was lost, stopping it");
+                    entry.getValue().cancel();
+                }
+            }
+        }
+    }
+}
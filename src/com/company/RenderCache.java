@@ -0,0 +1,230 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Persistent store of rendered outputs, addressed by the PDF content hash, the page range and the renderer options.
+ * Entries are shared with html/ by hard link when the file system allows it, and copied otherwise. The store is
+ * bounded in size; the least recently used entries are evicted first.
+ */
+class RenderCache {
+    private static final String OBJECTS_FOLDER = "objects";
+    private static final double EVICT_TO_RATIO = 0.9;
+
+    private final File directory;
+    private final long maxBytes;
+    private final String inputHash;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+    private final AtomicInteger stores = new AtomicInteger();
+    private File assetsDirectory;
+
+    public RenderCache(final File directory, final long maxBytes, final String pdfHash,
+                       final String rendererOptions) {
+        this.directory = new File(directory, OBJECTS_FOLDER);
+        this.maxBytes = maxBytes;
+        this.inputHash = Checksums.sha256(pdfHash + "|" + rendererOptions);
+        this.directory.mkdirs();
+    }
+
+    /**
+     * Makes the cache keep the shared assets a cached page refers to, so restoring the page restores them too.
+     */
+    public void setAssetsDirectory(final File assetsDirectory) {
+        this.assetsDirectory = assetsDirectory;
+    }
+
+    /**
+     * Key of the output rendered from pages first..last. The variant tells apart outputs of the same pages which are
+     * produced differently, e.g. a single page render and a page split out of a chunk.
+     */
+    public String key(final int first, final int last, final String variant) {
+        return Checksums.sha256(inputHash + "|" + first + "|" + last + "|" + variant);
+    }
+
+    /**
+     * Puts the cached output for the key at target. Returns false when the key is not cached.
+     */
+    public boolean restore(final String key, final File target) {
+        final File entry = getEntry(key);
+        if (!entry.isFile()) {
+            misses.incrementAndGet();
+            return false;
+        }
+        try {
+            if (!restoreAssets(entry)) {
+                misses.incrementAndGet();
+                return false;
+            }
+            target.getParentFile().mkdirs();
+            Files.deleteIfExists(target.toPath());
+            linkOrCopy(entry, target);
+            entry.setLastModified(System.currentTimeMillis());
+            hits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    public void store(final String key, final File source) throws IOException {
+        storeAssets(source);
+        storeEntry(key, source);
+        stores.incrementAndGet();
+    }
+
+    private void storeEntry(final String key, final File source) throws IOException {
+        final File entry = getEntry(key);
+        entry.getParentFile().mkdirs();
+        final File temporary = new File(entry.getParentFile(), entry.getName() + "." + Thread.currentThread().getId()
+                + ".tmp");
+        Files.deleteIfExists(temporary.toPath());
+        linkOrCopy(source, temporary);
+        Files.move(temporary.toPath(), entry.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void storeAssets(final File source) throws IOException {
+        if (assetsDirectory == null || !isTextFile(source)) {
+            return;
+        }
+        final String content = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+        for (String name : AssetDeduplicator.referencedAssets(content)) {
+            final File asset = new File(assetsDirectory, name);
+            final File entry = getEntry(assetKey(name));
+            if (asset.isFile() && !entry.isFile()) {
+                storeAssets(asset);
+                storeEntry(assetKey(name), asset);
+            }
+        }
+    }
+
+    private boolean restoreAssets(final File source) throws IOException {
+        if (assetsDirectory == null || !isTextFile(source)) {
+            return true;
+        }
+        final String content = new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+        for (String name : AssetDeduplicator.referencedAssets(content)) {
+            final File asset = new File(assetsDirectory, name);
+            if (asset.isFile()) {
+                continue;
+            }
+            final File entry = getEntry(assetKey(name));
+            if (!entry.isFile() || (name.endsWith(".css") && !restoreAssets(entry))) {
+                return false;
+            }
+            assetsDirectory.mkdirs();
+            try {
+                linkOrCopy(entry, asset);
+            } catch (FileAlreadyExistsException e) {
+                // restored by another page in the meantime
+            }
+            entry.setLastModified(System.currentTimeMillis());
+        }
+        return true;
+    }
+
+    private String assetKey(final String name) {
+        return Checksums.sha256("asset|" + name);
+    }
+
+    private static boolean isTextFile(final File file) {
+        final String name = file.getName();
+        return name.endsWith(".html") || name.endsWith(".css") || !name.contains(".");
+    }
+
+    /**
+     * Mapper which stores the outputs of a task once it rendered successfully.
+     */
+    public OutputMapper storer(final Map<String, File> outputs) {
+        return new OutputMapper() {
+            @Override
+            public void map(RenderTask task) throws IOException {
+                for (Map.Entry<String, File> output : outputs.entrySet()) {
+                    if (output.getValue().isFile()) {
+                        store(output.getKey(), output.getValue());
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes the least recently used entries until the cache fits in its size bound again.
+     */
+    public void evict() {
+        final List<File> entries = new ArrayList<>();
+        collectEntries(directory, entries);
+        long totalBytes = 0;
+        for (File entry : entries) {
+            totalBytes += entry.length();
+        }
+        if (totalBytes <= maxBytes) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        final long target = (long) (maxBytes * EVICT_TO_RATIO);
+        int evicted = 0;
+        for (File entry : entries) {
+            if (totalBytes <= target) {
+                break;
+            }
+            final long length = entry.length();
+            if (entry.delete()) {
+                totalBytes -= length;
+                evicted++;
+            }
+        }
+        System.out.println("cache: evicted " + evicted + " entries");
+    }
+
+    public void printSummary() {
+        System.out.println("cache: " + hits.get() + " hits, " + misses.get() + " misses, " + stores.get()
+                + " stored");
+    }
+
+    private File getEntry(final String key) {
+        return new File(new File(directory, key.substring(0, 2)), key);
+    }
+
+    private static void collectEntries(final File folder, final List<File> entries) {
+        final File[] files = folder.listFiles();
+        if (files == null) {
+            return;
+        }
+        for (File file : files) {
+            if (file.isDirectory()) {
+                collectEntries(file, entries);
+            } else if (!file.getName().endsWith(".tmp")) {
+                entries.add(file);
+            }
+        }
+    }
+
+    private static void linkOrCopy(final File source, final File target) throws IOException {
+        try {
+            Files.createLink(target.toPath(), source.toPath());
+        } catch (FileAlreadyExistsException e) {
+            throw e;
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package com.company;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * One pdf2htmlEX invocation as what it renders (pages, zoom, PDF, output) rather than as a command line. The command
+ * line is only built where the renderer runs, so a task published to a {@link WorkQueue} carries plain values and a
+ * worker never runs a program it was handed.
+ */
+final class RenderCommand {
+    private static final String PRLIMIT = "/usr/bin/prlimit";
+    private static final String[] EMBED_OPTIONS = {"--embed-css", "--embed-font", "--embed-image",
+            "--embed-javascript", "--embed-outline"};
+
+    private final String rendererPath;
+    private final int firstPage;
+    private final int lastPage;
+    private final float zoom;
+    private final boolean externalAssets;
+    private final String destDirectory;
+    private final String pdfFilePath;
+    private final String outputFileName;
+    private final String pageFileName;
+    private final long memoryLimitBytes;
+
+    /**
+     * @param externalAssets whether css, fonts, images, javascript and outline are written as files of their own
+     * @param pageFileName   template of the file of every page for --split-pages, null for a single file
+     * @param memoryLimitBytes address space limit set through prlimit, 0 for none
+     */
+    public RenderCommand(final String rendererPath, final int firstPage, final int lastPage, final float zoom,
+                         final boolean externalAssets, final String destDirectory, final String pdfFilePath,
+                         final String outputFileName, final String pageFileName, final long memoryLimitBytes) {
+        this.rendererPath = rendererPath;
+        this.firstPage = firstPage;
+        this.lastPage = lastPage;
+        this.zoom = zoom;
+        this.externalAssets = externalAssets;
+        this.destDirectory = destDirectory;
+        this.pdfFilePath = pdfFilePath;
+        this.outputFileName = outputFileName;
+        this.pageFileName = pageFileName;
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+
+    public List<String> toArguments() {
+        final List<String> command = new ArrayList<>();
+        if (memoryLimitBytes > 0 && new File(PRLIMIT).canExecute()) {
+            // hard backstop in the kernel, the supervisor only notices between two samples
+            command.add(PRLIMIT);
+            command.add("--data=" + memoryLimitBytes);
+            command.add("--");
+        }
+        command.add(rendererPath);
+        command.add("-f");
+        command.add(String.valueOf(firstPage));
+        command.add("-l");
+        command.add(String.valueOf(lastPage));
+        command.add("--zoom");
+        command.add(String.valueOf(zoom));
+        command.add("--process-outline");
+        command.add("0");
+        if (externalAssets) {
+            for (String embedOption : EMBED_OPTIONS) {
+                command.add(embedOption);
+                command.add("0");
+            }
+        }
+        command.add("--dest-dir");
+        command.add(destDirectory);
+        if (pageFileName != null) {
+            // options must come before the positional pdf and html arguments
+            command.addAll(Arrays.asList("--split-pages", "1", "--page-filename", pageFileName));
+        }
+        command.add(pdfFilePath);
+        command.add(outputFileName);
+        return command;
+    }
+
+    /**
+     * Stores the values, not the renderer, under the given key prefix.
+     */
+    public void store(final Properties properties, final String prefix) {
+        properties.setProperty(prefix + "firstPage", String.valueOf(firstPage));
+        properties.setProperty(prefix + "lastPage", String.valueOf(lastPage));
+        properties.setProperty(prefix + "zoom", String.valueOf(zoom));
+        properties.setProperty(prefix + "externalAssets", String.valueOf(externalAssets));
+        properties.setProperty(prefix + "destDir", destDirectory);
+        properties.setProperty(prefix + "pdf", pdfFilePath);
+        properties.setProperty(prefix + "output", outputFileName);
+        if (pageFileName != null) {
+            properties.setProperty(prefix + "pageFileName", pageFileName);
+        }
+    }
+
+    public static boolean isStored(final Properties properties, final String prefix) {
+        return properties.containsKey(prefix + "pdf");
+    }
+
+    /**
+     * Reads a command {@link #store(Properties, String)} wrote for the given renderer. Everything is checked, as the
+     * properties come from a folder others can write to: page numbers and zoom must be numbers, the PDF and output
+     * folder absolute paths and the output names plain file names.
+     */
+    public static RenderCommand load(final Properties properties, final String prefix, final String rendererPath,
+                                     final long memoryLimitBytes) {
+        final int firstPage = parseInt(properties, prefix + "firstPage");
+        final int lastPage = parseInt(properties, prefix + "lastPage");
+        if (firstPage < 1 || lastPage < firstPage) {
+            throw new IllegalArgumentException("pages " + firstPage + "-" + lastPage + " are not a valid range");
+        }
+        final float zoom;
+        try {
+            zoom = Float.parseFloat(get(properties, prefix + "zoom"));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("zoom is not a number: " + properties.getProperty(prefix + "zoom"));
+        }
+        if (!(zoom > 0)) {
+            throw new IllegalArgumentException("zoom must be positive: " + zoom);
+        }
+        final String pdfFilePath = checkAbsolute(get(properties, prefix + "pdf"));
+        if (!pdfFilePath.toLowerCase(Locale.ROOT).endsWith(".pdf")) {
+            throw new IllegalArgumentException("not a pdf: " + pdfFilePath);
+        }
+        final String pageFileName = properties.getProperty(prefix + "pageFileName");
+        return new RenderCommand(rendererPath, firstPage, lastPage, zoom,
+                Boolean.parseBoolean(properties.getProperty(prefix + "externalAssets")),
+                checkAbsolute(get(properties, prefix + "destDir")), pdfFilePath,
+                checkFileName(get(properties, prefix + "output")),
+                pageFileName == null ? null : checkFileName(pageFileName), memoryLimitBytes);
+    }
+
+    private static String get(final Properties properties, final String key) {
+        final String value = properties.getProperty(key);
+        if (value == null) {
+            throw new IllegalArgumentException("missing " + key);
+        }
+        return value;
+    }
+
+    private static int parseInt(final Properties properties, final String key) {
+        try {
+            return Integer.parseInt(get(properties, key));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException(key + " is not a number: " + properties.getProperty(key));
+        }
+    }
+
+    private static String checkAbsolute(final String path) {
+        if (!new File(path).isAbsolute()) {
+            throw new IllegalArgumentException("must be an absolute path: " + path);
+        }
+        return path;
+    }
+
+    private static String checkFileName(final String name) {
+        if (name.isEmpty() || name.startsWith("-") || name.startsWith(".") || name.indexOf('/') >= 0
+                || name.indexOf('\\') >= 0) {
+            throw new IllegalArgumentException("not a plain file name: " + name);
+        }
+        return name;
+    }
+}
@@ -0,0 +1,205 @@
+package com.company;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Keeps running and renders the books submitted over a small HTTP API on the loopback interface:
+ * <ul>
+ * <li>POST /jobs?toc=..&amp;pdf=..[&amp;output=..][&amp;priority=..] submits a book, the parameters may also be sent
+ * form encoded in the body. Without output the book goes to a folder named after the PDF next to it.</li>
+ * <li>GET /jobs lists all jobs, GET /jobs/&lt;id&gt; shows one.</li>
+ * <li>DELETE /jobs/&lt;id&gt; (or POST /jobs/&lt;id&gt;/cancel) cancels a job.</li>
+ * </ul>
+ * All jobs render through one {@link RenderService}, so books submitted at the same time share the machine instead
+ * of each starting -t renders. Higher priorities get free slots first, equal priorities share them evenly.
+ */
+class RenderDaemon {
+    private static final String JOBS_PATH = "/jobs";
+    private static final String CANCEL_SUFFIX = "/cancel";
+
+    private final int port;
+    private final RenderService service;
+    private HttpServer server;
+
+    public RenderDaemon(final int port, final RenderService service) {
+        this.port = port;
+        this.service = service;
+    }
+
+    public void start() throws IOException {
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext(JOBS_PATH, new HttpHandler() {
+            @Override
+            public void handle(HttpExchange exchange) throws IOException {
+                try {
+                    route(exchange);
+                } catch (IllegalArgumentException ex) {
+                    respond(exchange, 400, error(ex.getMessage()));
+                } catch (RuntimeException ex) {
+                    System.out.println("Can not handle " + exchange.getRequestMethod() + " "
+                            + exchange.getRequestURI() + ": " + ex.getMessage());
+                    respond(exchange, 500, error(String.valueOf(ex.getMessage())));
+                }
+            }
+        });
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            @Override
+            public void run() {
+                // do not leave renderers behind
+                service.cancelAll();
+            }
+        }, "render-daemon-shutdown"));
+        service.start();
+        server.start();
+        System.out.println("Render daemon listening on http://" + server.getAddress().getHostString() + ":"
+                + server.getAddress().getPort() + JOBS_PATH);
+    }
+
+    public RenderJob submit(final String tocPath, final String pdfPath, final String outputPath, final int priority) {
+        final File tocFile = checkFile(tocPath, "txt");
+        final File pdfFile = checkFile(pdfPath, "pdf");
+        File outputDirectory;
+        if (outputPath == null || outputPath.isEmpty()) {
+            final String name = pdfFile.getName();
+            outputDirectory = new File(pdfFile.getAbsoluteFile().getParentFile(),
+                    name.substring(0, name.length() - ".pdf".length()));
+        } else {
+            outputDirectory = new File(outputPath);
+            if (!outputDirectory.isAbsolute()) {
+                throw new IllegalArgumentException("output must be an absolute path: " + outputPath);
+            }
+        }
+        final RenderJob job = service.submit(tocFile.getAbsolutePath(), pdfFile.getAbsolutePath(), outputDirectory,
+                priority);
+        System.out.println("Accepted job " + job.getId() + " for " + pdfFile + " (priority " + priority + ")");
+        return job;
+    }
+
+    private static File checkFile(final String path, final String extension) {
+        if (path == null || path.isEmpty()) {
+            throw new IllegalArgumentException("missing the ." + extension + " file");
+        }
+        final File file = new File(path);
+        if (!file.isAbsolute()) {
+            throw new IllegalArgumentException("must be an absolute path: " + path);
+        }
+        if (!file.getName().toLowerCase(Locale.ROOT).endsWith("." + extension)) {
+            throw new IllegalArgumentException(String.format("Expected: '.%s' but got file %s", extension, path));
+        }
+        if (!file.isFile()) {
+            throw new IllegalArgumentException(String.format("File '%s' is not existed.", path));
+        }
+        return file;
+    }
+
+    private void route(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        String path = exchange.getRequestURI().getPath();
+        if (path.endsWith("/") && path.length() > 1) {
+            path = path.substring(0, path.length() - 1);
+        }
+        if (path.equals(JOBS_PATH)) {
+            if ("GET".equals(method)) {
+                final StringBuilder builder = new StringBuilder("[");
+                for (RenderJob job : service.getJobs()) {
+                    builder.append(builder.length() > 1 ? ",\n" : "\n").append(job.toJson());
+                }
+                respond(exchange, 200, builder.append("\n]").toString());
+            } else if ("POST".equals(method)) {
+                final Map<String, String> parameters = parseParameters(exchange);
+                final RenderJob job = submit(parameters.get("toc"), parameters.get("pdf"), parameters.get("output"),
+                        parsePriority(parameters.get("priority")));
+                respond(exchange, 201, job.toJson());
+            } else {
+                respond(exchange, 405, error("use GET or POST on " + JOBS_PATH));
+            }
+            return;
+        }
+        final boolean cancelPath = path.endsWith(CANCEL_SUFFIX);
+        final int idStart = JOBS_PATH.length() + 1;
+        final int idEnd = cancelPath ? path.length() - CANCEL_SUFFIX.length() : path.length();
+        // /jobs/cancel has no id, neither has a path that only starts like /jobs
+        final String id = path.startsWith(JOBS_PATH + "/") && idEnd > idStart ? path.substring(idStart, idEnd) : "";
+        final RenderJob job = id.isEmpty() ? null : service.getJob(id);
+        if (job == null) {
+            respond(exchange, 404, error(id.isEmpty() ? "missing the job id" : "no job " + id));
+        } else if ("GET".equals(method) && !cancelPath) {
+            respond(exchange, 200, job.toJson());
+        } else if ("DELETE".equals(method) && !cancelPath || "POST".equals(method) && cancelPath) {
+            if (job.cancel()) {
+                System.out.println("Cancelled job " + job.getId());
+            }
+            respond(exchange, 200, job.toJson());
+        } else {
+            respond(exchange, 405, error("use GET or DELETE on a job"));
+        }
+    }
+
+    private static int parsePriority(final String priority) {
+        if (priority == null || priority.isEmpty()) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(priority);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("priority must be a number: " + priority);
+        }
+    }
+
+    private static Map<String, String> parseParameters(final HttpExchange exchange) throws IOException {
+        final Map<String, String> parameters = new HashMap<>();
+        parseQuery(exchange.getRequestURI().getRawQuery(), parameters);
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try (InputStream inputStream = exchange.getRequestBody()) {
+            final byte[] buffer = new byte[4096];
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                body.write(buffer, 0, read);
+            }
+        }
+        parseQuery(new String(body.toByteArray(), StandardCharsets.UTF_8).trim(), parameters);
+        return parameters;
+    }
+
+    private static void parseQuery(final String query, final Map<String, String> parameters) {
+        if (query == null || query.isEmpty()) {
+            return;
+        }
+        for (String pair : query.split("&")) {
+            final int equals = pair.indexOf('=');
+            if (equals > 0) {
+                parameters.put(URLDecoder.decode(pair.substring(0, equals), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(equals + 1), StandardCharsets.UTF_8));
+            }
+        }
+    }
+
+    private static String error(final String message) {
+        return "{\"error\": " + Json.quote(message) + "}";
+    }
+
+    private static void respond(final HttpExchange exchange, final int status, final String json)
+            throws IOException {
+        final byte[] body = (json + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream outputStream = exchange.getResponseBody()) {
+            outputStream.write(body);
+        }
+    }
+}
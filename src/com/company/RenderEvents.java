@@ -0,0 +1,147 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Turns the task notifications of one book into page, chapter and job events for a {@link RenderListener}. Chapters
+ * are tracked by the pages still to render, so retries and split tasks do not matter. Chapters without any task,
+ * because the cache or a resumed run already had them, are reported as soon as the tasks are planned. Pages linked
+ * from the output of another chapter are reported for their own chapter once that output is there.
+ */
+class RenderEvents implements TaskObserver {
+    private final RenderJob job;
+    private final RenderListener listener;
+    private final Map<Integer, Integer> missingPages = new HashMap<>();
+    private final Map<Integer, String> names = new HashMap<>();
+    private final Map<Integer, File> paths = new HashMap<>();
+    private final Map<Integer, int[]> ranges = new HashMap<>();
+    private SharedPageLinker linker;
+
+    public RenderEvents(final RenderJob job, final RenderListener listener) {
+        this.job = job;
+        this.listener = listener;
+    }
+
+    /**
+     * Registers a chapter of the book, before {@link #planned(List)}.
+     *
+     * @param path folder of the chapter pages, or the chapter file when pages are not separated
+     */
+    public void addChapter(final int chapterIndex, final String name, final File path, final int firstPage,
+                           final int lastPage) {
+        names.put(chapterIndex, name);
+        ranges.put(chapterIndex, new int[]{firstPage, lastPage});
+        paths.put(chapterIndex, path);
+        missingPages.put(chapterIndex, 0);
+    }
+
+    /**
+     * @param linker the pages shared between chapters, or null
+     */
+    public void planned(final List<RenderTask> tasks, final SharedPageLinker linker) {
+        final List<Integer> complete;
+        synchronized (this) {
+            this.linker = linker;
+            for (RenderTask task : tasks) {
+                final Integer missing = missingPages.get(task.getChapterIndex());
+                missingPages.put(task.getChapterIndex(), (missing == null ? 0 : missing) + task.getPageCount());
+            }
+            if (linker != null) {
+                for (Map.Entry<Integer, Integer> entry : missingPages.entrySet()) {
+                    entry.setValue(entry.getValue() + linker.getPendingPages(entry.getKey()));
+                }
+            }
+            complete = new ArrayList<>();
+            for (Map.Entry<Integer, Integer> entry : missingPages.entrySet()) {
+                if (entry.getValue() == 0) {
+                    complete.add(entry.getKey());
+                }
+            }
+        }
+        for (Integer chapterIndex : complete) {
+            chapterCompleted(chapterIndex, 0);
+        }
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            return;
+        }
+        final List<File> outputs = task.getOutputs();
+        // chunk and page tasks have one file per page, chapter tasks one file for all their pages
+        final boolean perPage = outputs.size() == task.getPageCount();
+        for (int index = 0; index < outputs.size(); index++) {
+            final File output = outputs.get(index);
+            int firstPage = perPage ? task.getStartPage() + index : task.getStartPage();
+            int lastPage = perPage ? firstPage : task.getEndPage();
+            // a chapter file stitched from parts covers the whole chapter, not only the last part
+            if (output.equals(paths.get(task.getChapterIndex()))) {
+                firstPage = ranges.get(task.getChapterIndex())[0];
+                lastPage = ranges.get(task.getChapterIndex())[1];
+            }
+            final String sha256 = checksum(output);
+            listener.pageRendered(job, task.getChapterIndex(), firstPage, lastPage, output, sha256);
+            if (linker != null) {
+                for (SharedPageLinker.Alias alias : linker.getAliases(output)) {
+                    listener.pageRendered(job, alias.getChapterIndex(), alias.getFirstPage(), alias.getLastPage(),
+                            alias.getFile(), sha256);
+                    rendered(alias.getChapterIndex(), alias.getLastPage() - alias.getFirstPage() + 1);
+                }
+            }
+        }
+        rendered(task.getChapterIndex(), task.getPageCount());
+    }
+
+    private void rendered(final int chapterIndex, final int pageCount) {
+        final boolean complete;
+        synchronized (this) {
+            final Integer missing = missingPages.get(chapterIndex);
+            final int left = (missing == null ? 0 : missing) - pageCount;
+            missingPages.put(chapterIndex, left);
+            complete = missing != null && missing > 0 && left <= 0;
+        }
+        if (complete) {
+            chapterCompleted(chapterIndex, 0);
+        }
+    }
+
+    /**
+     * Reports the chapters which did not complete, then the end of the job.
+     */
+    public void jobFinished() {
+        final Map<Integer, Integer> incomplete = new HashMap<>();
+        synchronized (this) {
+            for (Map.Entry<Integer, Integer> entry : missingPages.entrySet()) {
+                if (entry.getValue() > 0) {
+                    incomplete.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        for (Map.Entry<Integer, Integer> entry : incomplete.entrySet()) {
+            chapterCompleted(entry.getKey(), entry.getValue());
+        }
+        listener.jobFinished(job);
+    }
+
+    private void chapterCompleted(final int chapterIndex, final int missing) {
+        listener.chapterCompleted(job, chapterIndex, names.get(chapterIndex), paths.get(chapterIndex), missing);
+    }
+
+    private static String checksum(final File output) {
+        try {
+            return Checksums.sha256(output);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
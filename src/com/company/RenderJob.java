@@ -0,0 +1,168 @@
+package com.company;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * One book to render: its chapter file, its PDF and the folder which receives html/ and batches/. Tracks the progress
+ * of the book so it can be reported while it renders, and can be cancelled at any time.
+ */
+class RenderJob implements TaskObserver {
+    enum State {
+        QUEUED,
+        RUNNING,
+        DONE,
+        FAILED,
+        CANCELLED;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final String id;
+    private final String tocPath;
+    private final String pdfPath;
+    private final File outputDirectory;
+    private final int priority;
+    private final long submittedMillis = System.currentTimeMillis();
+    private final AtomicInteger pagesRendered = new AtomicInteger();
+    private final AtomicInteger failedAttempts = new AtomicInteger();
+    private volatile State state = State.QUEUED;
+    private volatile int pagesPlanned;
+    private volatile int quarantinedCount;
+    private volatile String error;
+    private volatile long startedMillis;
+    private volatile long finishedMillis;
+    private volatile boolean cancelled;
+    private WorkStealingScheduler scheduler;
+
+    public RenderJob(final String id, final String tocPath, final String pdfPath, final File outputDirectory,
+                     final int priority) {
+        this.id = id;
+        this.tocPath = tocPath;
+        this.pdfPath = pdfPath;
+        this.outputDirectory = outputDirectory;
+        this.priority = priority;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getTocPath() {
+        return tocPath;
+    }
+
+    public String getPdfPath() {
+        return pdfPath;
+    }
+
+    /**
+     * Folder which receives html/ and batches/ of this book.
+     */
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public long getSubmittedMillis() {
+        return submittedMillis;
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public void started() {
+        startedMillis = System.currentTimeMillis();
+        state = State.RUNNING;
+    }
+
+    public void setPagesPlanned(final int pagesPlanned) {
+        this.pagesPlanned = pagesPlanned;
+    }
+
+    public void finished(final int quarantinedCount) {
+        this.quarantinedCount = quarantinedCount;
+        finishedMillis = System.currentTimeMillis();
+        state = cancelled ? State.CANCELLED : State.DONE;
+    }
+
+    public void failed(final String error) {
+        this.error = error;
+        finishedMillis = System.currentTimeMillis();
+        state = cancelled ? State.CANCELLED : State.FAILED;
+    }
+
+    /**
+     * The scheduler rendering this job, so a cancel reaches the running renders.
+     */
+    public synchronized void setScheduler(final WorkStealingScheduler scheduler) {
+        this.scheduler = scheduler;
+        if (cancelled && scheduler != null) {
+            scheduler.cancel();
+        }
+    }
+
+    /**
+     * Stops the job. A queued job will not start, a running one drops its waiting pages and kills its renders.
+     * Returns false when the job had already ended.
+     */
+    public synchronized boolean cancel() {
+        if (state == State.DONE || state == State.FAILED || state == State.CANCELLED) {
+            return false;
+        }
+        cancelled = true;
+        if (scheduler != null) {
+            scheduler.cancel();
+        }
+        if (state == State.QUEUED) {
+            finishedMillis = System.currentTimeMillis();
+            state = State.CANCELLED;
+        }
+        return true;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (success) {
+            pagesRendered.addAndGet(task.getPageCount());
+        } else {
+            failedAttempts.incrementAndGet();
+        }
+    }
+
+    public String toJson() {
+        final StringBuilder builder = new StringBuilder();
+        builder.append("{\"id\": ").append(Json.quote(id))
+                .append(", \"state\": ").append(Json.quote(state.label()))
+                .append(", \"priority\": ").append(priority)
+                .append(", \"toc\": ").append(Json.quote(tocPath))
+                .append(", \"pdf\": ").append(Json.quote(pdfPath))
+                .append(", \"output\": ").append(Json.quote(outputDirectory.getPath()))
+                .append(", \"pagesPlanned\": ").append(pagesPlanned)
+                .append(", \"pagesRendered\": ").append(pagesRendered.get())
+                .append(", \"failedAttempts\": ").append(failedAttempts.get())
+                .append(", \"quarantined\": ").append(quarantinedCount)
+                .append(", \"submittedMillis\": ").append(submittedMillis)
+                .append(", \"startedMillis\": ").append(startedMillis)
+                .append(", \"finishedMillis\": ").append(finishedMillis);
+        if (error != null) {
+            builder.append(", \"error\": ").append(Json.quote(error));
+        }
+        return builder.append("}").toString();
+    }
+}
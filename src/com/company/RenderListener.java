@@ -0,0 +1,34 @@
+package com.company;
+
+import java.io.File;
+
+/**
+ * Gets told about finished work while a book is still rendering, so pages can be published before the whole book is
+ * done. Called from the worker threads, implementations must be thread safe.
+ */
+interface RenderListener {
+    /**
+     * An output file is complete. A page file covers one page, a chapter file all pages of its task.
+     *
+     * @param sha256 checksum of the output, null when it could not be read
+     */
+    public void pageRendered(final RenderJob job, final int chapterIndex, final int firstPage, final int lastPage,
+                             final File output, final String sha256);
+
+    /**
+     * Every page of the chapter which this run had to render is there. Also sent when the job ends for chapters
+     * which are still missing pages, with missingPages above zero.
+     */
+    public void chapterCompleted(final RenderJob job, final int chapterIndex, final String name, final File path,
+                                 final int missingPages);
+
+    /**
+     * The cover and the chapter openers are rendered and the preview marker is written.
+     */
+    public void previewReady(final RenderJob job, final File marker);
+
+    /**
+     * The job ended, its state tells how.
+     */
+    public void jobFinished(final RenderJob job);
+}
@@ -0,0 +1,248 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Telemetry of one run: time per pipeline stage, a histogram of the render latency per page, throughput, queue depth
+ * and active workers over time, resource usage of the renderer processes and bytes written.
+ * Exported as a Prometheus text file and a JSON report next to output.json.
+ */
+class RenderMetrics implements TaskObserver {
+    private static final double[] LATENCY_BUCKETS_SECONDS = {0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300};
+    private static final long SAMPLE_INTERVAL_MILLIS = 500;
+
+    enum Stage {
+        PLAN,
+        LAUNCH,
+        RENDER,
+        POST_PROCESS,
+        WRITE;
+
+        public String label() {
+            return name().toLowerCase(Locale.ROOT);
+        }
+    }
+
+    private final long[] stageNanos = new long[Stage.values().length];
+    private final long[] stageCounts = new long[Stage.values().length];
+    private final long[] latencyBuckets = new long[LATENCY_BUCKETS_SECONDS.length + 1];
+    private final AtomicInteger activeWorkers = new AtomicInteger();
+    private double latencySumSeconds;
+    private long latencyCount;
+    private long pagesRendered;
+    private long tasksSucceeded;
+    private long tasksFailed;
+    private long outputBytes;
+    private long minifiedBytes;
+    private long peakRssBytes;
+    private long cpuMillis;
+    private int maxActiveWorkers;
+    private int maxQueueDepth;
+    private long activeWorkersSum;
+    private long queueDepthSum;
+    private long sampleCount;
+    private final long startMillis = System.currentTimeMillis();
+    private long endMillis;
+    private Thread sampler;
+
+    public synchronized void recordStage(final Stage stage, final long nanos) {
+        stageNanos[stage.ordinal()] += nanos;
+        stageCounts[stage.ordinal()]++;
+    }
+
+    public synchronized long getMinifiedBytes() {
+        return minifiedBytes;
+    }
+
+    /**
+     * Samples the queue depth of the scheduler and the number of busy workers until {@link #finish()}.
+     */
+    public void startSampling(final WorkStealingScheduler scheduler) {
+        sampler = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    sample(scheduler.getQueuedCount(), activeWorkers.get());
+                    try {
+                        Thread.sleep(SAMPLE_INTERVAL_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "render-metrics");
+        sampler.setDaemon(true);
+        sampler.start();
+    }
+
+    private synchronized void sample(final int queueDepth, final int active) {
+        maxQueueDepth = Math.max(maxQueueDepth, queueDepth);
+        maxActiveWorkers = Math.max(maxActiveWorkers, active);
+        queueDepthSum += queueDepth;
+        activeWorkersSum += active;
+        sampleCount++;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+        activeWorkers.incrementAndGet();
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        activeWorkers.decrementAndGet();
+        long bytes = 0;
+        if (success) {
+            for (File output : task.getOutputs()) {
+                bytes += output.length();
+            }
+        }
+        synchronized (this) {
+            recordStage(Stage.LAUNCH, task.getLaunchNanos());
+            recordStage(Stage.RENDER, task.getRenderNanos());
+            recordStage(Stage.POST_PROCESS, task.getPostProcessNanos());
+            peakRssBytes = Math.max(peakRssBytes, task.getPeakRssBytes());
+            cpuMillis += Math.max(0, task.getCpuMillis());
+            if (!success) {
+                tasksFailed++;
+                return;
+            }
+            tasksSucceeded++;
+            outputBytes += bytes;
+            minifiedBytes += task.getMinifiedBytes();
+            // a chunk renders its pages together, each of them gets its share of the time
+            final double pageSeconds = task.getRenderNanos() / 1e9 / task.getPageCount();
+            for (int page = 0; page < task.getPageCount(); page++) {
+                int bucket = 0;
+                while (bucket < LATENCY_BUCKETS_SECONDS.length && pageSeconds > LATENCY_BUCKETS_SECONDS[bucket]) {
+                    bucket++;
+                }
+                latencyBuckets[bucket]++;
+                latencySumSeconds += pageSeconds;
+                latencyCount++;
+                pagesRendered++;
+            }
+        }
+    }
+
+    public void finish() {
+        if (sampler != null) {
+            sampler.interrupt();
+        }
+        synchronized (this) {
+            endMillis = System.currentTimeMillis();
+        }
+    }
+
+    private double getWallSeconds() {
+        return ((endMillis == 0 ? System.currentTimeMillis() : endMillis) - startMillis) / 1000.0;
+    }
+
+    public synchronized void writePrometheus(final File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("# HELP pdf2html_stage_seconds_total Time spent per pipeline stage.");
+            writer.println("# TYPE pdf2html_stage_seconds_total counter");
+            for (Stage stage : Stage.values()) {
+                writer.println(format("pdf2html_stage_seconds_total{stage=\"%s\"} %.6f", stage.label(),
+                        stageNanos[stage.ordinal()] / 1e9));
+            }
+            writer.println("# HELP pdf2html_page_render_seconds Render latency per page.");
+            writer.println("# TYPE pdf2html_page_render_seconds histogram");
+            long cumulative = 0;
+            for (int bucket = 0; bucket < LATENCY_BUCKETS_SECONDS.length; bucket++) {
+                cumulative += latencyBuckets[bucket];
+                writer.println(format("pdf2html_page_render_seconds_bucket{le=\"%s\"} %d",
+                        String.valueOf(LATENCY_BUCKETS_SECONDS[bucket]), cumulative));
+            }
+            cumulative += latencyBuckets[LATENCY_BUCKETS_SECONDS.length];
+            writer.println(format("pdf2html_page_render_seconds_bucket{le=\"+Inf\"} %d", cumulative));
+            writer.println(format("pdf2html_page_render_seconds_sum %.6f", latencySumSeconds));
+            writer.println(format("pdf2html_page_render_seconds_count %d", latencyCount));
+            writeGauge(writer, "pdf2html_pages_rendered_total", "counter", "Pages rendered.", pagesRendered);
+            writeGauge(writer, "pdf2html_pages_per_second", "gauge", "Pages rendered per second of wall time.",
+                    getPagesPerSecond());
+            writeGauge(writer, "pdf2html_tasks_succeeded_total", "counter", "Render tasks which succeeded.",
+                    tasksSucceeded);
+            writeGauge(writer, "pdf2html_tasks_failed_total", "counter", "Render task attempts which failed.",
+                    tasksFailed);
+            writeGauge(writer, "pdf2html_queue_depth_max", "gauge", "Highest number of queued tasks.", maxQueueDepth);
+            writeGauge(writer, "pdf2html_queue_depth_avg", "gauge", "Average number of queued tasks.",
+                    average(queueDepthSum));
+            writeGauge(writer, "pdf2html_active_workers_max", "gauge", "Highest number of busy workers.",
+                    maxActiveWorkers);
+            writeGauge(writer, "pdf2html_active_workers_avg", "gauge", "Average number of busy workers.",
+                    average(activeWorkersSum));
+            writeGauge(writer, "pdf2html_child_peak_rss_bytes", "gauge", "Highest resident memory of one renderer.",
+                    peakRssBytes);
+            writeGauge(writer, "pdf2html_child_cpu_seconds_total", "counter", "Cpu time of the renderers.",
+                    cpuMillis / 1000.0);
+            writeGauge(writer, "pdf2html_output_bytes_total", "counter", "Bytes of rendered pages.", outputBytes);
+            writeGauge(writer, "pdf2html_minify_saved_bytes_total", "counter", "Bytes saved by minifying pages.",
+                    minifiedBytes);
+            writeGauge(writer, "pdf2html_wall_seconds", "gauge", "Duration of the run.", getWallSeconds());
+        }
+    }
+
+    public synchronized void writeJson(final File file) throws IOException {
+        try (PrintWriter writer = new PrintWriter(file, "UTF-8")) {
+            writer.println("{");
+            writer.println(format("  \"wallSeconds\": %.3f,", getWallSeconds()));
+            writer.println(format("  \"pagesRendered\": %d,", pagesRendered));
+            writer.println(format("  \"pagesPerSecond\": %.3f,", getPagesPerSecond()));
+            writer.println(format("  \"tasksSucceeded\": %d,", tasksSucceeded));
+            writer.println(format("  \"tasksFailed\": %d,", tasksFailed));
+            writer.println("  \"stages\": {");
+            for (Stage stage : Stage.values()) {
+                writer.println(format("    %s: {\"seconds\": %.6f, \"count\": %d}%s", Json.quote(stage.label()),
+                        stageNanos[stage.ordinal()] / 1e9, stageCounts[stage.ordinal()],
+                        stage.ordinal() < Stage.values().length - 1 ? "," : ""));
+            }
+            writer.println("  },");
+            writer.println("  \"pageRenderSeconds\": {");
+            writer.println(format("    \"count\": %d,", latencyCount));
+            writer.println(format("    \"mean\": %.6f,", latencyCount == 0 ? 0 : latencySumSeconds / latencyCount));
+            writer.print("    \"buckets\": [");
+            for (int bucket = 0; bucket <= LATENCY_BUCKETS_SECONDS.length; bucket++) {
+                writer.print(format("%s{\"le\": %s, \"count\": %d}", bucket == 0 ? "" : ", ",
+                        bucket < LATENCY_BUCKETS_SECONDS.length ? String.valueOf(LATENCY_BUCKETS_SECONDS[bucket])
+                                : "null", latencyBuckets[bucket]));
+            }
+            writer.println("]");
+            writer.println("  },");
+            writer.println(format("  \"queueDepth\": {\"max\": %d, \"avg\": %.3f},", maxQueueDepth,
+                    average(queueDepthSum)));
+            writer.println(format("  \"activeWorkers\": {\"max\": %d, \"avg\": %.3f},", maxActiveWorkers,
+                    average(activeWorkersSum)));
+            writer.println(format("  \"childPeakRssBytes\": %d,", peakRssBytes));
+            writer.println(format("  \"childCpuSeconds\": %.3f,", cpuMillis / 1000.0));
+            writer.println(format("  \"outputBytes\": %d,", outputBytes));
+            writer.println(format("  \"minifySavedBytes\": %d", minifiedBytes));
+            writer.println("}");
+        }
+    }
+
+    private double getPagesPerSecond() {
+        final double wallSeconds = getWallSeconds();
+        return wallSeconds <= 0 ? 0 : pagesRendered / wallSeconds;
+    }
+
+    private double average(final long sum) {
+        return sampleCount == 0 ? 0 : (double) sum / sampleCount;
+    }
+
+    private static void writeGauge(final PrintWriter writer, final String name, final String type, final String help,
+                                   final double value) {
+        writer.println("# HELP " + name + " " + help);
+        writer.println("# TYPE " + name + " " + type);
+        writer.println(name + " " + (value == Math.rint(value) ? String.valueOf((long) value)
+                : format("%.6f", value)));
+    }
+
+    private static String format(final String format, final Object... values) {
+        return String.format(Locale.ROOT, format, values);
+    }
+}
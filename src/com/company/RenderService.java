@@ -0,0 +1,124 @@
+package com.company;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders many books in one process through one concurrency controller, so their renders share the machine instead
+ * of each book starting -t renders of its own. A limited number of books plan and render at the same time, the others
+ * wait ordered by priority and then by submission. Used by the daemon and by the batch mode.
+ */
+class RenderService {
+    private final ConcurrencyController controller;
+    private final ThreadPoolExecutor jobRunner;
+    private final Map<String, RenderJob> jobs = new LinkedHashMap<>();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param maxActiveJobs books which plan and render at the same time
+     */
+    public RenderService(final ConcurrencyController controller, final int maxActiveJobs) {
+        this.controller = controller;
+        this.jobRunner = new ThreadPoolExecutor(maxActiveJobs, maxActiveJobs, 0, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>());
+    }
+
+    public void start() {
+        controller.start();
+    }
+
+    /**
+     * Queues a book. Fails when another active job already renders into the same folder.
+     */
+    public RenderJob submit(final String tocPath, final String pdfPath, final File outputDirectory,
+                            final int priority) {
+        synchronized (jobs) {
+            for (RenderJob other : jobs.values()) {
+                if (other.getOutputDirectory().equals(outputDirectory) && isActive(other)) {
+                    throw new IllegalArgumentException("job " + other.getId() + " already renders into "
+                            + outputDirectory);
+                }
+            }
+            outputDirectory.mkdirs();
+            final long order = sequence.incrementAndGet();
+            final RenderJob job = new RenderJob(String.valueOf(order), tocPath, pdfPath, outputDirectory, priority);
+            jobs.put(job.getId(), job);
+            jobRunner.execute(new JobRunner(job, order));
+            return job;
+        }
+    }
+
+    public RenderJob getJob(final String id) {
+        synchronized (jobs) {
+            return jobs.get(id);
+        }
+    }
+
+    public List<RenderJob> getJobs() {
+        synchronized (jobs) {
+            return new ArrayList<>(jobs.values());
+        }
+    }
+
+    public void cancelAll() {
+        for (RenderJob job : getJobs()) {
+            job.cancel();
+        }
+    }
+
+    /**
+     * Waits until every submitted job has ended, then stops.
+     */
+    public void shutdown() throws InterruptedException {
+        jobRunner.shutdown();
+        jobRunner.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+        controller.stop();
+    }
+
+    public ConcurrencyController getController() {
+        return controller;
+    }
+
+    public static boolean isActive(final RenderJob job) {
+        return job.getState() == RenderJob.State.QUEUED || job.getState() == RenderJob.State.RUNNING;
+    }
+
+    /**
+     * Waits in the queue of the job runner ordered by priority, then by submission.
+     */
+    private class JobRunner implements Runnable, Comparable<JobRunner> {
+        private final RenderJob job;
+        private final long order;
+
+        private JobRunner(final RenderJob job, final long order) {
+            this.job = job;
+            this.order = order;
+        }
+
+        @Override
+        public void run() {
+            try {
+                Main.renderBook(job, controller);
+            } catch (RuntimeException ex) {
+                System.out.println("Job " + job.getId() + " failed: " + ex.getMessage());
+                job.failed(String.valueOf(ex.getMessage()));
+            }
+            System.out.println("Job " + job.getId() + " " + job.getState().label());
+        }
+
+        @Override
+        public int compareTo(final JobRunner other) {
+            if (job.getPriority() != other.job.getPriority()) {
+                return Integer.compare(other.job.getPriority(), job.getPriority());
+            }
+            return Long.compare(order, other.order);
+        }
+    }
+}
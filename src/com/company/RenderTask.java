@@ -0,0 +1,468 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * One unit of render work: a list of pdf2htmlEX invocations which are run one after another.
+ * Each invocation is kept as an argument list and started through {@link ProcessBuilder} directly, so no shell
+ * script and no shell process is involved.
+ */
+class RenderTask implements Callable<Integer> {
+    /**
+     * Scheduling class of a task, the tasks of a lower class start first.
+     */
+    enum Priority {
+        COVER,
+        OPENER,
+        REST
+    }
+
+    private final String name;
+    private final int chapterIndex;
+    private final int startPage;
+    private final int endPage;
+    private final List<RenderCommand> commands = new ArrayList<>();
+    private double cost;
+    private Priority priority = Priority.REST;
+    private final List<OutputMapper> outputMappers = new ArrayList<>();
+    private final List<File> outputs = new ArrayList<>();
+    private final List<String> outputTail = new ArrayList<>();
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int droppedDiagnostics;
+    private long wallTimeoutMillis;
+    private long cpuTimeoutMillis;
+    private long memoryLimitBytes;
+    private int attempt;
+    private volatile String failureReason;
+    private TaskSplitter splitter;
+    private ConcurrencyController.Slot slot;
+    private volatile Process process;
+    private volatile boolean cancelled;
+    private WorkQueue workQueue;
+    private long launchNanos;
+    private long renderNanos;
+    private long postProcessNanos;
+    private volatile long peakRssBytes;
+    private volatile long rssBytes;
+    private volatile long cpuMillis;
+    private long minifiedBytes;
+
+    public RenderTask(final String name, final int chapterIndex, final int startPage, final int endPage) {
+        this.name = name;
+        this.chapterIndex = chapterIndex;
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+    public void addCommand(final RenderCommand command) {
+        this.commands.add(command);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getChapterIndex() {
+        return chapterIndex;
+    }
+
+    public int getStartPage() {
+        return startPage;
+    }
+
+    public int getEndPage() {
+        return endPage;
+    }
+
+    public int getPageCount() {
+        return endPage - startPage + 1;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public void setCost(double cost) {
+        this.cost = cost;
+    }
+
+    public Priority getPriority() {
+        return priority;
+    }
+
+    public void setPriority(final Priority priority) {
+        this.priority = priority;
+    }
+
+    /**
+     * Records a file this task produces in html/.
+     */
+    public void addOutput(final File output) {
+        this.outputs.add(output);
+    }
+
+    public List<File> getOutputs() {
+        return outputs;
+    }
+
+    /**
+     * Last lines pdf2htmlEX printed, of every command of this task.
+     */
+    public List<String> getOutputTail() {
+        return outputTail;
+    }
+
+    public List<Diagnostic> getDiagnostics() {
+        return diagnostics;
+    }
+
+    public int getDroppedDiagnostics() {
+        return droppedDiagnostics;
+    }
+
+    /**
+     * Limits for the whole task, 0 for none. When one is hit the renderer and all its children are killed.
+     */
+    public void setTimeouts(final long wallTimeoutMillis, final long cpuTimeoutMillis) {
+        this.wallTimeoutMillis = wallTimeoutMillis;
+        this.cpuTimeoutMillis = cpuTimeoutMillis;
+    }
+
+    /**
+     * Resident memory limit for the renderer and its children together, 0 for none. The renderer is killed when it
+     * grows beyond it.
+     */
+    public void setMemoryLimit(final long memoryLimitBytes) {
+        this.memoryLimitBytes = memoryLimitBytes;
+    }
+
+    public long getWallTimeoutMillis() {
+        return wallTimeoutMillis;
+    }
+
+    public long getCpuTimeoutMillis() {
+        return cpuTimeoutMillis;
+    }
+
+    public long getMemoryLimitBytes() {
+        return memoryLimitBytes;
+    }
+
+    public int getAttempt() {
+        return attempt;
+    }
+
+    public void setAttempt(int attempt) {
+        this.attempt = attempt;
+    }
+
+    public String getFailureReason() {
+        return failureReason;
+    }
+
+    /**
+     * Time spent starting the renderer processes in the last attempt.
+     */
+    public long getLaunchNanos() {
+        return launchNanos;
+    }
+
+    /**
+     * Time the renderer processes ran in the last attempt.
+     */
+    public long getRenderNanos() {
+        return renderNanos;
+    }
+
+    /**
+     * Time spent in the output mappers in the last attempt.
+     */
+    public long getPostProcessNanos() {
+        return postProcessNanos;
+    }
+
+    /**
+     * Highest resident memory of the renderer and its children seen in the last attempt, -1 when unknown.
+     */
+    public long getPeakRssBytes() {
+        return peakRssBytes;
+    }
+
+    /**
+     * Resident memory of the renderer and its children right now, 0 when no renderer runs.
+     */
+    public long getRssBytes() {
+        return rssBytes;
+    }
+
+    /**
+     * Cpu time of the renderer and its children as last seen in the last attempt, -1 when unknown.
+     */
+    public long getCpuMillis() {
+        return cpuMillis;
+    }
+
+    /**
+     * Render slot the task holds while it runs, given back as soon as the renderer exited so post-processing does not
+     * keep the next render waiting.
+     */
+    public void setSlot(final ConcurrencyController.Slot slot) {
+        this.slot = slot;
+    }
+
+    /**
+     * Bytes the output mappers saved by minifying the pages in the last attempt.
+     */
+    public long getMinifiedBytes() {
+        return minifiedBytes;
+    }
+
+    public void addMinifiedBytes(final long bytes) {
+        this.minifiedBytes += bytes;
+    }
+
+    public void setSplitter(final TaskSplitter splitter) {
+        this.splitter = splitter;
+    }
+
+    /**
+     * Splits this task in two halves, or returns null when it can not be split.
+     */
+    public RenderTask[] bisect() {
+        if (splitter == null || getPageCount() < 2) {
+            return null;
+        }
+        final int middle = startPage + getPageCount() / 2 - 1;
+        return new RenderTask[]{splitter.split(this, startPage, middle), splitter.split(this, middle + 1, endPage)};
+    }
+
+    /**
+     * Stops the task: the running renderer is killed and no further command is started.
+     */
+    public void cancel() {
+        cancelled = true;
+        final Process running = process;
+        if (running != null) {
+            destroyTree(running);
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Renders the commands on a worker node through the queue instead of locally; the output mappers still run
+     * here. The worker builds the commands for its own renderer.
+     */
+    public void setWorkQueue(final WorkQueue workQueue) {
+        this.workQueue = workQueue;
+    }
+
+    /**
+     * Adds a step which runs, in order of adding, after all commands of this task succeeded.
+     */
+    public void addOutputMapper(final OutputMapper outputMapper) {
+        this.outputMappers.add(outputMapper);
+    }
+
+    public List<RenderCommand> getCommands() {
+        return commands;
+    }
+
+    /**
+     * Renders the commands as a shell/batch script, joined by the given delimiter. Only used for the debug export.
+     */
+    public String toScript(final String commandDelimiter) {
+        final StringBuilder builder = new StringBuilder();
+        for (int index = 0; index < commands.size(); index++) {
+            if (index > 0) {
+                builder.append(commandDelimiter);
+            }
+            final List<String> command = commands.get(index).toArguments();
+            for (int argIndex = 0; argIndex < command.size(); argIndex++) {
+                if (argIndex > 0) {
+                    builder.append(' ');
+                }
+                builder.append(quote(command.get(argIndex)));
+            }
+        }
+        return builder.toString();
+    }
+
+    private static String quote(final String argument) {
+        if (argument.isEmpty() || argument.indexOf(' ') >= 0 || argument.indexOf('\t') >= 0) {
+            return "\"" + argument + "\"";
+        }
+        return argument;
+    }
+
+    @Override
+    public Integer call() throws Exception {
+        outputTail.clear();
+        diagnostics.clear();
+        droppedDiagnostics = 0;
+        failureReason = null;
+        launchNanos = 0;
+        renderNanos = 0;
+        postProcessNanos = 0;
+        peakRssBytes = -1;
+        cpuMillis = -1;
+        minifiedBytes = 0;
+        attempt++;
+        try {
+            System.out.println("start " + name + (attempt > 1 ? " (attempt " + attempt + ")" : ""));
+            final long deadline = wallTimeoutMillis > 0 ? System.currentTimeMillis() + wallTimeoutMillis
+                    : Long.MAX_VALUE;
+            final int exitCode = workQueue != null ? runRemote() : runCommands(deadline);
+            if (slot != null) {
+                slot.release();
+            }
+            if (exitCode == 0) {
+                final long postProcessStart = System.nanoTime();
+                for (OutputMapper outputMapper : outputMappers) {
+                    outputMapper.map(this);
+                }
+                postProcessNanos = System.nanoTime() - postProcessStart;
+            }
+            System.out.println("Finish " + name + " " + exitCode);
+            return exitCode == 0 ? 1 : 0;
+        } catch (IOException | InterruptedException ex) {
+            failureReason = ex.getMessage();
+            System.out.println("Can not render " + name + ": " + ex.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Runs the commands one after another on this machine. Returns the exit code of the last failing one, 0 when
+     * all of them succeeded.
+     */
+    private int runCommands(final long deadline) throws IOException, InterruptedException {
+        int exitCode = 0;
+        for (RenderCommand command : commands) {
+            if (cancelled) {
+                failureReason = "cancelled";
+                exitCode = -1;
+                break;
+            }
+            final ProcessBuilder processBuilder = new ProcessBuilder(command.toArguments());
+            processBuilder.redirectErrorStream(true);
+            final long launchStart = System.nanoTime();
+            final Process process = processBuilder.start();
+            this.process = process;
+            if (cancelled) {
+                destroyTree(process);
+            }
+            final long renderStart = System.nanoTime();
+            launchNanos += renderStart - launchStart;
+            process.getOutputStream().close();
+            final ProcessOutput output = new ProcessOutput(process.getInputStream(), startPage);
+            output.start(name);
+            ProcessSupervisor.watch(process, new Runnable() {
+                @Override
+                public void run() {
+                    checkLimits(process, deadline);
+                }
+            });
+            final int commandExitCode = process.waitFor();
+            this.process = null;
+            rssBytes = 0;
+            renderNanos += System.nanoTime() - renderStart;
+            output.join();
+            outputTail.addAll(output.getTail());
+            diagnostics.addAll(output.getDiagnostics());
+            droppedDiagnostics += output.getDroppedDiagnostics();
+            if (commandExitCode != 0) {
+                if (cancelled) {
+                    failureReason = "cancelled";
+                } else if (failureReason == null) {
+                    failureReason = "exit code " + commandExitCode;
+                }
+                outputTail.add(failureReason);
+                exitCode = commandExitCode;
+            }
+        }
+        return exitCode;
+    }
+
+    /**
+     * Waits for a worker node to run the commands and takes over what it reported.
+     */
+    private int runRemote() throws IOException, InterruptedException {
+        final long renderStart = System.nanoTime();
+        final WorkQueue.Result result = workQueue.execute(this);
+        renderNanos = System.nanoTime() - renderStart;
+        if (result == null) {
+            failureReason = "cancelled";
+            return -1;
+        }
+        outputTail.addAll(result.getOutputTail());
+        diagnostics.addAll(result.getDiagnostics());
+        cpuMillis = result.getLong("cpuMillis");
+        peakRssBytes = result.getLong("peakRssBytes");
+        if (result.getExitCode() != 0) {
+            failureReason = (result.getFailureReason() != null ? result.getFailureReason()
+                    : "exit code " + result.getExitCode()) + " on " + result.getWorker();
+        }
+        return result.getExitCode();
+    }
+
+    /**
+     * Samples the resource usage of the running process and kills it when it is past one of its limits. Called by
+     * the {@link ProcessSupervisor}.
+     */
+    private void checkLimits(final Process process, final long deadline) {
+        sampleResources(process.toHandle());
+        if (System.currentTimeMillis() > deadline) {
+            failureReason = "timed out after " + wallTimeoutMillis / 1000 + "s";
+            destroyTree(process);
+        } else if (cpuTimeoutMillis > 0 && cpuMillis > cpuTimeoutMillis) {
+            failureReason = "used more than " + cpuTimeoutMillis / 1000 + "s of cpu";
+            destroyTree(process);
+        } else if (memoryLimitBytes > 0 && rssBytes > memoryLimitBytes) {
+            failureReason = "used more than " + memoryLimitBytes / (1024 * 1024) + "MB of memory";
+            destroyTree(process);
+        }
+    }
+
+    private void sampleResources(final ProcessHandle handle) {
+        long treeCpuMillis = Math.max(0, ProcFs.getCpuMillis(handle));
+        long treeRssBytes = Math.max(0, ProcFs.getRssBytes(handle));
+        final Iterator<ProcessHandle> descendants = handle.descendants().iterator();
+        while (descendants.hasNext()) {
+            final ProcessHandle child = descendants.next();
+            treeCpuMillis += Math.max(0, ProcFs.getCpuMillis(child));
+            treeRssBytes += Math.max(0, ProcFs.getRssBytes(child));
+        }
+        cpuMillis = Math.max(cpuMillis, treeCpuMillis);
+        rssBytes = treeRssBytes;
+        peakRssBytes = Math.max(peakRssBytes, Math.max(treeRssBytes, ProcFs.getPeakRssBytes(handle)));
+    }
+
+    private static void destroyTree(final Process process) {
+        final Iterator<ProcessHandle> descendants = process.descendants().iterator();
+        while (descendants.hasNext()) {
+            descendants.next().destroyForcibly();
+        }
+        process.destroyForcibly();
+    }
+
+    /**
+     * Writes this task as a script into the given directory so the exact commands can be inspected or replayed.
+     */
+    public File exportScript(final File directory, final String extension, final String commandDelimiter)
+            throws IOException {
+        directory.mkdirs();
+        final File script = new File(directory, name + extension.trim());
+        Files.write(script.toPath(), toScript(commandDelimiter).getBytes(StandardCharsets.UTF_8));
+        return script;
+    }
+}
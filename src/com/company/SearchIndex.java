@@ -0,0 +1,257 @@
+package com.company;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Reads the full-text index {@link SearchIndexer} writes next to output.json, memory-mapped. After the header come the
+ * first and last page of every chapter, a table of fixed width term entries sorted by the UTF-8 bytes of the term, the
+ * terms themselves and the postings: for every page with the term the page delta, the number of positions and the
+ * position deltas, all as varints.
+ */
+final class SearchIndex implements Closeable {
+    static final byte[] MAGIC = "PAGESRCH".getBytes(StandardCharsets.US_ASCII);
+    static final int VERSION = 1;
+    // magic, version, chapters, terms and pages
+    static final int HEADER_SIZE = 8 + 4 + 4 + 4 + 4;
+    static final int CHAPTER_SIZE = 4 + 4;
+    // postings offset and length, term offset and length, pages with the term
+    static final int TERM_SIZE = 8 + 4 + 4 + 4 + 4;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final int chapterCount;
+    private final int termCount;
+    private final int pageCount;
+
+    private SearchIndex(final FileChannel channel, final ByteBuffer buffer) {
+        this.channel = channel;
+        this.buffer = buffer;
+        this.chapterCount = buffer.getInt(12);
+        this.termCount = buffer.getInt(16);
+        this.pageCount = buffer.getInt(20);
+    }
+
+    public static SearchIndex open(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            if (channel.size() > Integer.MAX_VALUE || channel.size() < HEADER_SIZE) {
+                throw new IOException(file + " is not a search index");
+            }
+            final ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (int index = 0; index < MAGIC.length; index++) {
+                if (buffer.get(index) != MAGIC[index]) {
+                    throw new IOException(file + " is not a search index");
+                }
+            }
+            if (buffer.getInt(8) != VERSION) {
+                throw new IOException(file + " is not a search index of version " + VERSION);
+            }
+            return new SearchIndex(channel, buffer);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public int getTermCount() {
+        return termCount;
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * First chapter covering the pdf page, -1 for none.
+     */
+    public int getChapterIndex(final int page) {
+        for (int chapterIndex = 0; chapterIndex < chapterCount; chapterIndex++) {
+            final int position = HEADER_SIZE + chapterIndex * CHAPTER_SIZE;
+            if (buffer.getInt(position) <= page && page <= buffer.getInt(position + 4)) {
+                return chapterIndex;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * The pdf pages containing every word of the query, in page order.
+     */
+    public int[] search(final String query) {
+        int[] pages = null;
+        for (String term : tokenize(query)) {
+            final int[] termPages = getPages(term);
+            pages = pages == null ? termPages : intersect(pages, termPages);
+            if (pages.length == 0) {
+                break;
+            }
+        }
+        return pages == null ? new int[0] : pages;
+    }
+
+    /**
+     * Positions of the word on a pdf page, counted in words from the start of the page.
+     */
+    public int[] getPositions(final String term, final int page) {
+        final int entry = find(term.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) {
+            return new int[0];
+        }
+        final int[] cursor = {(int) buffer.getLong(entry)};
+        final int pages = buffer.getInt(entry + 20);
+        int current = 0;
+        for (int index = 0; index < pages; index++) {
+            current += readVarInt(cursor);
+            final int count = readVarInt(cursor);
+            if (current == page) {
+                final int[] positions = new int[count];
+                int position = 0;
+                for (int positionIndex = 0; positionIndex < count; positionIndex++) {
+                    position += readVarInt(cursor);
+                    positions[positionIndex] = position;
+                }
+                return positions;
+            }
+            for (int positionIndex = 0; positionIndex < count; positionIndex++) {
+                readVarInt(cursor);
+            }
+        }
+        return new int[0];
+    }
+
+    /**
+     * The pdf pages containing the word, in page order.
+     */
+    public int[] getPages(final String term) {
+        final int entry = find(term.toLowerCase(Locale.ROOT).getBytes(StandardCharsets.UTF_8));
+        if (entry < 0) {
+            return new int[0];
+        }
+        final int[] cursor = {(int) buffer.getLong(entry)};
+        final int[] pages = new int[buffer.getInt(entry + 20)];
+        int current = 0;
+        for (int index = 0; index < pages.length; index++) {
+            current += readVarInt(cursor);
+            pages[index] = current;
+            final int count = readVarInt(cursor);
+            for (int positionIndex = 0; positionIndex < count; positionIndex++) {
+                readVarInt(cursor);
+            }
+        }
+        return pages;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Splits a query into words the way pages are indexed.
+     */
+    static List<String> tokenize(final String text) {
+        final List<String> terms = new ArrayList<>();
+        final StringBuilder word = new StringBuilder();
+        for (int index = 0; index <= text.length(); ) {
+            final int codePoint = index < text.length() ? text.codePointAt(index) : ' ';
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+            } else if (word.length() > 0) {
+                terms.add(word.toString().toLowerCase(Locale.ROOT));
+                word.setLength(0);
+            }
+            index += index < text.length() ? Character.charCount(codePoint) : 1;
+        }
+        return terms;
+    }
+
+    /**
+     * Compares UTF-8 bytes as unsigned values, the order of the term table.
+     */
+    static int compareBytes(final byte[] first, final int firstOffset, final int firstLength, final byte[] second,
+                            final int secondOffset, final int secondLength) {
+        final int length = Math.min(firstLength, secondLength);
+        for (int index = 0; index < length; index++) {
+            final int compared = (first[firstOffset + index] & 0xff) - (second[secondOffset + index] & 0xff);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return firstLength - secondLength;
+    }
+
+    /**
+     * Position of the term entry, found by a binary search over the term table, or -1.
+     */
+    private int find(final byte[] term) {
+        final int termsOffset = HEADER_SIZE + chapterCount * CHAPTER_SIZE;
+        int low = 0;
+        int high = termCount - 1;
+        while (low <= high) {
+            final int middle = (low + high) >>> 1;
+            final int entry = termsOffset + middle * TERM_SIZE;
+            final int compared = compare(buffer.getInt(entry + 12), buffer.getInt(entry + 16), term);
+            if (compared < 0) {
+                low = middle + 1;
+            } else if (compared > 0) {
+                high = middle - 1;
+            } else {
+                return entry;
+            }
+        }
+        return -1;
+    }
+
+    private int compare(final int offset, final int length, final byte[] term) {
+        final int common = Math.min(length, term.length);
+        for (int index = 0; index < common; index++) {
+            final int compared = (buffer.get(offset + index) & 0xff) - (term[index] & 0xff);
+            if (compared != 0) {
+                return compared;
+            }
+        }
+        return length - term.length;
+    }
+
+    private int readVarInt(final int[] cursor) {
+        int value = 0;
+        int shift = 0;
+        while (true) {
+            final byte next = buffer.get(cursor[0]++);
+            value |= (next & 0x7f) << shift;
+            if (next >= 0) {
+                return value;
+            }
+            shift += 7;
+        }
+    }
+
+    private static int[] intersect(final int[] first, final int[] second) {
+        final int[] result = new int[Math.min(first.length, second.length)];
+        int size = 0;
+        int firstIndex = 0;
+        int secondIndex = 0;
+        while (firstIndex < first.length && secondIndex < second.length) {
+            if (first[firstIndex] < second[secondIndex]) {
+                firstIndex++;
+            } else if (first[firstIndex] > second[secondIndex]) {
+                secondIndex++;
+            } else {
+                result[size++] = first[firstIndex];
+                firstIndex++;
+                secondIndex++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+}
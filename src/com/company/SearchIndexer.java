@@ -0,0 +1,327 @@
+package com.company;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Builds the full-text index of a book from the text layer of the rendered pages, read back as soon as a task
+ * finished. Pdf2htmlEX marks every page with its pdf page number (data-page-no, in hex), so page files, chapter files
+ * and stitched chapters are indexed alike. The words of a page are merged into the postings of the book under a short
+ * lock; the index is sorted and written as {@link SearchIndex} when the job is finished.
+ */
+class SearchIndexer implements TaskObserver {
+    static final String FILE_NAME = "search.idx";
+    private static final int MAX_TERM_LENGTH = 64;
+    private static final String PAGE_MARKER = "data-page-no=\"";
+
+    private final File htmlDirectory;
+    private final List<Chapter> chapters;
+    // page in the upper and position on the page in the lower half of every posting
+    private final Map<String, LongList> postings = new HashMap<>();
+    private final Set<Integer> indexedPages = new HashSet<>();
+
+    /**
+     * Growable array of postings, without boxing every one of them.
+     */
+    private static final class LongList {
+        private long[] values = new long[4];
+        private int size;
+
+        private void add(final long value) {
+            if (size == values.length) {
+                values = Arrays.copyOf(values, size * 2);
+            }
+            values[size++] = value;
+        }
+    }
+
+    public SearchIndexer(final File htmlDirectory, final List<Chapter> chapters) {
+        this.htmlDirectory = htmlDirectory;
+        this.chapters = chapters;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            return;
+        }
+        final List<File> outputs = task.getOutputs();
+        final boolean perPage = outputs.size() == task.getPageCount();
+        for (int index = 0; index < outputs.size(); index++) {
+            try {
+                add(outputs.get(index), perPage ? task.getStartPage() + index : task.getStartPage());
+            } catch (IOException e) {
+                System.out.println("Can not index " + outputs.get(index) + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Indexes the pages no task reported, because the cache or a resumed run had them, and writes the index next to
+     * output.json.
+     */
+    public void finish() throws IOException {
+        final File[] files = htmlDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                final File[] children = file.isDirectory() ? file.listFiles() : new File[]{file};
+                if (children == null) {
+                    continue;
+                }
+                for (File child : children) {
+                    if (child.isFile() && child.getName().endsWith(".html")) {
+                        add(child, -1);
+                    }
+                }
+            }
+        }
+        write(new File(htmlDirectory, FILE_NAME));
+    }
+
+    /**
+     * Indexes the pages of a rendered file which are not indexed yet.
+     *
+     * @param defaultPage page of the text of a file without page markers, -1 to skip such a file
+     */
+    private void add(final File file, final int defaultPage) throws IOException {
+        if (!file.isFile()) {
+            return;
+        }
+        final String html = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+        final Map<Integer, Map<String, List<Integer>>> pages = new HashMap<>();
+        // the outline before the first page is not text of any page
+        int page = html.contains(PAGE_MARKER) ? -1 : defaultPage;
+        int position = 0;
+        Map<String, List<Integer>> words = null;
+        final StringBuilder word = new StringBuilder();
+        int index = html.indexOf("<body");
+        index = index < 0 ? 0 : index;
+        while (index < html.length()) {
+            final char character = html.charAt(index);
+            if (character == '<') {
+                final int end = html.indexOf('>', index);
+                if (end < 0) {
+                    break;
+                }
+                final String tag = html.substring(index, end + 1);
+                // lines, and the spacing spans pdf2htmlEX puts between words, end a word, other tags do not
+                if (tag.startsWith("<div") || tag.startsWith("</div") || tag.startsWith("<br")
+                        || tag.startsWith("<span class=\"_")) {
+                    position = flush(word, words, position);
+                }
+                final int marker = tag.indexOf(PAGE_MARKER);
+                if (marker >= 0 && tag.startsWith("<div")) {
+                    final int valueStart = marker + PAGE_MARKER.length();
+                    try {
+                        page = Integer.parseInt(tag.substring(valueStart, tag.indexOf('"', valueStart)), 16);
+                        position = 0;
+                    } catch (NumberFormatException e) {
+                        page = -1;
+                    }
+                }
+                if (tag.startsWith("<script") || tag.startsWith("<style")) {
+                    final int close = html.indexOf("</" + tag.substring(1, tag.startsWith("<script") ? 7 : 6),
+                            end);
+                    index = close < 0 ? html.length() : close;
+                    continue;
+                }
+                index = end + 1;
+                if (page >= 0) {
+                    words = pages.get(page);
+                    if (words == null) {
+                        words = new HashMap<>();
+                        pages.put(page, words);
+                    }
+                } else {
+                    words = null;
+                }
+                continue;
+            }
+            int codePoint = html.codePointAt(index);
+            int length = Character.charCount(codePoint);
+            if (character == '&') {
+                final int end = html.indexOf(';', index);
+                if (end > index && end - index < 10) {
+                    codePoint = decodeEntity(html.substring(index + 1, end));
+                    length = end - index + 1;
+                }
+            }
+            if (Character.isLetterOrDigit(codePoint)) {
+                word.appendCodePoint(codePoint);
+            } else {
+                position = flush(word, words, position);
+            }
+            index += length;
+        }
+        flush(word, words, position);
+        for (Map.Entry<Integer, Map<String, List<Integer>>> entry : pages.entrySet()) {
+            merge(entry.getKey(), entry.getValue());
+        }
+    }
+
+    private static int flush(final StringBuilder word, final Map<String, List<Integer>> words, final int position) {
+        if (word.length() == 0) {
+            return position;
+        }
+        final String term = word.toString().toLowerCase(Locale.ROOT);
+        word.setLength(0);
+        if (words == null || term.length() > MAX_TERM_LENGTH) {
+            return position + 1;
+        }
+        List<Integer> positions = words.get(term);
+        if (positions == null) {
+            positions = new ArrayList<>();
+            words.put(term, positions);
+        }
+        positions.add(position);
+        return position + 1;
+    }
+
+    private synchronized void merge(final int page, final Map<String, List<Integer>> words) {
+        if (!indexedPages.add(page)) {
+            return;
+        }
+        for (Map.Entry<String, List<Integer>> entry : words.entrySet()) {
+            LongList list = postings.get(entry.getKey());
+            if (list == null) {
+                list = new LongList();
+                postings.put(entry.getKey(), list);
+            }
+            for (Integer position : entry.getValue()) {
+                list.add((long) page << 32 | position);
+            }
+        }
+    }
+
+    private static int decodeEntity(final String entity) {
+        try {
+            if (entity.startsWith("#x") || entity.startsWith("#X")) {
+                return Integer.parseInt(entity.substring(2), 16);
+            }
+            if (entity.startsWith("#")) {
+                return Integer.parseInt(entity.substring(1));
+            }
+        } catch (NumberFormatException e) {
+            return ' ';
+        }
+        if ("amp".equals(entity)) {
+            return '&';
+        }
+        // &lt; &gt; &quot; &nbsp; and the like separate words
+        return ' ';
+    }
+
+    private synchronized void write(final File file) throws IOException {
+        final List<byte[]> terms = new ArrayList<>();
+        final Map<byte[], LongList> byTerm = new HashMap<>();
+        for (Map.Entry<String, LongList> entry : postings.entrySet()) {
+            final byte[] term = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            terms.add(term);
+            byTerm.put(term, entry.getValue());
+        }
+        Collections.sort(terms, new Comparator<byte[]>() {
+            @Override
+            public int compare(byte[] first, byte[] second) {
+                return SearchIndex.compareBytes(first, 0, first.length, second, 0, second.length);
+            }
+        });
+        // postings of every term: page delta, number of positions and position deltas, all as varints
+        final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+        final int[] postingsOffsets = new int[terms.size() + 1];
+        final int[] pageFrequencies = new int[terms.size()];
+        for (int termIndex = 0; termIndex < terms.size(); termIndex++) {
+            postingsOffsets[termIndex] = encoded.size();
+            final LongList list = byTerm.get(terms.get(termIndex));
+            final long[] values = Arrays.copyOf(list.values, list.size);
+            Arrays.sort(values);
+            int previousPage = 0;
+            int start = 0;
+            while (start < values.length) {
+                final int page = (int) (values[start] >>> 32);
+                int end = start;
+                while (end < values.length && (int) (values[end] >>> 32) == page) {
+                    end++;
+                }
+                writeVarInt(encoded, page - previousPage);
+                writeVarInt(encoded, end - start);
+                int previousPosition = 0;
+                for (int index = start; index < end; index++) {
+                    final int position = (int) values[index];
+                    writeVarInt(encoded, position - previousPosition);
+                    previousPosition = position;
+                }
+                pageFrequencies[termIndex]++;
+                previousPage = page;
+                start = end;
+            }
+        }
+        postingsOffsets[terms.size()] = encoded.size();
+        int termBytes = 0;
+        for (byte[] term : terms) {
+            termBytes += term.length;
+        }
+        final long termsOffset = SearchIndex.HEADER_SIZE + (long) chapters.size() * SearchIndex.CHAPTER_SIZE;
+        final long poolOffset = termsOffset + (long) terms.size() * SearchIndex.TERM_SIZE;
+        final long postingsOffset = poolOffset + termBytes;
+        final File temporary = new File(file.getPath() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temporary)))) {
+            output.write(SearchIndex.MAGIC);
+            output.writeInt(SearchIndex.VERSION);
+            output.writeInt(chapters.size());
+            output.writeInt(terms.size());
+            output.writeInt(indexedPages.size());
+            for (Chapter chapter : chapters) {
+                output.writeInt(chapter.getFirst());
+                output.writeInt(chapter.getLast());
+            }
+            int termOffset = 0;
+            for (int termIndex = 0; termIndex < terms.size(); termIndex++) {
+                output.writeLong(postingsOffset + postingsOffsets[termIndex]);
+                output.writeInt(postingsOffsets[termIndex + 1] - postingsOffsets[termIndex]);
+                output.writeInt((int) (poolOffset + termOffset));
+                output.writeInt(terms.get(termIndex).length);
+                output.writeInt(pageFrequencies[termIndex]);
+                termOffset += terms.get(termIndex).length;
+            }
+            for (byte[] term : terms) {
+                output.write(term);
+            }
+            encoded.writeTo(output);
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        System.out.println("Indexed " + terms.size() + " words of " + indexedPages.size() + " pages into "
+                + file.length() / 1024 + " KB");
+    }
+
+    private static void writeVarInt(final ByteArrayOutputStream output, final int value) {
+        int remaining = value;
+        while ((remaining & ~0x7f) != 0) {
+            output.write((remaining & 0x7f) | 0x80);
+            remaining >>>= 7;
+        }
+        output.write(remaining);
+    }
+}
@@ -0,0 +1,115 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pages which more than one chapter covers are rendered for the first of them only. The other chapters get a hard link
+ * to that output once the task which renders it has finished, or a copy where the file system has no hard links.
+ * Keyed by output file, so retried and split tasks are linked all the same.
+ */
+class SharedPageLinker implements TaskObserver {
+    private final Map<File, List<Alias>> aliases = new HashMap<>();
+    private final Map<Integer, Integer> pendingPages = new HashMap<>();
+
+    /**
+     * A chapter output which is the same as the output of an earlier chapter.
+     */
+    static final class Alias {
+        private final int chapterIndex;
+        private final int firstPage;
+        private final int lastPage;
+        private final File file;
+
+        private Alias(final int chapterIndex, final int firstPage, final int lastPage, final File file) {
+            this.chapterIndex = chapterIndex;
+            this.firstPage = firstPage;
+            this.lastPage = lastPage;
+            this.file = file;
+        }
+
+        public int getChapterIndex() {
+            return chapterIndex;
+        }
+
+        public int getFirstPage() {
+            return firstPage;
+        }
+
+        public int getLastPage() {
+            return lastPage;
+        }
+
+        public File getFile() {
+            return file;
+        }
+    }
+
+    /**
+     * Links the alias to the output of a task which still has to render it.
+     */
+    public synchronized void add(final File output, final int chapterIndex, final int firstPage, final int lastPage,
+                                 final File alias) {
+        List<Alias> list = aliases.get(output);
+        if (list == null) {
+            list = new ArrayList<>();
+            aliases.put(output, list);
+        }
+        list.add(new Alias(chapterIndex, firstPage, lastPage, alias));
+        final Integer pending = pendingPages.get(chapterIndex);
+        pendingPages.put(chapterIndex, (pending == null ? 0 : pending) + lastPage - firstPage + 1);
+    }
+
+    public synchronized List<Alias> getAliases(final File output) {
+        final List<Alias> list = aliases.get(output);
+        return list == null ? Collections.<Alias>emptyList() : new ArrayList<>(list);
+    }
+
+    /**
+     * Pages of the chapter which wait for the output of another chapter.
+     */
+    public synchronized int getPendingPages(final int chapterIndex) {
+        final Integer pending = pendingPages.get(chapterIndex);
+        return pending == null ? 0 : pending;
+    }
+
+    @Override
+    public void taskStarted(final RenderTask task) {
+    }
+
+    @Override
+    public void taskFinished(final RenderTask task, final boolean success) {
+        if (!success) {
+            return;
+        }
+        for (File output : task.getOutputs()) {
+            for (Alias alias : getAliases(output)) {
+                try {
+                    link(output, alias.file);
+                } catch (IOException e) {
+                    System.out.println("Can not link " + alias.file + " to " + output + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Replaces the alias by a hard link to the output.
+     */
+    public static void link(final File output, final File alias) throws IOException {
+        alias.getParentFile().mkdirs();
+        Files.deleteIfExists(alias.toPath());
+        try {
+            Files.createLink(alias.toPath(), output.toPath());
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(output.toPath(), alias.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
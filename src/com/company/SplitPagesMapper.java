@@ -0,0 +1,42 @@
+package com.company;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Turns the output of one --split-pages invocation (a document shell plus one fragment per page) into complete
+ * {@code <index>.html} pages in the chapter folder, where index is the page position inside the chapter.
+ */
+class SplitPagesMapper implements OutputMapper {
+    private final File stageDirectory;
+    private final String shellFileName;
+    private final String pageFileTemplate;
+    private final File outputDirectory;
+    private final int chapterFirstPage;
+
+    public SplitPagesMapper(final File stageDirectory, final String shellFileName, final String pageFileTemplate,
+                            final File outputDirectory, final int chapterFirstPage) {
+        this.stageDirectory = stageDirectory;
+        this.shellFileName = shellFileName;
+        this.pageFileTemplate = pageFileTemplate;
+        this.outputDirectory = outputDirectory;
+        this.chapterFirstPage = chapterFirstPage;
+    }
+
+    @Override
+    public void map(final RenderTask task) throws IOException {
+        final File shellFile = new File(stageDirectory, shellFileName);
+        final HtmlShell shell = HtmlShell.read(shellFile);
+        outputDirectory.mkdirs();
+        for (int page = task.getStartPage(); page <= task.getEndPage(); page++) {
+            final File fragment = new File(stageDirectory, String.format(pageFileTemplate, page));
+            if (!fragment.exists()) {
+                throw new IOException("Missing page " + page + " in " + stageDirectory);
+            }
+            shell.write(new File(outputDirectory, (page - chapterFirstPage) + ".html"), fragment);
+            fragment.delete();
+        }
+        shellFile.delete();
+        stageDirectory.delete();
+    }
+}
@@ -0,0 +1,10 @@
+package com.company;
+
+/**
+ * Gets told by the scheduler when a render task starts and how it ended. Called from the worker threads.
+ */
+interface TaskObserver {
+    public void taskStarted(final RenderTask task);
+
+    public void taskFinished(final RenderTask task, final boolean success);
+}
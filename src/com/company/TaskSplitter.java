@@ -0,0 +1,8 @@
+package com.company;
+
+/**
+ * Creates a task rendering only part of the pages of a failed task, with the same outputs and mappers.
+ */
+interface TaskSplitter {
+    public RenderTask split(final RenderTask parent, final int first, final int last);
+}
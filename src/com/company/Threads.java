@@ -0,0 +1,59 @@
+package com.company;
+
+import java.lang.reflect.Method;
+
+/**
+ * Creates the threads which only wait: workers blocked on a renderer process and the readers of its output.
+ * On a runtime with virtual threads these are virtual, so a wait costs no platform thread and the number of workers is
+ * not a sizing trade-off. Elsewhere they are daemon platform threads. The build targets an older release, so the
+ * virtual thread builder is looked up reflectively.
+ */
+final class Threads {
+    private static final Object VIRTUAL_BUILDER;
+    private static final Method NAME;
+    private static final Method UNSTARTED;
+
+    static {
+        Object builder = null;
+        Method name = null;
+        Method unstarted = null;
+        try {
+            final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+            builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            name = builderClass.getMethod("name", String.class);
+            unstarted = builderClass.getMethod("unstarted", Runnable.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            builder = null;
+        }
+        VIRTUAL_BUILDER = builder;
+        NAME = name;
+        UNSTARTED = unstarted;
+    }
+
+    private Threads() {
+    }
+
+    public static boolean isVirtual() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    /**
+     * A started thread running the given work, which does not keep the JVM alive.
+     */
+    public static Thread start(final String name, final Runnable runnable) {
+        Thread thread = null;
+        if (VIRTUAL_BUILDER != null) {
+            try {
+                thread = (Thread) UNSTARTED.invoke(NAME.invoke(VIRTUAL_BUILDER, name), runnable);
+            } catch (ReflectiveOperationException e) {
+                thread = null;
+            }
+        }
+        if (thread == null) {
+            thread = new Thread(runnable, name);
+            thread.setDaemon(true);
+        }
+        thread.start();
+        return thread;
+    }
+}
@@ -0,0 +1,294 @@
+package com.company;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * Work queue in a folder which the coordinator and all worker nodes mount at the same path. It only relies on
+ * atomic renames within one file system:
+ * <ul>
+ * <li>queued/&lt;id&gt;.task: a published task, its commands and limits as properties</li>
+ * <li>leased/&lt;id&gt;@&lt;worker&gt;.task: a task a worker claimed by renaming it. The worker touches the file
+ * while it renders; a lease which was not touched for the lease time is renamed back to queued/, so the pages of a
+ * dead worker are picked up by another one</li>
+ * <li>results/&lt;id&gt;.result: exit code, output tail and diagnostics of a finished task</li>
+ * <li>stop: makes the workers exit once their current tasks are done</li>
+ * </ul>
+ * Every attempt of a task gets its own id, so a late result of a lost lease never passes for a newer attempt, and
+ * tasks of books rendered at the same time never share one although their names are the same in every book.
+ * A task holds what to render as {@link RenderCommand} values, never a command line: the worker builds the command
+ * for its own renderer. The PDF and output folders must be on the shared file system.
+ */
+class WorkQueue {
+    private static final String QUEUED = "queued";
+    private static final String LEASED = "leased";
+    private static final String RESULTS = "results";
+    private static final String STOP = "stop";
+    private static final String TASK_EXTENSION = ".task";
+    private static final String RESULT_EXTENSION = ".result";
+    private static final char OWNER_SEPARATOR = '@';
+    private static final long POLL_INTERVAL_MILLIS = 200;
+
+    private final File directory;
+    private final long leaseMillis;
+    private final String nodeId;
+    private Thread leaseMonitor;
+
+    public WorkQueue(final File directory, final long leaseMillis) {
+        this.directory = directory;
+        this.leaseMillis = leaseMillis;
+        this.nodeId = createNodeId();
+        new File(directory, QUEUED).mkdirs();
+        new File(directory, LEASED).mkdirs();
+        new File(directory, RESULTS).mkdirs();
+    }
+
+    private static String createNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            host = "node";
+        }
+        final String jvm = ManagementFactory.getRuntimeMXBean().getName();
+        final String pid = jvm.indexOf('@') > 0 ? jvm.substring(0, jvm.indexOf('@')) : jvm;
+        return (host + "-" + pid).replaceAll("[^A-Za-z0-9.-]", "_");
+    }
+
+    public long getLeaseMillis() {
+        return leaseMillis;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    /**
+     * Result of a task rendered by a worker.
+     */
+    static class Result {
+        private final Properties properties;
+
+        private Result(final Properties properties) {
+            this.properties = properties;
+        }
+
+        public int getExitCode() {
+            return Integer.parseInt(properties.getProperty("exitCode", "-1"));
+        }
+
+        public String getFailureReason() {
+            return properties.getProperty("failureReason");
+        }
+
+        public String getWorker() {
+            return properties.getProperty("worker");
+        }
+
+        public long getLong(final String key) {
+            return Long.parseLong(properties.getProperty(key, "-1"));
+        }
+
+        public List<String> getOutputTail() {
+            final List<String> lines = new ArrayList<>();
+            for (int index = 0; properties.containsKey("tail." + index); index++) {
+                lines.add(properties.getProperty("tail." + index));
+            }
+            return lines;
+        }
+
+        public List<Diagnostic> getDiagnostics() {
+            final List<Diagnostic> diagnostics = new ArrayList<>();
+            for (int index = 0; properties.containsKey("diagnostic." + index + ".page"); index++) {
+                diagnostics.add(new Diagnostic(Integer.parseInt(properties.getProperty("diagnostic." + index
+                        + ".page")), properties.getProperty("diagnostic." + index + ".severity"),
+                        properties.getProperty("diagnostic." + index + ".message")));
+            }
+            return diagnostics;
+        }
+    }
+
+    /**
+     * Publishes the current attempt of the task and waits until a worker returned its result, or the task was
+     * cancelled, in which case null is returned.
+     */
+    public Result execute(final RenderTask task) throws IOException, InterruptedException {
+        final String id = nodeId + "-" + task.getName() + "-" + task.getAttempt() + "-" + UUID.randomUUID();
+        final Properties properties = new Properties();
+        properties.setProperty("name", task.getName());
+        properties.setProperty("chapterIndex", String.valueOf(task.getChapterIndex()));
+        properties.setProperty("startPage", String.valueOf(task.getStartPage()));
+        properties.setProperty("endPage", String.valueOf(task.getEndPage()));
+        properties.setProperty("wallTimeoutMillis", String.valueOf(task.getWallTimeoutMillis()));
+        properties.setProperty("cpuTimeoutMillis", String.valueOf(task.getCpuTimeoutMillis()));
+        properties.setProperty("memoryLimitBytes", String.valueOf(task.getMemoryLimitBytes()));
+        for (int commandIndex = 0; commandIndex < task.getCommands().size(); commandIndex++) {
+            task.getCommands().get(commandIndex).store(properties, "command." + commandIndex + ".");
+        }
+        final File resultFile = new File(new File(directory, RESULTS), id + RESULT_EXTENSION);
+        final File queuedFile = new File(new File(directory, QUEUED), id + TASK_EXTENSION);
+        resultFile.delete();
+        write(queuedFile, properties);
+        while (!resultFile.exists()) {
+            if (task.isCancelled()) {
+                // a worker which already claimed it finishes it, the result is simply never read
+                queuedFile.delete();
+                return null;
+            }
+            Thread.sleep(POLL_INTERVAL_MILLIS);
+        }
+        final Result result = new Result(read(resultFile));
+        resultFile.delete();
+        return result;
+    }
+
+    /**
+     * Claims the oldest queued task for the given worker. Returns the lease file, or null when nothing is queued.
+     */
+    public File claim(final String workerId) {
+        final File[] queued = new File(directory, QUEUED).listFiles();
+        if (queued == null || queued.length == 0) {
+            return null;
+        }
+        Arrays.sort(queued, new Comparator<File>() {
+            @Override
+            public int compare(File first, File second) {
+                return Long.compare(first.lastModified(), second.lastModified());
+            }
+        });
+        for (File file : queued) {
+            final String name = file.getName();
+            if (!name.endsWith(TASK_EXTENSION)) {
+                continue;
+            }
+            final File lease = new File(new File(directory, LEASED), name.substring(0, name.length()
+                    - TASK_EXTENSION.length()) + OWNER_SEPARATOR + workerId + TASK_EXTENSION);
+            try {
+                // exactly one of the competing workers wins the rename
+                Files.move(file.toPath(), lease.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                lease.setLastModified(System.currentTimeMillis());
+                return lease;
+            } catch (IOException e) {
+                // taken by another worker in the meantime
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extends a lease. Returns false when it was lost, e.g. because it expired and was queued again.
+     */
+    public boolean renew(final File lease) {
+        return lease.setLastModified(System.currentTimeMillis());
+    }
+
+    public Properties readTask(final File lease) throws IOException {
+        return read(lease);
+    }
+
+    /**
+     * Publishes the result of a leased task and ends the lease. A lost lease is not reported, the task runs again
+     * elsewhere.
+     */
+    public boolean complete(final File lease, final Properties result) throws IOException {
+        if (!lease.exists()) {
+            return false;
+        }
+        final String name = lease.getName();
+        final String id = name.substring(0, name.lastIndexOf(OWNER_SEPARATOR));
+        write(new File(new File(directory, RESULTS), id + RESULT_EXTENSION), result);
+        lease.delete();
+        return true;
+    }
+
+    public boolean isStopped() {
+        return new File(directory, STOP).exists();
+    }
+
+    /**
+     * Queues expired leases again, every lease time, until {@link #stopLeaseMonitor()}.
+     */
+    public void startLeaseMonitor() {
+        leaseMonitor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (!Thread.currentThread().isInterrupted()) {
+                    requeueExpiredLeases();
+                    try {
+                        Thread.sleep(Math.max(POLL_INTERVAL_MILLIS, leaseMillis / 2));
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                }
+            }
+        }, "lease-monitor");
+        leaseMonitor.setDaemon(true);
+        leaseMonitor.start();
+    }
+
+    public void stopLeaseMonitor() {
+        if (leaseMonitor != null) {
+            leaseMonitor.interrupt();
+        }
+    }
+
+    public void requeueExpiredLeases() {
+        final File[] leases = new File(directory, LEASED).listFiles();
+        if (leases == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        for (File lease : leases) {
+            final String name = lease.getName();
+            final int separator = name.lastIndexOf(OWNER_SEPARATOR);
+            if (separator < 0 || now - lease.lastModified() < leaseMillis) {
+                continue;
+            }
+            final File queued = new File(new File(directory, QUEUED), name.substring(0, separator) + TASK_EXTENSION);
+            try {
+                Files.move(lease.toPath(), queued.toPath(), StandardCopyOption.ATOMIC_MOVE);
+                System.out.println("lease of " + name.substring(0, separator) + " held by "
+                        + name.substring(separator + 1, name.length() - TASK_EXTENSION.length())
+                        + " expired, queued again");
+            } catch (IOException e) {
+                // renewed, completed or requeued by someone else in the meantime
+            }
+        }
+    }
+
+    private static Properties read(final File file) throws IOException {
+        final Properties properties = new Properties();
+        try (InputStream inputStream = new FileInputStream(file)) {
+            properties.load(inputStream);
+        }
+        return properties;
+    }
+
+    private static void write(final File file, final Properties properties) throws IOException {
+        final File temporary = new File(file.getParentFile(), "." + UUID.randomUUID() + ".tmp");
+        try (OutputStream outputStream = new FileOutputStream(temporary)) {
+            properties.store(outputStream, null);
+        }
+        try {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+}
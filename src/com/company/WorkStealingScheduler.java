@@ -0,0 +1,378 @@
+package com.company;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs render tasks on a fixed number of workers.
+ * Tasks are sorted by their priority class and then longest-first by their estimated cost, and dealt to the least
+ * loaded worker. Each worker keeps its
+ * own deque; a worker which runs out of work steals the biggest waiting task of the most loaded worker, so the end of
+ * a book is not held up by one worker still chewing through its share.
+ * A failed task is retried with exponential backoff. When it keeps failing it is bisected if it spans several pages,
+ * and quarantined once it is down to a single page, so one broken page does not stall or fail its neighbours.
+ */
+class WorkStealingScheduler {
+    private static final long COST_SCALE = 1000;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+    // how long a worker waits for a render slot before it checks again whether work is left at all
+    private static final long SLOT_WAIT_MILLIS = 100;
+
+    private final int workerCount;
+    private final CostEstimator costEstimator;
+    private final List<Worker> workers = new ArrayList<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final List<TaskObserver> observers = new ArrayList<>();
+    private final List<RenderTask> quarantined = Collections.synchronizedList(new ArrayList<RenderTask>());
+    private int retries;
+    private long backoffMillis;
+    private ConcurrencyController concurrencyController;
+    private ConcurrencyController.Share share;
+    private volatile boolean cancelled;
+    private ScheduledExecutorService retryTimer;
+    private long startNanos;
+    private long endNanos;
+
+    public WorkStealingScheduler(final int workerCount, final CostEstimator costEstimator) {
+        this.workerCount = workerCount;
+        this.costEstimator = costEstimator;
+    }
+
+    public void addObserver(final TaskObserver observer) {
+        this.observers.add(observer);
+    }
+
+    public void setRetryPolicy(final int retries, final long backoffMillis) {
+        this.retries = retries;
+        this.backoffMillis = backoffMillis;
+    }
+
+    /**
+     * Limits how many of the workers render at the same time, null to let all of them run. With a controller there
+     * can be more workers than render slots, the extra ones post-process while the slots render the next pages.
+     */
+    public void setConcurrencyController(final ConcurrencyController concurrencyController,
+                                         final ConcurrencyController.Share share) {
+        this.concurrencyController = concurrencyController;
+        this.share = share;
+    }
+
+    /**
+     * Drops all waiting tasks and kills the running ones. {@link #run(List)} returns once the running tasks are gone.
+     */
+    public void cancel() {
+        cancelled = true;
+        for (Worker worker : new ArrayList<>(workers)) {
+            while (worker.poll() != null) {
+                pending.decrementAndGet();
+            }
+            final RenderTask task = worker.current;
+            if (task != null) {
+                task.cancel();
+            }
+        }
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * Tasks which failed for good in the last run.
+     */
+    public List<RenderTask> getQuarantined() {
+        return new ArrayList<>(quarantined);
+    }
+
+    /**
+     * Number of tasks waiting in the worker queues.
+     */
+    public int getQueuedCount() {
+        int count = 0;
+        for (Worker worker : new ArrayList<>(workers)) {
+            count += worker.deque.size();
+        }
+        return count;
+    }
+
+    public void run(final List<RenderTask> tasks) throws InterruptedException {
+        final List<RenderTask> sorted = new ArrayList<>(tasks);
+        for (RenderTask task : sorted) {
+            task.setCost(costEstimator.estimate(task));
+        }
+        Collections.sort(sorted, new Comparator<RenderTask>() {
+            @Override
+            public int compare(RenderTask first, RenderTask second) {
+                final int priority = first.getPriority().compareTo(second.getPriority());
+                return priority != 0 ? priority : Double.compare(second.getCost(), first.getCost());
+            }
+        });
+
+        workers.clear();
+        for (int index = 0; index < workerCount; index++) {
+            workers.add(new Worker(index));
+        }
+        pending.set(sorted.size());
+        for (RenderTask task : sorted) {
+            leastLoadedWorker().push(task);
+        }
+
+        quarantined.clear();
+        retryTimer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                final Thread thread = new Thread(runnable, "render-retry");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        startNanos = System.nanoTime();
+        final List<Thread> threads = new ArrayList<>();
+        for (Worker worker : workers) {
+            threads.add(Threads.start("render-worker-" + worker.index, worker));
+        }
+        try {
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            endNanos = System.nanoTime();
+            retryTimer.shutdownNow();
+        }
+    }
+
+    /**
+     * Decides what happens to a failed task. Called before the task is counted as done, so the workers keep running
+     * while a retry is waiting for its backoff.
+     */
+    private void handleFailure(final RenderTask task) {
+        if (cancelled) {
+            return;
+        }
+        if (task.getAttempt() <= retries) {
+            final long delay = backoffMillis << Math.min(task.getAttempt() - 1, 10);
+            System.out.println("retry " + task.getName() + " in " + delay + "ms: " + task.getFailureReason());
+            pending.incrementAndGet();
+            retryTimer.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    if (cancelled) {
+                        pending.decrementAndGet();
+                    } else {
+                        leastLoadedWorker().requeue(task);
+                    }
+                }
+            }, delay, TimeUnit.MILLISECONDS);
+            return;
+        }
+        final RenderTask[] halves = task.bisect();
+        if (halves != null) {
+            System.out.println("split " + task.getName() + " after " + task.getAttempt() + " attempts: "
+                    + task.getFailureReason());
+            for (RenderTask half : halves) {
+                // the pages already had their retries together, the halves only get one attempt each
+                half.setAttempt(retries);
+                half.setCost(costEstimator.estimate(half));
+                pending.incrementAndGet();
+                leastLoadedWorker().requeue(half);
+            }
+            return;
+        }
+        System.out.println("quarantine " + task.getName() + ": " + task.getFailureReason());
+        quarantined.add(task);
+    }
+
+    private Worker leastLoadedWorker() {
+        Worker result = workers.get(0);
+        for (Worker worker : workers) {
+            if (worker.queuedCost.get() < result.queuedCost.get()) {
+                result = worker;
+            }
+        }
+        return result;
+    }
+
+    private RenderTask steal(final Worker thief) {
+        Worker victim = null;
+        for (Worker worker : workers) {
+            if (worker != thief && !worker.deque.isEmpty()
+                    && (victim == null || worker.queuedCost.get() > victim.queuedCost.get())) {
+                victim = worker;
+            }
+        }
+        return victim == null ? null : victim.poll();
+    }
+
+    /**
+     * A task of a higher priority class than the next one of the thief, so the cover and the openers are all started
+     * before any worker goes on with the rest. Null when the thief's own next task is as urgent as any.
+     */
+    private RenderTask stealPrioritized(final Worker thief) {
+        final RenderTask own = thief.deque.peekFirst();
+        Worker victim = null;
+        RenderTask.Priority best = own == null ? RenderTask.Priority.REST : own.getPriority();
+        for (Worker worker : workers) {
+            final RenderTask head = worker.deque.peekFirst();
+            if (worker != thief && head != null && head.getPriority().compareTo(best) < 0) {
+                victim = worker;
+                best = head.getPriority();
+            }
+        }
+        return victim == null ? null : victim.poll();
+    }
+
+    public void printUtilizationReport() {
+        final double wallSeconds = (endNanos - startNanos) / 1e9;
+        long busyNanos = 0;
+        int taskCount = 0;
+        long firstIdleNanos = endNanos;
+        System.out.println(String.format("Worker utilization (wall %.2fs, %d workers):", wallSeconds, workerCount));
+        System.out.println("worker   tasks  stolen   busy(s)  utilization");
+        for (Worker worker : workers) {
+            busyNanos += worker.busyNanos;
+            taskCount += worker.taskCount;
+            if (worker.lastFinishNanos != 0 && worker.lastFinishNanos < firstIdleNanos) {
+                firstIdleNanos = worker.lastFinishNanos;
+            }
+            System.out.println(String.format("%6d  %6d  %6d  %8.2f  %10.1f%%", worker.index, worker.taskCount,
+                    worker.stolenCount, worker.busyNanos / 1e9, percent(worker.busyNanos, endNanos - startNanos)));
+        }
+        System.out.println(String.format("overall: %d tasks, utilization %.1f%%, tail %.2fs (first worker idle until " +
+                        "the end)", taskCount, percent(busyNanos, (endNanos - startNanos) * workerCount),
+                (endNanos - firstIdleNanos) / 1e9));
+    }
+
+    private static double percent(final long part, final long total) {
+        return total <= 0 ? 0 : part * 100.0 / total;
+    }
+
+    private class Worker implements Runnable {
+        private final int index;
+        private final LinkedBlockingDeque<RenderTask> deque = new LinkedBlockingDeque<>();
+        private final AtomicLong queuedCost = new AtomicLong();
+        private long busyNanos;
+        private long lastFinishNanos;
+        private int taskCount;
+        private int stolenCount;
+        private volatile RenderTask current;
+
+        private Worker(final int index) {
+            this.index = index;
+        }
+
+        private void push(final RenderTask task) {
+            queuedCost.addAndGet(scaledCost(task));
+            deque.addLast(task);
+        }
+
+        /**
+         * Puts a retried or split task back. Prioritized tasks go to the front, so they do not wait behind the rest.
+         */
+        private void requeue(final RenderTask task) {
+            if (task.getPriority() == RenderTask.Priority.REST) {
+                push(task);
+            } else {
+                queuedCost.addAndGet(scaledCost(task));
+                deque.addFirst(task);
+            }
+        }
+
+        private RenderTask poll() {
+            final RenderTask task = deque.pollFirst();
+            if (task != null) {
+                queuedCost.addAndGet(-scaledCost(task));
+            }
+            return task;
+        }
+
+        @Override
+        public void run() {
+            while (pending.get() > 0) {
+                ConcurrencyController.Slot slot = null;
+                if (concurrencyController != null) {
+                    // only compete for a slot when there is something to render, other jobs may need it
+                    if (getQueuedCount() == 0) {
+                        LockSupport.parkNanos(IDLE_PARK_NANOS);
+                        continue;
+                    }
+                    try {
+                        slot = concurrencyController.tryAcquire(share, SLOT_WAIT_MILLIS);
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    if (slot == null) {
+                        continue;
+                    }
+                }
+                RenderTask task = stealPrioritized(this);
+                if (task != null) {
+                    stolenCount++;
+                } else {
+                    task = poll();
+                }
+                if (task == null) {
+                    task = steal(this);
+                    if (task != null) {
+                        stolenCount++;
+                    }
+                }
+                if (task == null) {
+                    if (slot != null) {
+                        slot.release();
+                    }
+                    LockSupport.parkNanos(IDLE_PARK_NANOS);
+                    continue;
+                }
+                current = task;
+                if (cancelled) {
+                    current = null;
+                    if (slot != null) {
+                        slot.release();
+                    }
+                    pending.decrementAndGet();
+                    continue;
+                }
+                final long start = System.nanoTime();
+                boolean success = false;
+                for (TaskObserver observer : observers) {
+                    observer.taskStarted(task);
+                }
+                task.setSlot(slot);
+                try {
+                    success = task.call() == 1;
+                } catch (Exception ex) {
+                    System.out.println("Task " + task.getName() + " failed: " + ex.getMessage());
+                } finally {
+                    for (TaskObserver observer : observers) {
+                        observer.taskFinished(task, success);
+                    }
+                    if (!success) {
+                        handleFailure(task);
+                    }
+                    lastFinishNanos = System.nanoTime();
+                    busyNanos += lastFinishNanos - start;
+                    taskCount++;
+                    current = null;
+                    if (slot != null) {
+                        slot.release();
+                    }
+                    pending.decrementAndGet();
+                }
+            }
+        }
+    }
+
+    private static long scaledCost(final RenderTask task) {
+        return (long) (task.getCost() * COST_SCALE);
+    }
+}
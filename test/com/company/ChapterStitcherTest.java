@@ -0,0 +1,163 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChapterStitcherTest {
+    private static final String BASE_STYLE = ".pf{position:relative}";
+    private static final String TAIL = "<div class=\"loading-indicator\"><img alt=\"\"/></div>\n</body></html>\n";
+
+    @TempDir
+    File directory;
+
+    /**
+     * A part the way pdf2htmlEX writes it: the base style, the fonts and classes numbered per process, the page frames
+     * in the page container and the loading indicator after it.
+     */
+    private static String part(final String style, final int... pages) {
+        final StringBuilder html = new StringBuilder("<!DOCTYPE html>\n<html><head><meta charset=\"utf-8\"/>\n"
+                + "<style type=\"text/css\">" + BASE_STYLE + "</style>\n"
+                + "<style type=\"text/css\">" + style + "</style>\n"
+                + "<title></title></head><body>\n<div id=\"sidebar\"><div id=\"outline\"></div></div>\n"
+                + "<div id=\"page-container\">\n");
+        for (int page : pages) {
+            final String number = Integer.toHexString(page);
+            html.append("<div id=\"pf").append(number).append("\" class=\"pf w0 h0\" data-page-no=\"").append(number)
+                    .append("\"><div class=\"pc\">page ").append(page).append("</div></div>\n");
+        }
+        return html.append("</div>\n").append(TAIL).toString();
+    }
+
+    /**
+     * The chapter of pages 1 to 3 stitched from parts of pages 1-2 and 3: the content of every page container starts
+     * with its own line break.
+     */
+    private static String stitched(final String style) {
+        return part(style, 1, 2, 3).replace("page 2</div></div>\n", "page 2</div></div>\n\n");
+    }
+
+    private File write(final String name, final String content) throws IOException {
+        final File file = new File(directory, name);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(final File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    private static int count(final String text, final String part) {
+        int count = 0;
+        for (int index = text.indexOf(part); index >= 0; index = text.indexOf(part, index + 1)) {
+            count++;
+        }
+        return count;
+    }
+
+    @Test
+    void joinsPartsWithTheSameStylesAsTheyAre() throws IOException {
+        final String style = "@font-face{font-family:ff1;src:url(f1.woff)}.ff1{font-family:ff1}.w0{width:612px}";
+        final File chapter = new File(directory, "0.html");
+        ChapterStitcher.stitch(Arrays.asList(write("a/0.html", part(style, 1, 2)), write("b/0.html", part(style, 3))),
+                chapter);
+        final String html = read(chapter);
+        assertEquals(stitched(style), html);
+        assertFalse(html.contains("part0"));
+        assertFalse(new File(directory, "0.html.stitch.tmp").exists());
+    }
+
+    @Test
+    void scopesTheStylesThePartsDoNotShare() throws IOException {
+        final File chapter = new File(directory, "0.html");
+        ChapterStitcher.stitch(Arrays.asList(
+                write("a/0.html", part("@font-face{font-family:ff1;src:url(a.woff)}.ff1{font-family:ff1}"
+                        + ".w0{width:612px}", 1)),
+                write("b/0.html", part("@font-face{font-family:ff1;src:url(b.woff)}.ff1{font-family:ff1}"
+                        + ".w0{width:595px}", 2))), chapter);
+        final String html = read(chapter);
+        // the base style is shared and written once, unscoped
+        assertEquals(1, count(html, "<style type=\"text/css\">" + BASE_STYLE + "</style>"));
+        assertTrue(html.contains("<style type=\"text/css\">@font-face{font-family:part0-ff1;src:url(a.woff)}"
+                + ".part0 .ff1,.ff1.part0{font-family:part0-ff1}.part0 .w0,.w0.part0{width:612px}</style>"));
+        assertTrue(html.contains("<style type=\"text/css\">@font-face{font-family:part1-ff1;src:url(b.woff)}"
+                + ".part1 .ff1,.ff1.part1{font-family:part1-ff1}.part1 .w0,.w0.part1{width:595px}</style>"));
+        // the styles of the second part come before the end of the head of the first
+        assertTrue(html.indexOf("part1-ff1") < html.indexOf("</head>"));
+        assertTrue(html.indexOf("class=\"pf part0 w0 h0\"") < html.indexOf("class=\"pf part1 w0 h0\""));
+        assertTrue(html.endsWith("</div>\n" + TAIL));
+    }
+
+    @Test
+    void scopesRulesInsideMediaAndSupports() {
+        assertEquals("@media print{.part1 .a,.a.part1{b:c}@media (min-width: 1px){.part1 .d,.d.part1{e:f}}}"
+                        + "@supports (display:grid){.part1 .g,.g.part1{h:i}}",
+                ChapterStitcher.scopeCss("@media print{.a{b:c}@media (min-width: 1px){.d{e:f}}}"
+                        + "@supports (display:grid){.g{h:i}}", "part1"));
+    }
+
+    @Test
+    void putsTheScopeBeforePseudoClassesAndCombinators() {
+        assertEquals(".part2 a:hover>b,a.part2:hover>b{c:d}", ChapterStitcher.scopeCss("a:hover>b{c:d}", "part2"));
+        assertEquals(".part2 .x ~ .y::before,.x.part2 ~ .y::before{c:d}",
+                ChapterStitcher.scopeCss(".x ~ .y::before{c:d}", "part2"));
+        assertEquals(".part2 p:not(.a,.b),p.part2:not(.a,.b),.part2 .c+.d,.c.part2+.d{e:f}",
+                ChapterStitcher.scopeCss("p:not(.a,.b), .c+.d{e:f}", "part2"));
+    }
+
+    @Test
+    void skipsStringsCommentsAndOtherAtRules() {
+        assertEquals("@charset \"utf-8\";.part0 .q,.q.part0{content:\"}{\"}/* a{b} */",
+                ChapterStitcher.scopeCss("@charset \"utf-8\";.q{content:\"}{\"}/* a{b} */", "part0"));
+        assertEquals("@keyframes k{from{top:0}}",
+                ChapterStitcher.scopeCss("@keyframes k{from{top:0}}", "part0"));
+        // only the fonts the stylesheet declares are renamed
+        assertEquals("@font-face{font-family:part0-ff2}.part0 .a,.a.part0{font-family:part0-ff2,sans-serif}",
+                ChapterStitcher.scopeCss("@font-face{font-family:'ff2'}.a{font-family:'ff2',sans-serif}", "part0"));
+    }
+
+    @Test
+    void stitchesOnceTheLastPartIsRendered() throws IOException {
+        final File chapter = new File(directory, "0.html");
+        final ChapterStitcher stitcher = new ChapterStitcher(1, 3, chapter);
+        final File second = write("b/0.html", part(BASE_STYLE, 3));
+        final RenderTask secondTask = new RenderTask("generateHtml0-part-3-3", 0, 3, 3);
+        stitcher.partMapper(3, 3, second).map(secondTask);
+        assertFalse(chapter.exists());
+        assertTrue(secondTask.getOutputs().isEmpty());
+        final File first = write("a/0.html", part(BASE_STYLE, 1, 2));
+        final RenderTask firstTask = new RenderTask("generateHtml0-part-1-2", 0, 1, 2);
+        stitcher.partMapper(1, 2, first).map(firstTask);
+        assertEquals(stitched(BASE_STYLE), read(chapter));
+        assertEquals(Collections.singletonList(chapter), firstTask.getOutputs());
+        assertFalse(first.exists());
+        assertFalse(second.exists());
+    }
+
+    @Test
+    void failsWithoutAPageContainer() throws IOException {
+        final File broken = write("b/0.html", part(BASE_STYLE, 2).replace("id=\"page-container\"", "id=\"other\""));
+        final File chapter = new File(directory, "0.html");
+        final IOException exception = assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                ChapterStitcher.stitch(Arrays.asList(write("a/0.html", part(BASE_STYLE, 1)), broken), chapter);
+            }
+        });
+        assertEquals("can not find the pages in " + broken, exception.getMessage());
+        assertFalse(chapter.exists());
+    }
+}
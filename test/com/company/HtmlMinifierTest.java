@@ -0,0 +1,86 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HtmlMinifierTest {
+
+    private static String css(final String input) throws IOException {
+        final StringWriter output = new StringWriter();
+        HtmlMinifier.minifyCss(new StringReader(input), output);
+        return output.toString();
+    }
+
+    private static String html(final String input) throws IOException {
+        final StringWriter output = new StringWriter();
+        HtmlMinifier.minifyHtml(new StringReader(input), output);
+        return output.toString();
+    }
+
+    @Test
+    void dropsWhitespaceAroundPunctuationAndTheLastSemicolon() throws IOException {
+        assertEquals(".a,.b>.c{color:red;width:1px}", css(".a , .b > .c {\n  color : red;\n  width: 1px;\n}\n"));
+    }
+
+    @Test
+    void keepsDescendantCombinatorBeforePseudoClass() throws IOException {
+        assertEquals("div :first-child{margin:0}", css("div :first-child { margin: 0 }"));
+        assertEquals("a:hover :first-child,p :not(.x){top:0}", css("a:hover :first-child, p :not(.x) { top: 0; }"));
+    }
+
+    @Test
+    void keepsSelectorColonSpacingInsideGroupingRules() throws IOException {
+        assertEquals("@media print{div :first-child{color:red}.a{b:c}}",
+                css("@media print {\n div :first-child { color: red; }\n .a { b: c }\n}"));
+        assertEquals("@import url(a.css);@media screen and (max-width: 10px){.a :b{c:d}}",
+                css("@import url(a.css);\n@media screen and (max-width: 10px) { .a :b { c: d } }"));
+    }
+
+    @Test
+    void dropsColonSpacingInFontFaceDeclarations() throws IOException {
+        assertEquals("@font-face{font-family:ff1;src:url(f1.woff) format(\"woff\")}",
+                css("@font-face { font-family: ff1; src: url(f1.woff) format(\"woff\"); }"));
+    }
+
+    @Test
+    void copiesStringsAsTheyAre() throws IOException {
+        assertEquals(".a:after{content:\"  a /* b */ ; c \\\" d  \"}",
+                css(".a:after { content: \"  a /* b */ ; c \\\" d  \"; }"));
+        assertEquals(".a{content:'x  y'}", css(".a { content: 'x  y' }"));
+    }
+
+    @Test
+    void dropsComments() throws IOException {
+        assertEquals(".a{b:c}.d{e:f}", css("/* header */ .a { b: c; /* inline */ }\n/**/.d{e:f}"));
+        assertEquals(".a.b{c:d}", css(".a/* x */.b { c: d }"));
+        assertEquals(".a .b{c:1px 2px}", css(".a /* x */ .b { c: 1px/**/2px }"));
+        assertEquals("a/b", css("a/b"));
+    }
+
+    @Test
+    void copiesUnquotedUrlsAsTheyAre() throws IOException {
+        assertEquals(".a{background:url(http://example.com/a//b.png)}",
+                css(".a { background: url( http://example.com/a//b.png ) }"));
+        assertEquals(".a{src:url(data:image/png;base64,iVBO/*+w==)}",
+                css(".a { src: url(data:image/png;base64,iVBO/*+w==); }"));
+        assertEquals(".a{b:URL(\"x y.png\")}", css(".a { b: URL( \"x y.png\" ) }"));
+    }
+
+    @Test
+    void minifiesStyleElementsAndKeepsTextSpacing() throws IOException {
+        assertEquals("<html><style>div :first-child{a:b}</style><div class=\"t\">a  b</div></html>",
+                html("<html>\n<!-- c --><style>\ndiv :first-child { a: b; }\n</style>\n"
+                        + "<div class=\"t\">a  b</div>\n</html>"));
+    }
+
+    @Test
+    void copiesScriptsAsTheyAre() throws IOException {
+        final String script = "<script>\nvar a = 1;  /* keep */\n</script>";
+        assertEquals(script, html(script));
+    }
+}
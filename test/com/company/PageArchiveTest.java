@@ -0,0 +1,113 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageArchiveTest {
+    @TempDir
+    File directory;
+
+    private File write(final String path, final String content) throws IOException {
+        final File file = new File(directory, path);
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static String read(final ByteBuffer page) {
+        final byte[] bytes = new byte[page.remaining()];
+        page.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Pages of two chapters, one reported by its task out of order and the rest only found when the packs are
+     * finished, next to files which are no pages.
+     */
+    private void render(final PageArchiveWriter writer) throws IOException {
+        write("cover.html", "<p>cover</p>");
+        final RenderTask task = new RenderTask("generateHtml1-3", 1, 3, 4);
+        task.addOutput(write("1/1.html", "<p>chapter 1 page 1</p>"));
+        task.addOutput(write("1/0.html", "<p>chapter 1 page 0</p>"));
+        task.addOutput(write("1/fonts.css", ".f{}"));
+        writer.taskFinished(task, true);
+        write("0/0.html", "<p>chapter 0 page 0</p>");
+        write("0/10.html", "<p>chapter 0 page 10</p>");
+        write("0/0.html.gz", "compressed");
+        write("0/draft/2.html", "<p>not a page</p>");
+        final RenderTask failed = new RenderTask("generateHtml2-5", 2, 5, 5);
+        failed.addOutput(write("2/0.html", "<p>failed</p>"));
+        writer.taskFinished(failed, false);
+        writer.finish();
+    }
+
+    @Test
+    void readsBackEveryPageOfTheBook() throws IOException {
+        render(new PageArchiveWriter(directory, false));
+        try (PageArchive pack = PageArchive.open(new File(directory, "book" + PageArchive.EXTENSION))) {
+            // the failed task's page is on disk too, every page file is packed when finishing
+            assertEquals(6, pack.getPageCount());
+            assertEquals("<p>cover</p>", read(pack.getPage(Main.COVER_PAGE, 0)));
+            assertEquals("<p>chapter 0 page 0</p>", read(pack.getPage(0, 0)));
+            assertEquals("<p>chapter 0 page 10</p>", read(pack.getPage(0, 10)));
+            assertEquals("<p>chapter 1 page 0</p>", read(pack.getPage(1, 0)));
+            assertEquals("<p>chapter 1 page 1</p>", read(pack.getPage(1, 1)));
+            assertNull(pack.getPage(0, 2));
+            assertNull(pack.getPage(3, 0));
+            // the index is sorted by chapter and page
+            assertEquals(Main.COVER_PAGE, pack.getChapterIndex(0));
+            assertEquals(0, pack.getChapterIndex(1));
+            assertEquals(10, pack.getPageIndex(2));
+        }
+    }
+
+    @Test
+    void packsEveryChapterOnItsOwn() throws IOException {
+        render(new PageArchiveWriter(directory, true));
+        assertFalse(new File(directory, "book" + PageArchive.EXTENSION).exists());
+        try (PageArchive pack = PageArchive.open(new File(directory, "1" + PageArchive.EXTENSION))) {
+            assertEquals(2, pack.getPageCount());
+            assertEquals("<p>chapter 1 page 1</p>", read(pack.getPage(1, 1)));
+            assertNull(pack.getPage(0, 0));
+            assertNull(pack.getPage(Main.COVER_PAGE, 0));
+        }
+        try (PageArchive pack = PageArchive.open(new File(directory, "0" + PageArchive.EXTENSION))) {
+            assertEquals(2, pack.getPageCount());
+            assertEquals("<p>chapter 0 page 10</p>", read(pack.getPage(0, 10)));
+        }
+    }
+
+    @Test
+    void keepsThePageFiles() throws IOException {
+        render(new PageArchiveWriter(directory, false));
+        assertTrue(new File(directory, "0/0.html").isFile());
+        assertTrue(new File(directory, "0/0.html.gz").isFile());
+        assertTrue(new File(directory, "1/1.html").isFile());
+        assertTrue(new File(directory, "cover.html").isFile());
+        assertFalse(new File(directory, "book" + PageArchive.EXTENSION + ".tmp").exists());
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        final File file = write("other.pack", "PAGEPACK but no index and no footer");
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                PageArchive.open(file).close();
+            }
+        });
+    }
+}
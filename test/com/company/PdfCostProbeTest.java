@@ -0,0 +1,307 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.zip.Deflater;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class PdfCostProbeTest {
+    private static final double DELTA = 1e-9;
+    // page 1 plain, page 2 with 100 KB of content, page 3 with a 256 KB image and a 25 KB form
+    private static final double[] UNITS = {1 + 1024 / (50.0 * 1024), 1 + 100 * 1024 / (50.0 * 1024),
+            1 + (1024 + 25 * 1024) / (50.0 * 1024) + 256 * 1024 / (512.0 * 1024)};
+
+    @TempDir
+    File directory;
+
+    /**
+     * Writes PDF files object by object and records where each object went, for the cross reference.
+     */
+    private static final class PdfWriter {
+        private final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        private final Map<Integer, Integer> offsets = new LinkedHashMap<>();
+        // object number to object stream and index within it
+        private final Map<Integer, int[]> compressed = new LinkedHashMap<>();
+
+        private PdfWriter() {
+            write("%PDF-1.7\n%âãÏÓ\n");
+        }
+
+        private void write(final String text) {
+            final byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+            output.write(bytes, 0, bytes.length);
+        }
+
+        private int position() {
+            return output.size();
+        }
+
+        private void object(final int number, final String body) {
+            offsets.put(number, position());
+            write(number + " 0 obj\n" + body + "\nendobj\n");
+        }
+
+        private void stream(final int number, final String dictionary, final byte[] data) {
+            offsets.put(number, position());
+            write(number + " 0 obj\n<< " + dictionary + " /Length " + data.length + " >>\nstream\n");
+            output.write(data, 0, data.length);
+            write("\nendstream\nendobj\n");
+        }
+
+        /**
+         * Puts the objects, by number, into a Flate compressed object stream.
+         */
+        private void objectStream(final int number, final Map<Integer, String> objects) {
+            final StringBuilder header = new StringBuilder();
+            final StringBuilder bodies = new StringBuilder();
+            int index = 0;
+            for (Map.Entry<Integer, String> entry : objects.entrySet()) {
+                header.append(entry.getKey()).append(' ').append(bodies.length()).append(' ');
+                bodies.append(entry.getValue()).append('\n');
+                compressed.put(entry.getKey(), new int[]{number, index++});
+            }
+            final String content = header + bodies.toString();
+            stream(number, "/Type /ObjStm /N " + objects.size() + " /First " + header.length()
+                    + " /Filter /FlateDecode", deflate(content.getBytes(StandardCharsets.ISO_8859_1)));
+        }
+
+        /**
+         * Classic table of the given objects, or all written ones. Returns its offset.
+         */
+        private int xrefTable(final List<Integer> numbers, final String trailer) {
+            final int start = position();
+            final int size = maxNumber() + 1;
+            write("xref\n0 1\n0000000000 65535 f \n");
+            for (Integer number : numbers) {
+                write(number + " 1\n" + String.format("%010d 00000 n \n", offsets.get(number)));
+            }
+            write("trailer\n<< /Size " + size + " " + trailer + " >>\n");
+            return start;
+        }
+
+        private int xrefTable(final String trailer) {
+            return xrefTable(new ArrayList<>(offsets.keySet()), trailer);
+        }
+
+        /**
+         * Xref stream of all objects, rows of type, 4 byte offset or stream and index, compressed with the PNG up
+         * predictor the way most writers do.
+         */
+        private int xrefStream(final int number, final String trailer, final String filter) {
+            final int start = position();
+            offsets.put(number, start);
+            final int size = maxNumber() + 1;
+            final int columns = 6;
+            final byte[] rows = new byte[size * columns];
+            for (int object = 0; object < size; object++) {
+                final int[] location = compressed.get(object);
+                final Integer offset = offsets.get(object);
+                final int row = object * columns;
+                final int value = location != null ? location[0] : offset != null ? offset : 0;
+                rows[row] = (byte) (location != null ? 2 : offset != null ? 1 : 0);
+                for (int index = 0; index < 4; index++) {
+                    rows[row + 1 + index] = (byte) (value >> (24 - 8 * index));
+                }
+                rows[row + 5] = (byte) (location != null ? location[1] : 0);
+            }
+            final byte[] predicted = new byte[size * (columns + 1)];
+            for (int row = 0; row < size; row++) {
+                predicted[row * (columns + 1)] = 2;
+                for (int column = 0; column < columns; column++) {
+                    final int up = row > 0 ? rows[(row - 1) * columns + column] : 0;
+                    predicted[row * (columns + 1) + 1 + column] = (byte) (rows[row * columns + column] - up);
+                }
+            }
+            stream(number, "/Type /XRef /Size " + size + " /W [1 4 1] /Filter " + filter
+                    + " /DecodeParms << /Predictor 12 /Columns " + columns + " >> " + trailer, deflate(predicted));
+            return start;
+        }
+
+        private int maxNumber() {
+            int max = 0;
+            for (Integer number : offsets.keySet()) {
+                max = Math.max(max, number);
+            }
+            for (Integer number : compressed.keySet()) {
+                max = Math.max(max, number);
+            }
+            return max;
+        }
+
+        private byte[] finish(final int startXref) {
+            write("startxref\n" + startXref + "\n%%EOF\n");
+            return output.toByteArray();
+        }
+    }
+
+    private static byte[] deflate(final byte[] data) {
+        final Deflater deflater = new Deflater();
+        deflater.setInput(data);
+        deflater.finish();
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        final byte[] chunk = new byte[8192];
+        while (!deflater.finished()) {
+            output.write(chunk, 0, deflater.deflate(chunk));
+        }
+        deflater.end();
+        return output.toByteArray();
+    }
+
+    private static byte[] bytes(final int length) {
+        final byte[] data = new byte[length];
+        Arrays.fill(data, (byte) 'q');
+        return data;
+    }
+
+    /**
+     * The catalog, the page tree and the three pages, in object order: 1 catalog, 2 pages, 3-5 the pages. The streams
+     * they draw are objects 6-9.
+     */
+    private static Map<Integer, String> pageTree(final String kids, final int count) {
+        final Map<Integer, String> objects = new LinkedHashMap<>();
+        objects.put(1, "<< /Type /Catalog /Pages 2 0 R >>");
+        objects.put(2, "<< /Type /Pages /Kids [" + kids + "] /Count " + count
+                + " /Resources << /Font << /F1 << /Type /Font >> >> >> >>");
+        objects.put(3, "<< /Type /Page /Parent 2 0 R /Contents 6 0 R >>");
+        objects.put(4, "<< /Type /Page /Parent 2 0 R /Contents [6 0 R 7 0 R] >>");
+        objects.put(5, "<< /Type /Page /Parent 2 0 R /Contents 6 0 R"
+                + " /Resources << /XObject << /Im1 8 0 R /Fm1 9 0 R >> >> >>");
+        return objects;
+    }
+
+    private static void streams(final PdfWriter writer) {
+        writer.stream(6, "", bytes(1024));
+        writer.stream(7, "", bytes(99 * 1024));
+        writer.stream(8, "/Type /XObject /Subtype /Image /Width 16 /Height 16", bytes(256 * 1024));
+        writer.stream(9, "/Type /XObject /Subtype /Form", bytes(25 * 1024));
+    }
+
+    private static byte[] classic(final String kids, final int count) {
+        final PdfWriter writer = new PdfWriter();
+        for (Map.Entry<Integer, String> entry : pageTree(kids, count).entrySet()) {
+            writer.object(entry.getKey(), entry.getValue());
+        }
+        streams(writer);
+        return writer.finish(writer.xrefTable("/Root 1 0 R"));
+    }
+
+    private File file(final String name, final byte[] content) throws IOException {
+        final File file = new File(directory, name);
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    @Test
+    void readsClassicXrefTables() throws IOException {
+        final File pdf = file("classic.pdf", classic("3 0 R 4 0 R 5 0 R", 3));
+        assertArrayEquals(UNITS, PdfCostProbe.estimate(pdf), DELTA);
+        assertEquals(3, PdfCostProbe.pageCount(pdf));
+    }
+
+    @Test
+    void readsXrefStreamsWithObjectStreams() throws IOException {
+        final PdfWriter writer = new PdfWriter();
+        writer.objectStream(11, pageTree("3 0 R 4 0 R 5 0 R", 3));
+        streams(writer);
+        final File pdf = file("xref-stream.pdf", writer.finish(writer.xrefStream(12, "/Root 1 0 R",
+                "/FlateDecode")));
+        assertArrayEquals(UNITS, PdfCostProbe.estimate(pdf), DELTA);
+        assertEquals(3, PdfCostProbe.pageCount(pdf));
+    }
+
+    @Test
+    void readsHybridFilesThroughXRefStm() throws IOException {
+        // the table only lists the catalog and the streams, the pages are in an object stream only the xref
+        // stream knows, as in files saved for readers with and without xref stream support
+        final PdfWriter writer = new PdfWriter();
+        final Map<Integer, String> tree = pageTree("3 0 R 4 0 R 5 0 R", 3);
+        writer.object(1, tree.remove(1));
+        streams(writer);
+        writer.objectStream(11, tree);
+        final int xrefStream = writer.xrefStream(12, "", "/FlateDecode");
+        final int table = writer.xrefTable(Arrays.asList(1, 6, 7, 8, 9, 11), "/Root 1 0 R /XRefStm " + xrefStream);
+        final File pdf = file("hybrid.pdf", writer.finish(table));
+        assertArrayEquals(UNITS, PdfCostProbe.estimate(pdf), DELTA);
+        assertEquals(3, PdfCostProbe.pageCount(pdf));
+    }
+
+    @Test
+    void followsIncrementalUpdatesThroughPrev() throws IOException {
+        final byte[] original = classic("3 0 R 4 0 R", 2);
+        final String update = "2 0 obj\n<< /Type /Pages /Kids [3 0 R 4 0 R 5 0 R] /Count 3 >>\nendobj\n";
+        final int objectOffset = original.length;
+        final int xrefOffset = objectOffset + update.length();
+        final int previous = Integer.parseInt(new String(original, StandardCharsets.ISO_8859_1)
+                .replaceAll("(?s).*startxref\\s+(\\d+).*", "$1"));
+        final String section = update + "xref\n2 1\n" + String.format("%010d 00000 n \n", objectOffset)
+                + "trailer\n<< /Size 10 /Root 1 0 R /Prev " + previous + " >>\nstartxref\n" + xrefOffset
+                + "\n%%EOF\n";
+        final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        content.write(original);
+        content.write(section.getBytes(StandardCharsets.ISO_8859_1));
+        final File pdf = file("updated.pdf", content.toByteArray());
+        assertEquals(3, PdfCostProbe.pageCount(pdf));
+        // the resources of the page tree were dropped by the update, the pages still cost the same
+        assertArrayEquals(UNITS, PdfCostProbe.estimate(pdf), DELTA);
+    }
+
+    @Test
+    void givesUpOnPageNodesWhichDoNotResolve() throws IOException {
+        // object 13 does not exist, counting the two other pages would fail a valid table of contents
+        final File pdf = file("missing-kid.pdf", classic("3 0 R 13 0 R 5 0 R", 3));
+        assertNull(PdfCostProbe.estimate(pdf));
+        assertEquals(-1, PdfCostProbe.pageCount(pdf));
+    }
+
+    @Test
+    void givesUpWhenThePagesDoNotAddUpToCount() throws IOException {
+        assertEquals(-1, PdfCostProbe.pageCount(file("short.pdf", classic("3 0 R 4 0 R 5 0 R", 4))));
+        assertEquals(-1, PdfCostProbe.pageCount(file("cycle.pdf", classic("3 0 R 2 0 R", 2))));
+        assertEquals(-1, PdfCostProbe.pageCount(file("twice.pdf", classic("3 0 R 3 0 R 5 0 R", 3))));
+    }
+
+    @Test
+    void givesUpWithoutCount() throws IOException {
+        final File pdf = file("no-count.pdf", new String(classic("3 0 R 4 0 R 5 0 R", 3),
+                StandardCharsets.ISO_8859_1).replace("/Count 3", "/Count /X").getBytes(StandardCharsets.ISO_8859_1));
+        assertEquals(-1, PdfCostProbe.pageCount(pdf));
+        assertNull(PdfCostProbe.estimate(pdf));
+    }
+
+    @Test
+    void givesUpOnUnsupportedFilters() throws IOException {
+        final PdfWriter writer = new PdfWriter();
+        writer.objectStream(11, pageTree("3 0 R 4 0 R 5 0 R", 3));
+        streams(writer);
+        final File pdf = file("lzw.pdf", writer.finish(writer.xrefStream(12, "/Root 1 0 R", "/LZWDecode")));
+        assertNull(PdfCostProbe.estimate(pdf));
+        assertEquals(-1, PdfCostProbe.pageCount(pdf));
+    }
+
+    @Test
+    void givesUpOnFilesWhichAreNoPdf() throws IOException {
+        final byte[] random = new byte[64 * 1024];
+        new Random(7).nextBytes(random);
+        assertNull(PdfCostProbe.estimate(file("random.pdf", random)));
+        assertEquals(-1, PdfCostProbe.pageCount(file("random.pdf", random)));
+        assertEquals(-1, PdfCostProbe.pageCount(file("empty.pdf", new byte[0])));
+        assertEquals(-1, PdfCostProbe.pageCount(file("broken.pdf",
+                "%PDF-1.4\nstartxref\n9999999\n%%EOF\n".getBytes(StandardCharsets.ISO_8859_1))));
+        assertEquals(-1, PdfCostProbe.pageCount(new File(directory, "missing.pdf")));
+    }
+}
@@ -0,0 +1,173 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.function.Executable;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SearchIndexTest {
+    @TempDir
+    File directory;
+
+    private static Chapter chapter(final String name, final int first, final int last) {
+        final Chapter chapter = new Chapter();
+        chapter.setName(name);
+        chapter.setFirst(first);
+        chapter.setLast(last);
+        return chapter;
+    }
+
+    /**
+     * A page the way pdf2htmlEX writes it: the outline before the pages, a page frame with the page number in hex,
+     * text lines as divs and spacing spans between words.
+     */
+    private static String page(final String number, final String text) {
+        return "<div class=\"pf w0 h0\" data-page-no=\"" + number + "\"><div class=\"pc\">"
+                + "<div class=\"t m0 x0 h1 y0 ff1 fs0\">" + text + "</div></div></div>\n";
+    }
+
+    private static String document(final String... pages) {
+        final StringBuilder html = new StringBuilder("<!DOCTYPE html><html><head><style>.ff1{font-family:ff1}"
+                + "</style><script>var hidden = 'scripted';</script></head><body>"
+                + "<div id=\"outline\"><ul><li><a href=\"#pf1\">Outline entry</a></li></ul></div>"
+                + "<div id=\"page-container\">");
+        for (String page : pages) {
+            html.append(page);
+        }
+        return html.append("</div></body></html>").toString();
+    }
+
+    private static File write(final File file, final String content) throws IOException {
+        file.getParentFile().mkdirs();
+        Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private SearchIndex build() throws IOException {
+        final List<Chapter> chapters = Arrays.asList(chapter("One", 10, 11), chapter("Two", 12, 13));
+        final SearchIndexer indexer = new SearchIndexer(directory, chapters);
+        // -s true pages of chapter 0 are reported by their task
+        final RenderTask task = new RenderTask("generateHtml0-10", 0, 10, 11);
+        task.addOutput(write(new File(directory, "0/0.html"), document(page("a",
+                "Hello<span class=\"_ _0\"></span>World, the caf&#xe9; &amp; the <span class=\"ff2\">ty</span>pe"))));
+        task.addOutput(write(new File(directory, "0/1.html"), document(page("b",
+                "World&nbsp;peace&lt;hello&gt; 42"))));
+        indexer.taskFinished(task, true);
+        // a chapter file a resumed run left behind, only found when the index is finished
+        write(new File(directory, "1.html"), document(page("c", "Hello again, Hello"), page("d", "Caf&#233; world")));
+        // a failed task contributes nothing
+        final RenderTask failed = new RenderTask("generateHtml1-12", 1, 12, 12);
+        failed.addOutput(write(new File(directory, "stale.txt"), "hello"));
+        indexer.taskFinished(failed, false);
+        indexer.finish();
+        return SearchIndex.open(new File(directory, SearchIndexer.FILE_NAME));
+    }
+
+    @Test
+    void findsPagesOfWords() throws IOException {
+        try (SearchIndex index = build()) {
+            assertEquals(4, index.getPageCount());
+            assertArrayEquals(new int[]{10, 11, 12}, index.getPages("hello"));
+            assertArrayEquals(new int[]{10, 11, 13}, index.getPages("World"));
+            assertArrayEquals(new int[]{10, 13}, index.getPages("café"));
+            assertArrayEquals(new int[]{11}, index.getPages("42"));
+            assertArrayEquals(new int[0], index.getPages("missing"));
+        }
+    }
+
+    @Test
+    void splitsWordsAtSpacingSpansAndEntities() throws IOException {
+        try (SearchIndex index = build()) {
+            assertArrayEquals(new int[]{10}, index.getPages("type"));
+            assertArrayEquals(new int[0], index.getPages("helloworld"));
+            assertArrayEquals(new int[]{11}, index.getPages("peace"));
+            assertArrayEquals(new int[0], index.getPages("amp"));
+            assertArrayEquals(new int[0], index.getPages("nbsp"));
+        }
+    }
+
+    @Test
+    void skipsOutlineScriptsAndStyles() throws IOException {
+        try (SearchIndex index = build()) {
+            assertArrayEquals(new int[0], index.getPages("outline"));
+            assertArrayEquals(new int[0], index.getPages("scripted"));
+            assertArrayEquals(new int[0], index.getPages("ff1"));
+        }
+    }
+
+    @Test
+    void intersectsTheWordsOfAQuery() throws IOException {
+        try (SearchIndex index = build()) {
+            assertArrayEquals(new int[]{10, 11}, index.search("hello, WORLD"));
+            assertArrayEquals(new int[]{10}, index.search("Hello world café"));
+            assertArrayEquals(new int[0], index.search("hello missing"));
+            assertArrayEquals(new int[0], index.search(" ,. "));
+        }
+    }
+
+    @Test
+    void countsPositionsFromTheStartOfThePage() throws IOException {
+        try (SearchIndex index = build()) {
+            assertArrayEquals(new int[]{0, 2}, index.getPositions("hello", 12));
+            assertArrayEquals(new int[]{0}, index.getPositions("hello", 10));
+            assertArrayEquals(new int[]{2}, index.getPositions("hello", 11));
+            assertArrayEquals(new int[]{3}, index.getPositions("café", 10));
+            assertArrayEquals(new int[0], index.getPositions("hello", 13));
+        }
+    }
+
+    @Test
+    void mapsPagesToChapters() throws IOException {
+        try (SearchIndex index = build()) {
+            assertEquals(0, index.getChapterIndex(10));
+            assertEquals(0, index.getChapterIndex(11));
+            assertEquals(1, index.getChapterIndex(13));
+            assertEquals(-1, index.getChapterIndex(9));
+            assertEquals(-1, index.getChapterIndex(14));
+        }
+    }
+
+    @Test
+    void writesTheDocumentedLayout() throws IOException {
+        build().close();
+        final byte[] bytes = Files.readAllBytes(new File(directory, SearchIndexer.FILE_NAME).toPath());
+        final ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        assertArrayEquals(SearchIndex.MAGIC, Arrays.copyOf(bytes, SearchIndex.MAGIC.length));
+        assertEquals(SearchIndex.VERSION, buffer.getInt(8));
+        assertEquals(2, buffer.getInt(12));
+        final int terms = buffer.getInt(16);
+        assertEquals(4, buffer.getInt(20));
+        assertEquals(10, buffer.getInt(SearchIndex.HEADER_SIZE));
+        assertEquals(13, buffer.getInt(SearchIndex.HEADER_SIZE + SearchIndex.CHAPTER_SIZE + 4));
+        // the postings of the last term end the file
+        final int last = SearchIndex.HEADER_SIZE + 2 * SearchIndex.CHAPTER_SIZE + (terms - 1) * SearchIndex.TERM_SIZE;
+        assertEquals(bytes.length, buffer.getLong(last) + buffer.getInt(last + 8));
+        // the terms follow the table, sorted by their bytes
+        final int firstTerm = SearchIndex.HEADER_SIZE + 2 * SearchIndex.CHAPTER_SIZE + terms * SearchIndex.TERM_SIZE;
+        assertEquals(firstTerm, buffer.getInt(SearchIndex.HEADER_SIZE + 2 * SearchIndex.CHAPTER_SIZE + 12));
+        assertEquals("42", new String(bytes, firstTerm, buffer.getInt(SearchIndex.HEADER_SIZE
+                + 2 * SearchIndex.CHAPTER_SIZE + 16), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void rejectsOtherFiles() throws IOException {
+        final File file = write(new File(directory, "other.idx"), "PAGEPACK and some more bytes for a header");
+        assertThrows(IOException.class, new Executable() {
+            @Override
+            public void execute() throws Throwable {
+                SearchIndex.open(file).close();
+            }
+        });
+    }
+}
@@ -0,0 +1,103 @@
+package com.company;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class WorkQueueTest {
+    @TempDir
+    File directory;
+
+    /**
+     * The cover task of a book, named the same in every book.
+     */
+    private RenderTask cover(final WorkQueue queue, final String book) {
+        final RenderTask task = new RenderTask("generateHtml0-0", -1, 1, 1);
+        task.addCommand(new RenderCommand("/usr/bin/pdf2htmlEX", 1, 1, 1.5f, false,
+                new File(directory, book).getAbsolutePath(), new File(directory, book + ".pdf").getAbsolutePath(),
+                "cover.html", null, 0));
+        task.setWorkQueue(queue);
+        return task;
+    }
+
+    private static Callable<WorkQueue.Result> execute(final WorkQueue queue, final RenderTask task) {
+        return new Callable<WorkQueue.Result>() {
+            @Override
+            public WorkQueue.Result call() throws Exception {
+                return queue.execute(task);
+            }
+        };
+    }
+
+    /**
+     * Answers every queued task with the PDF it was asked to render, until stopped.
+     */
+    private static Runnable worker(final WorkQueue queue, final AtomicBoolean stopped, final AtomicInteger rendered) {
+        return new Runnable() {
+            @Override
+            public void run() {
+                while (!stopped.get()) {
+                    final File lease = queue.claim("worker");
+                    if (lease == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    try {
+                        final Properties task = queue.readTask(lease);
+                        final Properties result = new Properties();
+                        result.setProperty("exitCode", "1");
+                        result.setProperty("failureReason", task.getProperty("command.0.pdf"));
+                        queue.complete(lease, result);
+                        rendered.incrementAndGet();
+                    } catch (Exception e) {
+                        throw new IllegalStateException(e);
+                    }
+                }
+            }
+        };
+    }
+
+    @Test
+    void keepsTasksOfBooksRenderedTogetherApart() throws Exception {
+        final WorkQueue queue = new WorkQueue(directory, 60000);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        final AtomicBoolean stopped = new AtomicBoolean();
+        final AtomicInteger rendered = new AtomicInteger();
+        try {
+            final RenderTask first = cover(queue, "first");
+            final RenderTask second = cover(queue, "second");
+            final Future<WorkQueue.Result> firstResult = executor.submit(execute(queue, first));
+            final Future<WorkQueue.Result> secondResult = executor.submit(execute(queue, second));
+            executor.execute(worker(queue, stopped, rendered));
+            assertEquals(new File(directory, "first.pdf").getAbsolutePath(),
+                    firstResult.get(10, TimeUnit.SECONDS).getFailureReason());
+            assertEquals(new File(directory, "second.pdf").getAbsolutePath(),
+                    secondResult.get(10, TimeUnit.SECONDS).getFailureReason());
+            assertEquals(2, rendered.get());
+        } finally {
+            stopped.set(true);
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void dropsTheTaskOfACancelledAttempt() throws Exception {
+        final WorkQueue queue = new WorkQueue(directory, 60000);
+        final RenderTask task = cover(queue, "book");
+        task.cancel();
+        assertNull(queue.execute(task));
+        assertNull(queue.claim("worker"));
+    }
+}